@@ -0,0 +1,104 @@
+package banking;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ============ JMH BENCHMARKS FOR THE ACCOUNT STORES ===========
+// The AccountStore operations on the JDBC store (H2 in MySQL mode) and on the memory-mapped store, with the same
+// accounts and operations, so the two are compared side by side in one JMH report:
+//      mvn -B -Pjmh package
+//      java -jar target/benchmarks.jar AccountStoreBenchmark -t 4
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountStoreBenchmark {
+
+    private static final double SEED_BALANCE = 1_000_000_000;
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    @Param({"jdbc", "mapped"})
+    public String store;
+
+    @Param({"1000"})
+    public int accounts;
+
+    private ConnectionPool pool;
+    private Path file;
+    private AccountStore accountStore;
+    private final AtomicInteger phoneSequence = new AtomicInteger();
+    private int firstAccNo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pool = new ConnectionPool(BankSchema.embeddedUrl("jmhstore" + DATABASES.incrementAndGet()), "", "", 64, 1, 30_000,
+                10 * 60_000, 0, 32);
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+        }
+        file = Files.createTempFile("jmh-", ".store");
+        Files.delete(file);
+        accountStore = AccountStore.open(pool, Map.of("store", store, "store-file", file.toString()));
+        for (int i = 0; i < accounts; i++) {
+            int acc_no = createAccount();
+            if (i == 0) {
+                firstAccNo = acc_no;
+            }
+        }
+        SimpleBankingSystem.balanceCache.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        accountStore.close();
+        pool.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int createAccount() throws Exception {
+        int n = phoneSequence.incrementAndGet();
+        return accountStore.createAccount("Bench " + n, "9" + String.format("%09d", n), "bench" + n + "@example.com", SEED_BALANCE);
+    }
+
+    @Benchmark
+    public double getBalance() throws Exception {
+        int acc_no = pick();
+        SimpleBankingSystem.balanceCache.invalidate(acc_no);
+        return accountStore.getBalance(acc_no);
+    }
+
+    @Benchmark
+    public double credit() throws Exception {
+        return accountStore.credit(pick(), 1.0);
+    }
+
+    @Benchmark
+    public double debit() throws Exception {
+        return accountStore.debit(pick(), 1.0);
+    }
+
+    @Benchmark
+    public double[] transfer() throws Exception {
+        int debit = pick();
+        int credit = pick();
+        while (credit == debit) {
+            credit = pick();
+        }
+        return accountStore.transfer(debit, credit, 1.0);
+    }
+
+    private int pick() {
+        return firstAccNo + ThreadLocalRandom.current().nextInt(accounts);
+    }
+}
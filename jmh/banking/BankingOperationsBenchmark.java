@@ -0,0 +1,105 @@
+package banking;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ============ JMH BENCHMARKS FOR THE BANKING OPERATIONS ===========
+// The teller operations through BankService, on an in-memory H2 database in MySQL mode. With contended=false the
+// accounts are picked uniformly; with contended=true every thread works on the same HOT_ACCOUNTS accounts, so run
+// that with several threads to measure row lock contention:
+//      mvn -B -Pjmh package
+//      java -jar target/benchmarks.jar BankingOperationsBenchmark -p contended=false
+//      java -jar target/benchmarks.jar BankingOperationsBenchmark -p contended=true -t 8
+// The built-in "bench" command measures the same operations without JMH.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BankingOperationsBenchmark {
+
+    private static final int HOT_ACCOUNTS = 4;
+    private static final double SEED_BALANCE = 1_000_000_000;
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    @Param({"1000"})
+    public int accounts;
+
+    @Param({"false", "true"})
+    public boolean contended;
+
+    private ConnectionPool pool;
+    private BankService service;
+    private final AtomicInteger phoneSequence = new AtomicInteger();
+    private int firstAccNo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pool = new ConnectionPool(BankSchema.embeddedUrl("jmh" + DATABASES.incrementAndGet()), "", "", 64, 1, 30_000,
+                10 * 60_000, 0, 32);
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+        }
+        service = new BankService(pool);
+        for (int i = 0; i < accounts; i++) {
+            int acc_no = createAccount();
+            if (i == 0) {
+                firstAccNo = acc_no;
+            }
+        }
+        SimpleBankingSystem.balanceCache.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public int createAccount() throws Exception {
+        int n = phoneSequence.incrementAndGet();
+        return service.createAccount("Bench " + n, "9" + String.format("%09d", n), "bench" + n + "@example.com", SEED_BALANCE);
+    }
+
+    @Benchmark
+    public double balanceLookup() throws Exception {
+        int acc_no = pick();
+        SimpleBankingSystem.balanceCache.invalidate(acc_no);
+        return service.getBalance(acc_no);
+    }
+
+    @Benchmark
+    public double balanceLookupCached() throws Exception {
+        return service.getBalance(pick());
+    }
+
+    @Benchmark
+    public double deposit() throws Exception {
+        return service.deposit(pick(), 1.0);
+    }
+
+    @Benchmark
+    public double withdraw() throws Exception {
+        return service.withdraw(pick(), 1.0);
+    }
+
+    @Benchmark
+    public double[] transfer() throws Exception {
+        int debit = pick();
+        int credit = pick();
+        while (credit == debit) {
+            credit = pick();
+        }
+        return service.transfer(debit, credit, 1.0);
+    }
+
+    private int pick() {
+        return firstAccNo + ThreadLocalRandom.current().nextInt(contended ? Math.min(HOT_ACCOUNTS, accounts) : accounts);
+    }
+}
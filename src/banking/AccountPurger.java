@@ -0,0 +1,290 @@
+package banking;
+
+import java.sql.*;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ============ BACKGROUND PURGE OF CLOSED ACCOUNTS ===========
+// Deleting an account only sets customers.closed_at (see BankService.deleteAccount); every read and write path
+// treats a closed account as missing. The purger moves closed accounts out of the online tables afterwards:
+// first their transaction history into transactions_archive, then the customer rows into closed_accounts.
+// Every step is a short transaction over at most batchSize rows, followed by a pause, so the purge never holds
+// many row locks or a pooled connection for long. A closed account takes no new history, so its rows can be moved
+// over several transactions without racing the write paths.
+//
+// Only accounts closed at least minAgeMillis ago are taken, which leaves a ledger engine time to flush what it
+// acknowledged before the close. A run can be confined to an off-peak window of hours; it stops at the next batch
+// once the window ends and the following run carries on where it left off.
+
+public class AccountPurger {
+
+    private static final String CLOSED_QUERY = "SELECT acc_no FROM customers WHERE closed_at IS NOT NULL AND closed_at <= ? "
+            + "ORDER BY acc_no LIMIT ?";
+    private static final long DEFAULT_MIN_AGE_MINUTES = 10;
+    private static final long WINDOW_CHECK_SECONDS = 60;
+
+    public static class Summary {
+        public final int accountsPurged;
+        public final long historyRowsArchived;
+        public final int transactions;
+        public final boolean windowClosed;
+        public final long elapsedNanos;
+
+        private Summary(int accountsPurged, long historyRowsArchived, int transactions, boolean windowClosed, long elapsedNanos) {
+            this.accountsPurged = accountsPurged;
+            this.historyRowsArchived = historyRowsArchived;
+            this.transactions = transactions;
+            this.windowClosed = windowClosed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Purged %d closed accounts and archived %d history rows in %d transactions (%.2f s)%s",
+                    accountsPurged, historyRowsArchived, transactions, elapsedNanos / 1_000_000_000.0,
+                    windowClosed ? ", stopped at the end of the window" : "");
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final long minAgeMillis;
+    // Hours of the day [windowStart, windowEnd) the purger may run in; -1 for any time
+    private final int windowStart;
+    private final int windowEnd;
+
+    public AccountPurger(ConnectionPool pool, int batchSize, long pauseMillis, long minAgeMillis, int windowStart, int windowEnd) {
+        if (batchSize <= 0 || pauseMillis < 0 || minAgeMillis < 0) {
+            throw new IllegalArgumentException("batchSize must be positive, pauseMillis and minAgeMillis not negative");
+        }
+        if ((windowStart == -1) != (windowEnd == -1) || windowStart < -1 || windowStart > 23 || windowEnd < -1 || windowEnd > 24) {
+            throw new IllegalArgumentException("The window must be two hours of the day, or -1 for none");
+        }
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        this.minAgeMillis = minAgeMillis;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+    }
+
+    // Command line entry: purge [--batch-size=N] [--pause=millis] [--min-age=minutes] [--window=from-to hours]
+    public static void run(ConnectionPool pool, String[] args) {
+        Map<String, String> options = CliOptions.parse(args);
+        try {
+            Summary summary = fromOptions(pool, options, "").run();
+            System.out.println(summary);
+        } catch (IllegalArgumentException | SQLException e) {
+            System.out.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Reads <prefix>batch-size, <prefix>pause, <prefix>min-age and <prefix>window ("1-5" is 01:00 to 05:00)
+    static AccountPurger fromOptions(ConnectionPool pool, Map<String, String> options, String prefix) {
+        int batchSize = Integer.parseInt(options.getOrDefault(prefix + "batch-size", "500"));
+        long pauseMillis = Long.parseLong(options.getOrDefault(prefix + "pause", "50"));
+        long minAgeMillis = TimeUnit.MINUTES.toMillis(
+                Long.parseLong(options.getOrDefault(prefix + "min-age", String.valueOf(DEFAULT_MIN_AGE_MINUTES))));
+        int windowStart = -1;
+        int windowEnd = -1;
+        String window = options.get(prefix + "window");
+        if (window != null && !window.equals("true")) {
+            String[] hours = window.split("-");
+            if (hours.length != 2) {
+                throw new IllegalArgumentException("The purge window must look like 1-5.");
+            }
+            windowStart = Integer.parseInt(hours[0].trim());
+            windowEnd = Integer.parseInt(hours[1].trim());
+        }
+        return new AccountPurger(pool, batchSize, pauseMillis, minAgeMillis, windowStart, windowEnd);
+    }
+
+    // Checks the window every minute and purges while it is open
+    public ScheduledExecutorService schedule() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (!inWindow()) {
+                return;
+            }
+            try {
+                Summary summary = run();
+                if (summary.accountsPurged > 0) {
+                    System.out.println(summary);
+                }
+            } catch (SQLException e) {
+                SimpleBankingSystem.metrics.sqlError();
+                System.out.println("Account purge failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, WINDOW_CHECK_SECONDS, WINDOW_CHECK_SECONDS, TimeUnit.SECONDS);
+        return scheduler;
+    }
+
+    public boolean inWindow() {
+        if (windowStart == -1) {
+            return true;
+        }
+        int hour = LocalTime.now().getHour();
+        return windowStart <= windowEnd ? hour >= windowStart && hour < windowEnd : hour >= windowStart || hour < windowEnd;
+    }
+
+    // Purges closed accounts until none are old enough or the window closes
+    public Summary run() throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        int purged = 0;
+        long archived = 0;
+        int transactions = 0;
+        while (true) {
+            if (!inWindow()) {
+                return new Summary(purged, archived, transactions, true, System.nanoTime() - start);
+            }
+            List<Integer> accounts = closedAccounts();
+            if (accounts.isEmpty()) {
+                return new Summary(purged, archived, transactions, false, System.nanoTime() - start);
+            }
+            // History in chunks of batchSize rows, oldest first
+            int moved;
+            do {
+                moved = moveHistory(accounts);
+                archived += moved;
+                transactions++;
+                Thread.sleep(pauseMillis);
+            } while (moved == batchSize);
+
+            archived += moveAccounts(accounts);
+            purged += accounts.size();
+            transactions++;
+            for (Integer acc_no : accounts) {
+                SimpleBankingSystem.balanceCache.invalidate(acc_no);
+            }
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    private List<Integer> closedAccounts() throws SQLException {
+        List<Integer> accounts = new ArrayList<>();
+        try (Connection conn = pool.borrow();
+             PreparedStatement closed_preparedStatement = conn.prepareStatement(CLOSED_QUERY)) {
+            closed_preparedStatement.setTimestamp(1, new Timestamp(System.currentTimeMillis() - minAgeMillis));
+            closed_preparedStatement.setInt(2, batchSize);
+            try (ResultSet resultSet = closed_preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    accounts.add(resultSet.getInt("acc_no"));
+                }
+            }
+        }
+        return accounts;
+    }
+
+    // Moves up to batchSize of the accounts' oldest history rows to transactions_archive; returns how many
+    private int moveHistory(List<Integer> accounts) throws SQLException {
+        String in = inList(accounts.size());
+        String chunk_query = "SELECT txn_id FROM transactions WHERE acc_no IN " + in + " ORDER BY txn_id LIMIT ?";
+        try (Connection conn = pool.borrow()) {
+            conn.setAutoCommit(false);
+            try {
+                int rows = 0;
+                long lastTxnId = 0;
+                try (PreparedStatement chunk_preparedStatement = conn.prepareStatement(chunk_query)) {
+                    int n = bindAccounts(chunk_preparedStatement, accounts);
+                    chunk_preparedStatement.setInt(n, batchSize);
+                    try (ResultSet resultSet = chunk_preparedStatement.executeQuery()) {
+                        while (resultSet.next()) {
+                            lastTxnId = resultSet.getLong("txn_id");
+                            rows++;
+                        }
+                    }
+                }
+                if (rows == 0) {
+                    return 0;
+                }
+                // The rows up to lastTxnId are exactly the chunk just read
+                String where = " WHERE acc_no IN " + in + " AND txn_id <= ?";
+                archiveAndDeleteHistory(conn, where, accounts, lastTxnId);
+                conn.commit();
+                return rows;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Moves the customer rows to closed_accounts, with any history row written since the last chunk
+    private int moveAccounts(List<Integer> accounts) throws SQLException {
+        String in = inList(accounts.size());
+        String archive_acct_query = "INSERT INTO closed_accounts(acc_no, name, phone, email, balance, closed_at) "
+                + "SELECT acc_no, name, phone, email, balance, closed_at FROM customers WHERE acc_no IN " + in
+                + " AND closed_at IS NOT NULL";
+        String del_acct_query = "DELETE FROM customers WHERE acc_no IN " + in + " AND closed_at IS NOT NULL";
+        try (Connection conn = pool.borrow()) {
+            conn.setAutoCommit(false);
+            try {
+                int rows = archiveAndDeleteHistory(conn, " WHERE acc_no IN " + in, accounts, -1);
+                try (PreparedStatement archive_preparedStatement = conn.prepareStatement(archive_acct_query);
+                     PreparedStatement del_acct_preparedStatement = conn.prepareStatement(del_acct_query)) {
+                    bindAccounts(archive_preparedStatement, accounts);
+                    archive_preparedStatement.executeUpdate();
+                    bindAccounts(del_acct_preparedStatement, accounts);
+                    del_acct_preparedStatement.executeUpdate();
+                }
+                conn.commit();
+                return rows;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Copies the matching history rows to transactions_archive and deletes them; lastTxnId -1 for no txn_id bound
+    private static int archiveAndDeleteHistory(Connection conn, String where, List<Integer> accounts, long lastTxnId)
+            throws SQLException {
+        String archive_query = "INSERT INTO transactions_archive(txn_id, acc_no, type, amount, balance_after, counterparty, created_at) "
+                + "SELECT txn_id, acc_no, type, amount, balance_after, counterparty, created_at FROM transactions" + where;
+        String delete_query = "DELETE FROM transactions" + where;
+        try (PreparedStatement archive_preparedStatement = conn.prepareStatement(archive_query);
+             PreparedStatement delete_preparedStatement = conn.prepareStatement(delete_query)) {
+            int n = bindAccounts(archive_preparedStatement, accounts);
+            if (lastTxnId != -1) {
+                archive_preparedStatement.setLong(n, lastTxnId);
+            }
+            archive_preparedStatement.executeUpdate();
+            n = bindAccounts(delete_preparedStatement, accounts);
+            if (lastTxnId != -1) {
+                delete_preparedStatement.setLong(n, lastTxnId);
+            }
+            return delete_preparedStatement.executeUpdate();
+        }
+    }
+
+    private static String inList(int size) {
+        return "(" + String.join(",", Collections.nCopies(size, "?")) + ")";
+    }
+
+    // Binds the accounts from parameter 1; returns the next parameter index
+    private static int bindAccounts(PreparedStatement preparedStatement, List<Integer> accounts) throws SQLException {
+        int n = 1;
+        for (Integer acc_no : accounts) {
+            preparedStatement.setInt(n++, acc_no);
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AccountPurger[batchSize=%d, pause=%d ms, minAge=%d min, window=%s]", batchSize, pauseMillis,
+                TimeUnit.MILLISECONDS.toMinutes(minAgeMillis), windowStart == -1 ? "any time" : windowStart + "-" + windowEnd);
+    }
+}
@@ -0,0 +1,63 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Map;
+
+// ============ ACCOUNT STORE ===========
+// The core account operations behind one interface, so they can run on something other than a database server:
+//   - JdbcAccountStore:   the customers table through BankService (MySQL, or H2 for benchmarks)
+//   - MappedAccountStore: an embedded store in a memory-mapped file, in this process
+// Both report business failures with the same exceptions the console uses; a failure of the storage itself is an
+// SQLException. Amounts are in rupees, as everywhere else.
+//
+// open() picks the implementation from the options: --store=jdbc (default) or --store=mapped [--store-file=path].
+
+public interface AccountStore extends AutoCloseable {
+
+    String DEFAULT_STORE_FILE = "accounts.store";
+
+    // Returns the new Account Number; a phone number that already exists surfaces as SQLIntegrityConstraintViolationException
+    int createAccount(String cust_name, String phone_no, String email_id, double balance)
+            throws SQLException, SimpleBankingSystem.InvalidPhoneNumberException, SimpleBankingSystem.InvalidEmailException,
+            SimpleBankingSystem.InvalidInitialBalanceException;
+
+    double getBalance(int acct_num) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException;
+
+    // Returns the updated balance
+    double credit(int acct_num, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InvalidDepositFundsException;
+
+    // Returns the updated balance
+    double debit(int acct_num, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException, SimpleBankingSystem.VelocityLimitExceededException;
+
+    // Both sides or neither; returns {debit balance, credit balance}
+    double[] transfer(int debit_acc_no, int credit_acc_no, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException, SimpleBankingSystem.VelocityLimitExceededException;
+
+    void deleteAccount(int acct_num) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException;
+
+    @Override
+    void close() throws SQLException;
+
+    // The store named by --store; pool is only used by the JDBC store
+    static AccountStore open(ConnectionPool pool, Map<String, String> options) throws SQLException {
+        String kind = options.getOrDefault("store", "jdbc");
+        switch (kind) {
+            case "jdbc":
+                return new JdbcAccountStore(new BankService(pool));
+            case "mapped":
+                try {
+                    return MappedAccountStore.open(Path.of(options.getOrDefault("store-file", DEFAULT_STORE_FILE)));
+                } catch (IOException e) {
+                    throw new SQLException("Account store not opened: " + e.getMessage(), e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown store: " + kind + " (expected jdbc or mapped)");
+        }
+    }
+}
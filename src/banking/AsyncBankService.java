@@ -0,0 +1,144 @@
+package banking;
+
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// ============ ASYNCHRONOUS BANKING OPERATIONS ===========
+// The BankService operations with CompletableFuture results, so one thread can keep many operations in flight and
+// chain dependent ones with thenCompose/thenCombine instead of blocking on every round trip. The futures fail with
+// the same exceptions the blocking calls throw (InsufficientFundsException, SQLException, ...).
+//
+// A JDBC connection runs one statement at a time (neither MySQL Connector/J nor H2 pipelines them), so operations
+// are sharded over connections instead: each shard is one thread that runs its operations in order, holding one
+// pooled connection at a time. An operation runs on the shard of its account (the debit account of a transfer), so
+// operations on one account keep their submission order while different shards run in parallel. Use no more shards
+// than the pool has connections.
+//
+// Deposits that go through a DepositCoalescer don't take a shard: the coalescer already applies every deposit in
+// flight in one transaction on one connection, and its future completes when that commits.
+//
+// Callbacks on the futures run on the shard (or coalescer) thread that completed them, so they must not block; chain
+// the next operation instead. Nothing bounds the operations queued; callers keep their own window of them in flight.
+
+public class AsyncBankService implements AutoCloseable {
+
+    // One step of an operation on a shard thread
+    private interface Call<T> {
+        T run() throws Exception;
+    }
+
+    private final BankService service;
+    private final ExecutorService[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    // Metrics
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public AsyncBankService(BankService service, int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        this.service = service;
+        this.shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            final int id = i;
+            shards[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bank-shard-" + id);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public CompletableFuture<Boolean> accountExists(int acct_num) {
+        return submit(acct_num, () -> service.accountExists(acct_num));
+    }
+
+    // Runs on the next shard in turn; the account doesn't exist yet
+    public CompletableFuture<Integer> createAccount(String cust_name, String phone_no, String email_id, double balance) {
+        return submit(nextShard.getAndIncrement(), () -> service.createAccount(cust_name, phone_no, email_id, balance));
+    }
+
+    public CompletableFuture<Double> getBalance(int acct_num) {
+        return submit(acct_num, () -> service.getBalance(acct_num));
+    }
+
+    // Completes with the updated balance
+    public CompletableFuture<Double> deposit(int acct_num, double funds) {
+        CompletableFuture<Double> result = service.depositCoalesced(acct_num, funds);
+        if (result != null) {
+            coalesced.increment();
+            return result;
+        }
+        return submit(acct_num, () -> service.deposit(acct_num, funds));
+    }
+
+    // Completes with the updated balance
+    public CompletableFuture<Double> withdraw(int acct_num, double funds) {
+        return submit(acct_num, () -> service.withdraw(acct_num, funds));
+    }
+
+    // Completes with {debit balance, credit balance}
+    public CompletableFuture<double[]> transfer(int debit_acc_no, int credit_acc_no, double funds) {
+        return submit(debit_acc_no, () -> service.transfer(debit_acc_no, credit_acc_no, funds));
+    }
+
+    public CompletableFuture<Void> deleteAccount(int acct_num) {
+        return submit(acct_num, () -> {
+            service.deleteAccount(acct_num);
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(int key, Call<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submitted.increment();
+        try {
+            shards[Math.floorMod(key, shards.length)].execute(() -> {
+                try {
+                    T value = call.run();
+                    completed.increment();
+                    result.complete(value);
+                } catch (Exception e) {
+                    completed.increment();
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            completed.increment();
+            result.completeExceptionally(new SQLException("Async bank service is closed.", e));
+        }
+        return result;
+    }
+
+    // Operations submitted to the shards and not finished yet
+    public long getInFlight() {
+        return submitted.sum() - completed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AsyncBankService[shards=%d, submitted=%d, inFlight=%d, coalescedDeposits=%d]", shards.length,
+                submitted.sum(), getInFlight(), coalesced.sum());
+    }
+
+    // Finishes the operations already queued, then stops the shards; the service and its pool belong to the caller
+    @Override
+    public void close() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        for (ExecutorService shard : shards) {
+            try {
+                shard.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package banking;
+
+// ============ READ-THROUGH BALANCE CACHE ===========
+// In-process cache of account balances keyed by acc_no. Balances are kept as long cents in primitive
+// open-addressing arrays (linear probing, CLOCK eviction), so lookups never box or allocate.
+//
+// Consistency modes:
+//   STRICT           - an entry older than maxStalenessMillis is treated as a miss and re-read from the database,
+//                      which bounds how long a write made by another process can go unseen.
+//   READ_YOUR_WRITES - entries are served until evicted or invalidated. This process's own writes update the cache
+//                      after commit, so it always sees them; writes from other processes are not tracked.
+//
+// Ordering: the value cached for an account must be its latest committed balance, even though the threads that
+// update the cache after their commit, or after reading the database, reach it in any order. Every update carries
+// a version from nextVersion():
+//   - a write takes it while it still holds the account's row lock, i.e. in commit order for that account, and its
+//     put() is dropped when a later write is already cached;
+//   - a read takes it before its SELECT, and its fill() is dropped when the account was put, invalidated or evicted
+//     after that. A filled balance has no place in the write order, so a write put() that can't be ordered against
+//     it removes the entry instead of guessing.
+// Forgetting an entry is always safe, so the checks against removed entries are kept as two cache-wide floors
+// instead of per-account tombstones: an update that might be older than something removed is simply not cached.
+
+public class BalanceCache {
+
+    public enum Consistency { STRICT, READ_YOUR_WRITES }
+
+    // Returned by get() when the account is not cached
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private final int maxEntries;
+    private final int mask;
+    private final int[] keys;
+    private final long[] cents;
+    private final long[] stamps;
+    private final boolean[] used;
+    private final boolean[] referenced;
+    // Write order of the cached balance; for a filled one, the write order it is known to be newer than
+    private final long[] versions;
+    // Version current when the entry was last stored
+    private final long[] changed;
+    private final boolean[] filled;
+    private int size = 0;
+    private int hand = 0;
+
+    private long version = 0;
+    // Highest write version an entry could have had when it was removed: writes up to it are not cached any more
+    private long removedVersion = 0;
+    // Version current when an entry last changed before being removed: reads started before it are not cached
+    private long removedAt = 0;
+
+    private volatile Consistency consistency;
+    private volatile long maxStalenessMillis;
+
+    // Metrics
+    private long hits, misses, staleRejects, evictions, invalidations;
+    private long totalHitAgeMillis, maxHitAgeMillis;
+
+    public BalanceCache(int maxEntries, Consistency consistency, long maxStalenessMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1;
+        this.maxEntries = maxEntries;
+        this.mask = capacity - 1;
+        this.keys = new int[capacity];
+        this.cents = new long[capacity];
+        this.stamps = new long[capacity];
+        this.used = new boolean[capacity];
+        this.referenced = new boolean[capacity];
+        this.versions = new long[capacity];
+        this.changed = new long[capacity];
+        this.filled = new boolean[capacity];
+        this.consistency = consistency;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    public static long toCents(double balance) {
+        return Math.round(balance * 100);
+    }
+
+    public static double fromCents(long cents) {
+        return cents / 100.0;
+    }
+
+    // Returns the cached balance in cents, or MISSING
+    public synchronized long get(int acc_no) {
+        int i = find(acc_no);
+        if (i < 0) {
+            misses++;
+            return MISSING;
+        }
+        long age = System.currentTimeMillis() - stamps[i];
+        if (consistency == Consistency.STRICT && age > maxStalenessMillis) {
+            staleRejects++;
+            misses++;
+            return MISSING;
+        }
+        referenced[i] = true;
+        hits++;
+        totalHitAgeMillis += age;
+        if (age > maxHitAgeMillis) {
+            maxHitAgeMillis = age;
+        }
+        return cents[i];
+    }
+
+    // Version for a put() or fill(): a write takes it while holding the row lock, before its commit; a read takes it
+    // before its SELECT
+    public synchronized long nextVersion() {
+        return ++version;
+    }
+
+    // Stores a balance written by a committed transaction, unless a later write is already cached
+    public synchronized void put(int acc_no, long balanceCents, long writeVersion) {
+        int i = find(acc_no);
+        if (i >= 0 && versions[i] >= writeVersion) {
+            if (filled[i]) {
+                // The read may have seen this write or not, and so may the reads under way
+                invalidations++;
+                forget(i);
+                removedAt = ++version;
+            }
+            return;
+        }
+        if (i < 0 && writeVersion <= removedVersion) {
+            // A later write may have been cached and removed since; reads already under way mustn't cache either
+            removedAt = ++version;
+            return;
+        }
+        store(i, acc_no, balanceCents, writeVersion, false);
+    }
+
+    // Stores a balance read from the database by a read that took readVersion before its SELECT, unless the account
+    // was put, invalidated or evicted since
+    public synchronized void fill(int acc_no, long balanceCents, long readVersion) {
+        int i = find(acc_no);
+        if (i >= 0) {
+            if (changed[i] > readVersion) {
+                return;
+            }
+            store(i, acc_no, balanceCents, versions[i], true);
+        } else if (removedAt < readVersion) {
+            store(i, acc_no, balanceCents, removedVersion, true);
+        }
+    }
+
+    // Drops an account, e.g. after a rollback, an account deletion or a write that doesn't update the cache.
+    // Writes and reads already under way won't cache it again.
+    public synchronized void invalidate(int acc_no) {
+        int i = find(acc_no);
+        if (i >= 0) {
+            invalidations++;
+            removeAt(i);
+        }
+        removedVersion = version;
+        removedAt = ++version;
+    }
+
+    public synchronized void clear() {
+        java.util.Arrays.fill(used, false);
+        java.util.Arrays.fill(referenced, false);
+        size = 0;
+        removedVersion = version;
+        removedAt = ++version;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setConsistency(Consistency consistency, long maxStalenessMillis) {
+        this.consistency = consistency;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    public Consistency getConsistency() {
+        return consistency;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Entries present but too old to serve in STRICT mode
+    public synchronized long getStaleRejects() {
+        return staleRejects;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    // How old served balances were on average: the staleness callers actually saw
+    public synchronized double getAverageHitAgeMillis() {
+        return hits == 0 ? 0 : (double) totalHitAgeMillis / hits;
+    }
+
+    public synchronized long getMaxHitAgeMillis() {
+        return maxHitAgeMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BalanceCache[%s, size=%d/%d, hits=%d, misses=%d, hitRate=%.2f%%, staleRejects=%d, evictions=%d, "
+                        + "invalidations=%d, avgHitAge=%.1fms, maxHitAge=%dms]",
+                consistency, size, maxEntries, hits, misses, getHitRate() * 100, staleRejects, evictions,
+                invalidations, getAverageHitAgeMillis(), maxHitAgeMillis);
+    }
+
+    private int slot(int acc_no) {
+        int h = acc_no * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int find(int acc_no) {
+        int i = slot(acc_no);
+        while (used[i]) {
+            if (keys[i] == acc_no) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Stores into slot i, or into a new slot when i < 0
+    private void store(int i, int acc_no, long balanceCents, long entryVersion, boolean fill) {
+        if (i < 0) {
+            if (size >= maxEntries) {
+                evictOne();
+            }
+            i = slot(acc_no);
+            while (used[i]) {
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = acc_no;
+            size++;
+        }
+        cents[i] = balanceCents;
+        stamps[i] = System.currentTimeMillis();
+        versions[i] = entryVersion;
+        changed[i] = ++version;
+        filled[i] = fill;
+        referenced[i] = true;
+    }
+
+    // Removes slot i, raising the floors so that no update older than the entry is cached after it
+    private void forget(int i) {
+        removedVersion = Math.max(removedVersion, versions[i]);
+        removedAt = Math.max(removedAt, changed[i]);
+        removeAt(i);
+    }
+
+    // CLOCK: sweep the hand, giving recently used entries a second chance
+    private void evictOne() {
+        while (true) {
+            if (used[hand]) {
+                if (referenced[hand]) {
+                    referenced[hand] = false;
+                } else {
+                    forget(hand);
+                    evictions++;
+                    return;
+                }
+            }
+            hand = (hand + 1) & mask;
+        }
+    }
+
+    // Backward-shift deletion keeps every probe chain unbroken without tombstones
+    private void removeAt(int i) {
+        used[i] = false;
+        referenced[i] = false;
+        size--;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (!used[j]) {
+                return;
+            }
+            int k = slot(keys[j]);
+            boolean inPlace = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+            if (!inPlace) {
+                keys[i] = keys[j];
+                cents[i] = cents[j];
+                stamps[i] = stamps[j];
+                versions[i] = versions[j];
+                changed[i] = changed[j];
+                filled[i] = filled[j];
+                used[i] = true;
+                referenced[i] = referenced[j];
+                used[j] = false;
+                referenced[j] = false;
+                i = j;
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// ============ BINARY BALANCE SNAPSHOT ===========
+// A compact file of every account's balance, written periodically from the customers table and memory-mapped
+// at startup to fill the balance cache in milliseconds instead of warming it one database read at a time.
+//
+// Layout: a HEADER_SIZE header  magic(4) | format(4) | record count(8) | lsn(8) | created millis(8) | crc32 of
+// the records(4) | padding(4), followed by RECORD_SIZE records  acc_no(4) | balance cents(8) | version(8),
+// in acc_no order. A record's version is the txn_id of the account's latest transactions row when the snapshot
+// was taken (0 for none), and the header lsn is the highest txn_id at that time.
+//
+// A snapshot is always somewhat old, so loading it starts a background repair:
+//   1. every account with a transactions row newer than the snapshot lsn and its own record version is dropped
+//      from the cache, using one indexed range read of the transactions table (the recent changes, fixed first);
+//   2. then the snapshot is compared with the customers table range by range, with a pause between ranges, and
+//      any other difference (accounts deleted, balances changed without a history row) is dropped as well.
+// Dropped accounts are simply read through from the database on their next use.
+
+public class BalanceSnapshot implements AutoCloseable {
+
+    public static final int HEADER_SIZE = 40;
+    public static final int RECORD_SIZE = 20;
+
+    private static final int MAGIC = 0x42534E50; // "BSNP"
+    private static final int FORMAT = 1;
+    private static final int SCAN_FETCH_SIZE = 10_000;
+    private static final int REPAIR_RANGE_SIZE = 1_000;
+    private static final long REPAIR_PAUSE_MILLIS = 10;
+
+    private static final String LSN_QUERY = "SELECT COALESCE(MAX(txn_id), 0) FROM transactions";
+    private static final String SCAN_QUERY = "SELECT c.acc_no, c.balance, "
+            + "(SELECT MAX(t.txn_id) FROM transactions t WHERE t.acc_no = c.acc_no) AS version "
+            + "FROM customers c WHERE c.closed_at IS NULL ORDER BY c.acc_no";
+    private static final String CHANGED_SINCE_QUERY = "SELECT acc_no, MAX(txn_id) AS version FROM transactions "
+            + "WHERE txn_id > ? GROUP BY acc_no";
+    private static final String RANGE_QUERY = "SELECT acc_no, balance FROM customers WHERE acc_no BETWEEN ? AND ? AND closed_at IS NULL";
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long records;
+    private final long lsn;
+    private final long createdAt;
+    private volatile Thread repairer;
+
+    // Repair metrics
+    private volatile long staleSinceLsn, staleInSweep, repairedRecords;
+
+    private BalanceSnapshot(Path file, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.records = buffer.getLong(8);
+        this.lsn = buffer.getLong(16);
+        this.createdAt = buffer.getLong(24);
+    }
+
+    // Maps a snapshot file, or throws IOException when it is missing, truncated or corrupt
+    public static BalanceSnapshot open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a balance snapshot: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT
+                    || HEADER_SIZE + buffer.getLong(8) * RECORD_SIZE != size) {
+                throw new IOException("Not a balance snapshot, or truncated: " + file);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(HEADER_SIZE, (int) size - HEADER_SIZE));
+            if (buffer.getInt(32) != (int) crc.getValue()) {
+                throw new IOException("Balance snapshot checksum mismatch: " + file);
+            }
+            return new BalanceSnapshot(file, channel, buffer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Streams the customers table into a new snapshot. It is written to a temporary file and moved into place,
+    // so a reader never sees a half-written snapshot. Returns the number of records.
+    public static long write(ConnectionPool pool, Path file) throws SQLException, IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        long lsn;
+        CRC32 crc = new CRC32();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Connection conn = pool.borrow()) {
+            // Read before the scan: anything committed later has a higher txn_id and is caught by the repair
+            try (Statement statement = conn.createStatement();
+                 ResultSet resultSet = statement.executeQuery(LSN_QUERY)) {
+                resultSet.next();
+                lsn = resultSet.getLong(1);
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 4_096);
+            out.position(HEADER_SIZE);
+            try (PreparedStatement scan_preparedStatement = conn.prepareStatement(SCAN_QUERY)) {
+                scan_preparedStatement.setFetchSize(SCAN_FETCH_SIZE);
+                try (ResultSet resultSet = scan_preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        chunk.putInt(resultSet.getInt("acc_no"));
+                        chunk.putLong(BalanceCache.toCents(resultSet.getDouble("balance")));
+                        chunk.putLong(resultSet.getLong("version"));
+                        count++;
+                        if (!chunk.hasRemaining()) {
+                            flushChunk(out, chunk, crc);
+                        }
+                    }
+                }
+            }
+            flushChunk(out, chunk, crc);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(count).putLong(lsn).putLong(System.currentTimeMillis())
+                    .putInt((int) crc.getValue()).putInt(0);
+            header.flip();
+            out.write(header, 0);
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static void flushChunk(FileChannel out, ByteBuffer chunk, CRC32 crc) throws IOException {
+        chunk.flip();
+        crc.update(chunk.duplicate());
+        while (chunk.hasRemaining()) {
+            out.write(chunk);
+        }
+        chunk.clear();
+    }
+
+    // Rewrites the snapshot every periodSeconds on a daemon thread; shut the returned executor down to stop
+    public static ScheduledExecutorService scheduleWrites(ConnectionPool pool, Path file, long periodSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "balance-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                write(pool, file);
+            } catch (SQLException | IOException e) {
+                System.out.println("Balance snapshot failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return scheduler;
+    }
+
+    public long size() {
+        return records;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int accNo(long i) {
+        return buffer.getInt(offset(i));
+    }
+
+    public long balanceCents(long i) {
+        return buffer.getLong(offset(i) + 4);
+    }
+
+    public long version(long i) {
+        return buffer.getLong(offset(i) + 12);
+    }
+
+    // Index of the account's record, or -1; records are sorted by acc_no so this is a binary search of the mapping
+    public long find(int acc_no) {
+        long low = 0;
+        long high = records - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            int key = accNo(mid);
+            if (key < acc_no) {
+                low = mid + 1;
+            } else if (key > acc_no) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Fills the cache with up to its capacity of records and starts the background repair. Returns how many were loaded.
+    public int warm(BalanceCache cache, ConnectionPool pool) {
+        int loaded = 0;
+        // Loaded like balances read from the database, so nothing cached by a write since is overwritten
+        long readVersion = cache.nextVersion();
+        for (long i = 0; i < records && cache.size() < cache.getMaxEntries(); i++) {
+            cache.fill(accNo(i), balanceCents(i), readVersion);
+            loaded++;
+        }
+        Thread thread = new Thread(() -> repair(cache, pool), "balance-snapshot-repair");
+        thread.setDaemon(true);
+        repairer = thread;
+        thread.start();
+        return loaded;
+    }
+
+    private void repair(BalanceCache cache, ConnectionPool pool) {
+        long start = System.nanoTime();
+        try {
+            repairChangedSinceLsn(cache, pool);
+            sweep(cache, pool);
+            System.out.printf("Balance snapshot repaired: %d changed since it was taken, %d differences found by the sweep, %.1f s%n",
+                    staleSinceLsn, staleInSweep, (System.nanoTime() - start) / 1e9);
+        } catch (SQLException e) {
+            // The entries can't be trusted without the check
+            cache.clear();
+            SimpleBankingSystem.metrics.sqlError();
+            System.out.println("Balance snapshot repair failed, cache cleared: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void repairChangedSinceLsn(BalanceCache cache, ConnectionPool pool) throws SQLException {
+        try (Connection conn = pool.borrow();
+             PreparedStatement changed_preparedStatement = conn.prepareStatement(CHANGED_SINCE_QUERY)) {
+            changed_preparedStatement.setLong(1, lsn);
+            try (ResultSet resultSet = changed_preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    int acc_no = resultSet.getInt("acc_no");
+                    long i = find(acc_no);
+                    if (i >= 0 && version(i) < resultSet.getLong("version")) {
+                        cache.invalidate(acc_no);
+                        staleSinceLsn++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void sweep(BalanceCache cache, ConnectionPool pool) throws SQLException, InterruptedException {
+        Map<Integer, Long> actual = new HashMap<>();
+        for (long first = 0; first < records; first += REPAIR_RANGE_SIZE) {
+            long last = Math.min(records, first + REPAIR_RANGE_SIZE) - 1;
+            actual.clear();
+            // A short borrow per range, so the sweep never holds a connection the online traffic is waiting for
+            try (Connection conn = pool.borrow();
+                 PreparedStatement range_preparedStatement = conn.prepareStatement(RANGE_QUERY)) {
+                range_preparedStatement.setInt(1, accNo(first));
+                range_preparedStatement.setInt(2, accNo(last));
+                try (ResultSet resultSet = range_preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        actual.put(resultSet.getInt("acc_no"), BalanceCache.toCents(resultSet.getDouble("balance")));
+                    }
+                }
+            }
+            for (long i = first; i <= last; i++) {
+                Long cents = actual.get(accNo(i));
+                if (cents == null || cents != balanceCents(i)) {
+                    cache.invalidate(accNo(i));
+                    staleInSweep++;
+                }
+            }
+            repairedRecords = last + 1;
+            Thread.sleep(REPAIR_PAUSE_MILLIS);
+        }
+    }
+
+    // Waits for the background repair; false if it is still running after timeoutMillis
+    public boolean awaitRepair(long timeoutMillis) throws InterruptedException {
+        Thread thread = repairer;
+        if (thread == null) {
+            return true;
+        }
+        thread.join(timeoutMillis);
+        return !thread.isAlive();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BalanceSnapshot[%s, records=%d, lsn=%d, age=%ds, staleSinceLsn=%d, staleInSweep=%d, checked=%d]",
+                file, records, lsn, (System.currentTimeMillis() - createdAt) / 1000, staleSinceLsn, staleInSweep, repairedRecords);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int offset(long i) {
+        return (int) (HEADER_SIZE + i * RECORD_SIZE);
+    }
+}
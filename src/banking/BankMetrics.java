@@ -0,0 +1,217 @@
+package banking;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// ============ OPERATION LATENCIES AND JDBC COUNTERS ===========
+// Latency histograms per banking operation plus counters for the events that explain them. JDBC round trips,
+// commits and rollbacks are counted by the ConnectionPool; the rest are counted here. Everything is exposed
+// over JMX and can optionally be printed every few seconds.
+
+public class BankMetrics implements BankMetricsMBean {
+
+    public enum Operation {
+        OPEN_ACCOUNT, BALANCE, DEPOSIT, WITHDRAW, TRANSFER, DELETE_ACCOUNT, TRANSFER_ENGINE, DEPOSIT_FLUSH, LEDGER_FLUSH, INGEST_CHUNK, ONBOARD_CHUNK
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder insufficientFunds = new LongAdder();
+    private final LongAdder sqlErrors = new LongAdder();
+    private final LongAdder journalFailures = new LongAdder();
+    private volatile ConnectionPool pool;
+    private ScheduledExecutorService dumper;
+
+    public BankMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    // Records the time since startNanos (taken with System.nanoTime()) against an operation
+    public void record(Operation operation, long startNanos) {
+        latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public void insufficientFunds() {
+        insufficientFunds.increment();
+    }
+
+    public void sqlError() {
+        sqlErrors.increment();
+    }
+
+    public void journalFailure() {
+        journalFailures.increment();
+    }
+
+    public LatencyHistogram getHistogram(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    // Pool whose JDBC counters and gauges are reported
+    public void attachPool(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("SimpleBankingSystem:type=BankMetrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.out.println("Metrics MBean not registered: " + e.getMessage());
+        }
+    }
+
+    // Prints the metrics every periodSeconds on a daemon thread
+    public synchronized void startDump(long periodSeconds) {
+        if (dumper != null || periodSeconds <= 0) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> System.out.println(this), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    @Override
+    public long getJdbcRoundTrips() {
+        ConnectionPool p = pool;
+        return p == null ? 0 : p.getRoundTrips();
+    }
+
+    @Override
+    public long getCommits() {
+        ConnectionPool p = pool;
+        return p == null ? 0 : p.getCommits();
+    }
+
+    @Override
+    public long getRollbacks() {
+        ConnectionPool p = pool;
+        return p == null ? 0 : p.getRollbacks();
+    }
+
+    @Override
+    public long getInsufficientFundsRejections() {
+        return insufficientFunds.sum();
+    }
+
+    @Override
+    public long getSqlErrors() {
+        return sqlErrors.sum();
+    }
+
+    @Override
+    public long getJournalFailures() {
+        return journalFailures.sum();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return SimpleBankingSystem.journalFailure == null;
+    }
+
+    @Override
+    public int getPoolActiveConnections() {
+        ConnectionPool p = pool;
+        return p == null ? 0 : p.getActiveCount();
+    }
+
+    @Override
+    public int getPoolIdleConnections() {
+        ConnectionPool p = pool;
+        return p == null ? 0 : p.getIdleCount();
+    }
+
+    @Override
+    public int getPoolThreadsAwaiting() {
+        ConnectionPool p = pool;
+        return p == null ? 0 : p.getThreadsAwaiting();
+    }
+
+    @Override
+    public double getPoolAverageWaitMillis() {
+        ConnectionPool p = pool;
+        return p == null ? 0 : p.getAverageWaitMillis();
+    }
+
+    @Override
+    public double getStatementCacheHitRate() {
+        ConnectionPool p = pool;
+        return p == null ? 0 : p.getStatementCacheStats().getHitRate();
+    }
+
+    @Override
+    public double getBalanceCacheHitRate() {
+        return SimpleBankingSystem.balanceCache.getHitRate();
+    }
+
+    @Override
+    public String[] getOperations() {
+        String[] names = new String[OPERATIONS.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = OPERATIONS[i].name();
+        }
+        return names;
+    }
+
+    @Override
+    public long getOperationCount(String operation) {
+        return getHistogram(Operation.valueOf(operation)).getCount();
+    }
+
+    @Override
+    public double getLatencyPercentileMicros(String operation, double percentile) {
+        return getHistogram(Operation.valueOf(operation)).getPercentileMicros(percentile);
+    }
+
+    @Override
+    public String getLatencySummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram histogram = getHistogram(operation);
+            if (histogram.getCount() > 0) {
+                sb.append(String.format("%-16s %s%n", operation, histogram));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void resetLatencies() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "\n================== BANK METRICS ==================\n"
+                + getLatencySummary()
+                + String.format("JDBC round trips=%d, commits=%d, rollbacks=%d, insufficient funds=%d, SQL errors=%d%n",
+                getJdbcRoundTrips(), getCommits(), getRollbacks(), getInsufficientFundsRejections(), getSqlErrors())
+                + (isDurable() ? "" : String.format("NOT DURABLE: journal failures=%d, writes are refused%n", getJournalFailures()))
+                + (pool == null ? "" : pool + "\n")
+                + SimpleBankingSystem.balanceCache;
+    }
+}
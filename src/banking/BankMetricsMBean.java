@@ -0,0 +1,46 @@
+package banking;
+
+// ============ JMX VIEW OF THE BANK METRICS ===========
+
+public interface BankMetricsMBean {
+
+    long getJdbcRoundTrips();
+
+    long getCommits();
+
+    long getRollbacks();
+
+    long getInsufficientFundsRejections();
+
+    long getSqlErrors();
+
+    // Committed operations that could not be journaled
+    long getJournalFailures();
+
+    // False once a committed operation could not be journaled; the process then refuses writes
+    boolean isDurable();
+
+    int getPoolActiveConnections();
+
+    int getPoolIdleConnections();
+
+    int getPoolThreadsAwaiting();
+
+    double getPoolAverageWaitMillis();
+
+    double getStatementCacheHitRate();
+
+    double getBalanceCacheHitRate();
+
+    // Operation names, e.g. DEPOSIT or TRANSFER
+    String[] getOperations();
+
+    long getOperationCount(String operation);
+
+    double getLatencyPercentileMicros(String operation, double percentile);
+
+    // One line per operation with count, mean and p50/p90/p99/p99.9/max latency
+    String getLatencySummary();
+
+    void resetLatencies();
+}
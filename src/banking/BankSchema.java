@@ -0,0 +1,98 @@
+package banking;
+
+import java.sql.*;
+
+// ============ DATABASE SCHEMA ===========
+// DDL for the tables the application uses. The README has the same schema for setting up MySQL by hand;
+// this is used to create it on an embedded database (H2 in MySQL mode) for benchmarks and load tests.
+
+public class BankSchema {
+
+    // closed_at is set when an account is deleted; the row stays until the AccountPurger archives it.
+    // tier picks the account's velocity limits (see VelocityLimits).
+    public static final String CUSTOMERS_DDL = "CREATE TABLE IF NOT EXISTS customers ("
+            + "acc_no INT AUTO_INCREMENT PRIMARY KEY, "
+            + "name VARCHAR(100) NOT NULL, "
+            + "phone VARCHAR(10) UNIQUE NOT NULL, "
+            + "email VARCHAR(100) NOT NULL, "
+            + "balance DOUBLE NOT NULL, "
+            + "closed_at TIMESTAMP NULL DEFAULT NULL, "
+            + "tier VARCHAR(12) NOT NULL DEFAULT 'STANDARD', "
+            + "INDEX idx_customers_closed_at (closed_at))";
+
+    // Money movements, written in the same transaction as the balance change
+    public static final String TRANSACTIONS_DDL = "CREATE TABLE IF NOT EXISTS transactions ("
+            + "txn_id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+            + "acc_no INT NOT NULL, "
+            + "type VARCHAR(12) NOT NULL, "
+            + "amount DOUBLE NOT NULL, "
+            + "balance_after DOUBLE, "
+            + "counterparty INT, "
+            + "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL, "
+            + "INDEX idx_transactions_acc_no (acc_no, txn_id), "
+            + "INDEX idx_transactions_created_at (created_at))";
+
+    // Idempotency key of every deposit, withdrawal and transfer a client sent one with, and what it returned
+    public static final String IDEMPOTENCY_KEYS_DDL = "CREATE TABLE IF NOT EXISTS idempotency_keys ("
+            + "idem_key VARCHAR(64) PRIMARY KEY, "
+            + "operation VARCHAR(12) NOT NULL, "
+            + "acc_no INT NOT NULL, "
+            + "counterparty INT, "
+            + "amount DOUBLE NOT NULL, "
+            + "balance_after DOUBLE NOT NULL, "
+            + "counter_balance_after DOUBLE, "
+            + "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL)";
+
+    // One row per acc_no range an end-of-day job has finished for a business date
+    public static final String BATCH_CHECKPOINTS_DDL = "CREATE TABLE IF NOT EXISTS batch_checkpoints ("
+            + "job_name VARCHAR(50) NOT NULL, "
+            + "business_date DATE NOT NULL, "
+            + "range_start INT NOT NULL, "
+            + "range_end INT NOT NULL, "
+            + "rows_updated INT NOT NULL, "
+            + "finished_at TIMESTAMP NOT NULL, "
+            + "PRIMARY KEY (job_name, business_date, range_start))";
+
+    // Purged accounts, moved out of customers and transactions by the AccountPurger
+    public static final String CLOSED_ACCOUNTS_DDL = "CREATE TABLE IF NOT EXISTS closed_accounts ("
+            + "acc_no INT PRIMARY KEY, "
+            + "name VARCHAR(100) NOT NULL, "
+            + "phone VARCHAR(10) NOT NULL, "
+            + "email VARCHAR(100) NOT NULL, "
+            + "balance DOUBLE NOT NULL, "
+            + "closed_at TIMESTAMP NOT NULL, "
+            + "purged_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL)";
+
+    public static final String TRANSACTIONS_ARCHIVE_DDL = "CREATE TABLE IF NOT EXISTS transactions_archive ("
+            + "txn_id BIGINT PRIMARY KEY, "
+            + "acc_no INT NOT NULL, "
+            + "type VARCHAR(12) NOT NULL, "
+            + "amount DOUBLE NOT NULL, "
+            + "balance_after DOUBLE, "
+            + "counterparty INT, "
+            + "created_at TIMESTAMP NOT NULL, "
+            + "INDEX idx_transactions_archive_acc_no (acc_no, txn_id))";
+
+    // Written on the primary by the ReadRouter; how old the copy on a replica is tells how far behind the replica is
+    public static final String REPLICA_HEARTBEAT_DDL = "CREATE TABLE IF NOT EXISTS replica_heartbeat ("
+            + "id INT PRIMARY KEY, "
+            + "beat_millis BIGINT NOT NULL)";
+
+    // Creates any missing tables
+    public static void create(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(CUSTOMERS_DDL);
+            statement.execute(TRANSACTIONS_DDL);
+            statement.execute(IDEMPOTENCY_KEYS_DDL);
+            statement.execute(BATCH_CHECKPOINTS_DDL);
+            statement.execute(CLOSED_ACCOUNTS_DDL);
+            statement.execute(TRANSACTIONS_ARCHIVE_DDL);
+            statement.execute(REPLICA_HEARTBEAT_DDL);
+        }
+    }
+
+    // Default URL of the embedded database used when no server is available
+    public static String embeddedUrl(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    }
+}
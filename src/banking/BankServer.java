@@ -0,0 +1,427 @@
+package banking;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// ============ HTTP FRONT END ===========
+// Exposes the teller operations as plain HTTP request/response calls on top of the BankService:
+//
+//      POST   /accounts                  name, phone, email, balance      -> 201 {"acc_no": N}
+//      GET    /accounts/{acc_no}                                          -> {"acc_no": N, "balance": B}
+//      POST   /accounts/{acc_no}/deposit amount                           -> {"acc_no": N, "balance": B}
+//      POST   /accounts/{acc_no}/withdraw amount                          -> {"acc_no": N, "balance": B}
+//      POST   /transfers                 from, to, amount                 -> {"debit_balance": B, "credit_balance": B}
+//      DELETE /accounts/{acc_no}                                          -> 204
+//      GET    /accounts/{acc_no}/transactions  after, limit               -> {"transactions": [...], "next_after": T}
+//      GET    /customers                 q (phone, name or email prefix), limit -> {"customers": [...]}
+//
+// Parameters come from the query string or a form-encoded body. Deposits, withdrawals and transfers honour an
+// Idempotency-Key header, so a client can safely retry one after a timeout (see IdempotencyKeys). A balance read with a
+// Max-Staleness header (milliseconds) may be answered by a read replica that far behind (see ReadRouter).
+// Each request runs on its own virtual thread (JDK 21+; on older JDKs a cached platform thread pool is used instead). Admission is bounded: at most
+// maxInFlight requests execute at once, a request that can't be admitted within the admission wait is answered
+// with 503 and Retry-After, and so is one that times out waiting for a pooled connection. Requests therefore
+// queue in the pool only up to a fixed depth instead of piling up behind it.
+
+public class BankServer {
+
+    private static final int MAX_HISTORY_PAGE = 1_000;
+    private static final int MAX_SEARCH_RESULTS = 100;
+    private static final int LEDGER_SHARDS = 64;
+    private static final int LEDGER_MAX_BACKLOG = 200_000;
+    private static final int RECONCILE_RANGE_SIZE = 1_000;
+
+    private final BankService service;
+    private final Semaphore admission;
+    private final long admissionWaitMillis;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public BankServer(BankService service, int port, int maxInFlight, long admissionWaitMillis) throws IOException {
+        this.service = service;
+        this.admission = new Semaphore(maxInFlight);
+        this.admissionWaitMillis = admissionWaitMillis;
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/accounts", this::handle);
+        this.server.createContext("/transfers", this::handle);
+        this.server.createContext("/customers", this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    // Command line entry: serve [--port=8080] [--max-in-flight=N] [--admission-wait=millis] [--coalesce-deposits=millis]
+    //                           [--ledger-engine=flush millis] [--snapshot-every=seconds] [--reconcile-every=seconds]
+    //                           [--purge-window=from-to hours] [--purge-batch-size=N] [--purge-pause=millis] [--purge-min-age=minutes]
+    public static void run(ConnectionPool pool, String[] args) {
+        Map<String, String> options = CliOptions.parse(args);
+        int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        // Twice the pool size keeps every connection busy while capping how many requests wait for one
+        int maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", String.valueOf(pool.getMaxSize() * 2)));
+        long admissionWait = Long.parseLong(options.getOrDefault("admission-wait", "100"));
+        AccountPurger purger;
+        try {
+            purger = options.containsKey("purge-window") ? AccountPurger.fromOptions(pool, options, "purge-") : null;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        // Nets concurrent deposits to the same (hot) account into one UPDATE per flush window
+        DepositCoalescer coalescer = options.containsKey("coalesce-deposits")
+                ? new DepositCoalescer(pool, 1_000, parseWindow(options.get("coalesce-deposits"))) : null;
+
+        if (options.containsKey("ledger-engine") && options.containsKey("reconcile-every")) {
+            // The table lags the engine by design, so it can't be reconciled against the operations
+            System.out.println("--reconcile-every can't be used with --ledger-engine.");
+            return;
+        }
+        LedgerEngine engine = newEngine(pool, options);
+        ScheduledExecutorService audits;
+        try {
+            if (engine != null) {
+                engine.start();
+            }
+            audits = options.containsKey("reconcile-every")
+                    ? scheduleAudits(pool, Long.parseLong(options.get("reconcile-every"))) : null;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        BankServer bankServer;
+        try {
+            bankServer = new BankServer(new BankService(pool, coalescer, engine), port, maxInFlight, admissionWait);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            bankServer.stop();
+            stopped.countDown();
+            try {
+                // Let main close the journal and the pool before the JVM exits
+                main.join(5_000);
+            } catch (InterruptedException ignored) {
+            }
+        }));
+
+        // Keeps the startup snapshot fresh, so a restart has little to repair
+        ScheduledExecutorService snapshots = options.containsKey("snapshot-every")
+                ? BalanceSnapshot.scheduleWrites(pool, Path.of(SimpleBankingSystem.SNAPSHOT_FILE), Long.parseLong(options.get("snapshot-every")))
+                : null;
+
+        // Archives and removes closed accounts in the background, off-peak
+        ScheduledExecutorService purges = purger != null ? purger.schedule() : null;
+
+        bankServer.start();
+        System.out.println("Listening on port " + port + " (max " + maxInFlight + " requests in flight). Press Ctrl+C to stop.");
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            bankServer.stop();
+        }
+        if (snapshots != null) {
+            snapshots.shutdown();
+        }
+        if (purges != null) {
+            purges.shutdownNow();
+        }
+        if (audits != null) {
+            audits.shutdown();
+            SimpleBankingSystem.reconciler = null;
+        }
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    // "--coalesce-deposits" alone means a 2 ms window
+    static long parseWindow(String value) {
+        return value.equals("true") ? 2 : Long.parseLong(value);
+    }
+
+    // Baselines a reconciler and audits the changed ranges every periodSeconds, printing any report that isn't clean
+    static ScheduledExecutorService scheduleAudits(ConnectionPool pool, long periodSeconds) throws SQLException {
+        LedgerReconciler reconciler = new LedgerReconciler(RECONCILE_RANGE_SIZE);
+        reconciler.baseline(pool);
+        SimpleBankingSystem.reconciler = reconciler;
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                LedgerReconciler.Report report = reconciler.audit(pool, false);
+                if (!report.isClean()) {
+                    System.out.println(report);
+                }
+            } catch (SQLException e) {
+                System.out.println("Reconciliation failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return scheduler;
+    }
+
+    // "--ledger-engine" alone flushes every 100 ms. The engine still has to be started.
+    static LedgerEngine newEngine(ConnectionPool pool, Map<String, String> options) {
+        if (!options.containsKey("ledger-engine")) {
+            return null;
+        }
+        String value = options.get("ledger-engine");
+        return new LedgerEngine(pool, LEDGER_SHARDS, value.equals("true") ? 100 : Long.parseLong(value), LEDGER_MAX_BACKLOG);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // One virtual thread per request when the JDK has them
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!admission.tryAcquire(admissionWaitMillis, TimeUnit.MILLISECONDS)) {
+                busy(exchange);
+                return;
+            }
+        } catch (InterruptedException e) {
+            busy(exchange);
+            return;
+        }
+        try {
+            route(exchange);
+        } catch (SimpleBankingSystem.InvalidAccountNumberException e) {
+            send(exchange, 404, error(e.getMessage()));
+        } catch (SimpleBankingSystem.InsufficientFundsException e) {
+            send(exchange, 409, error(e.getMessage()));
+        } catch (SimpleBankingSystem.VelocityLimitExceededException e) {
+            send(exchange, 429, error(e.getMessage()));
+        } catch (SimpleBankingSystem.InvalidDepositFundsException | SimpleBankingSystem.InvalidPhoneNumberException
+                 | SimpleBankingSystem.InvalidEmailException | SimpleBankingSystem.InvalidInitialBalanceException
+                 | IllegalArgumentException e) {
+            send(exchange, 400, error(e.getMessage()));
+        } catch (SQLIntegrityConstraintViolationException e) {
+            send(exchange, 409, error("Phone Number Already Exists!"));
+        } catch (SQLTransientConnectionException e) {
+            // Pool exhausted for longer than its borrow timeout
+            busy(exchange);
+        } catch (SQLException e) {
+            SimpleBankingSystem.metrics.sqlError();
+            send(exchange, 500, error(e.getMessage()));
+        } finally {
+            admission.release();
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException, SQLException, SimpleBankingSystem.InvalidAccountNumberException,
+            SimpleBankingSystem.InsufficientFundsException, SimpleBankingSystem.InvalidDepositFundsException,
+            SimpleBankingSystem.InvalidPhoneNumberException, SimpleBankingSystem.InvalidEmailException,
+            SimpleBankingSystem.InvalidInitialBalanceException, SimpleBankingSystem.VelocityLimitExceededException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+        Map<String, String> params = params(exchange);
+        String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+
+        if (path[0].equals("transfers") && path.length == 1 && method.equals("POST")) {
+            double[] balances = service.transfer(intParam(params, "from"), intParam(params, "to"), doubleParam(params, "amount"),
+                    idempotencyKey);
+            send(exchange, 200, String.format(Locale.ROOT, "{\"debit_balance\": %.2f, \"credit_balance\": %.2f}", balances[0], balances[1]));
+            return;
+        }
+        if (path[0].equals("customers") && path.length == 1 && method.equals("GET")) {
+            int limit = limitParam(params, 20, MAX_SEARCH_RESULTS);
+            StringBuilder sb = new StringBuilder("{\"customers\": [");
+            for (CustomerIndex.Customer customer : service.searchCustomers(param(params, "q"), limit)) {
+                if (sb.charAt(sb.length() - 1) != '[') {
+                    sb.append(", ");
+                }
+                sb.append(customer.toJson());
+            }
+            send(exchange, 200, sb.append("]}").toString());
+            return;
+        }
+        if (path[0].equals("accounts") && path.length == 1 && method.equals("POST")) {
+            int acc_no = service.createAccount(param(params, "name"), param(params, "phone"), param(params, "email"),
+                    doubleParam(params, "balance"));
+            send(exchange, 201, "{\"acc_no\": " + acc_no + "}");
+            return;
+        }
+        if (path[0].equals("accounts") && path.length >= 2) {
+            int acc_no = parseInt(path[1], "acc_no");
+            String action = path.length == 3 ? path[2] : "";
+            if (path.length == 2 && method.equals("GET")) {
+                String maxStaleness = exchange.getRequestHeaders().getFirst("Max-Staleness");
+                sendBalance(exchange, acc_no, service.getBalance(acc_no,
+                        maxStaleness == null ? 0 : parseInt(maxStaleness.trim(), "Max-Staleness")));
+                return;
+            }
+            if (path.length == 2 && method.equals("DELETE")) {
+                service.deleteAccount(acc_no);
+                send(exchange, 204, null);
+                return;
+            }
+            if (action.equals("deposit") && method.equals("POST")) {
+                sendBalance(exchange, acc_no, service.deposit(acc_no, doubleParam(params, "amount"), idempotencyKey));
+                return;
+            }
+            if (action.equals("transactions") && method.equals("GET")) {
+                sendHistory(exchange, acc_no, params);
+                return;
+            }
+            if (action.equals("withdraw") && method.equals("POST")) {
+                sendBalance(exchange, acc_no, service.withdraw(acc_no, doubleParam(params, "amount"), idempotencyKey));
+                return;
+            }
+        }
+        send(exchange, 404, error("No such operation: " + method + " " + exchange.getRequestURI().getPath()));
+    }
+
+    // One keyset page of the account's history; pass next_after back as after= for the following page
+    private void sendHistory(HttpExchange exchange, int acc_no, Map<String, String> params) throws IOException, SQLException {
+        long after = params.containsKey("after") ? Long.parseLong(param(params, "after")) : 0;
+        int limit = limitParam(params, 100, MAX_HISTORY_PAGE);
+        StringBuilder sb = new StringBuilder("{\"transactions\": [");
+        long next;
+        try (Connection conn = service.getPool().borrow()) {
+            next = TransactionHistory.page(conn, acc_no, after, limit, entry -> {
+                if (sb.charAt(sb.length() - 1) != '[') {
+                    sb.append(", ");
+                }
+                sb.append(entry.toJson());
+            });
+        }
+        sb.append("], \"next_after\": ").append(next).append('}');
+        send(exchange, 200, sb.toString());
+    }
+
+    private static void sendBalance(HttpExchange exchange, int acc_no, double balance) throws IOException {
+        send(exchange, 200, String.format(Locale.ROOT, "{\"acc_no\": %d, \"balance\": %.2f}", acc_no, balance));
+    }
+
+    private static void busy(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 503, error("Server busy, retry later."));
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\": \"" + String.valueOf(message).replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    // Query string parameters, plus form-encoded body parameters
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream in = exchange.getRequestBody()) {
+            parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static String param(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value.trim();
+    }
+
+    private static int intParam(Map<String, String> params, String name) {
+        return parseInt(param(params, name), name);
+    }
+
+    // limit= capped at max; absent means defaultLimit, and below 1 is a bad request
+    private static int limitParam(Map<String, String> params, int defaultLimit, int max) {
+        if (!params.containsKey("limit")) {
+            return defaultLimit;
+        }
+        int limit = intParam(params, "limit");
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        return Math.min(max, limit);
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    private static double doubleParam(Map<String, String> params, String name) {
+        String value = param(params, name);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package banking;
+
+import java.sql.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// ============ BANKING SERVICE LAYER ===========
+// The teller operations without any console I/O. Each call borrows a connection, runs one transaction,
+// refreshes the balance cache after commit and journals the operation before returning, so a returned
+// result is durable. Business failures are reported with the same exceptions the console uses.
+// Deposits, withdrawals and transfers optionally take an idempotency key (see IdempotencyKeys): a repeated key
+// returns the first call's result without moving the money again.
+// With a LedgerEngine, balances are read and changed in memory and written to the database behind the calls;
+// account creation and deletion still go to the database first.
+// Shared by the Scanner menu and the BankServer.
+
+public class BankService {
+
+    private final ConnectionPool pool;
+    private final DepositCoalescer coalescer;
+    private final LedgerEngine engine;
+
+    public BankService(ConnectionPool pool) {
+        this(pool, null, null);
+    }
+
+    // With a coalescer, deposits are netted per account with other concurrent deposits (see DepositCoalescer)
+    public BankService(ConnectionPool pool, DepositCoalescer coalescer) {
+        this(pool, coalescer, null);
+    }
+
+    // With an engine (already started), money movements don't wait for the database; the coalescer is not used
+    public BankService(ConnectionPool pool, DepositCoalescer coalescer, LedgerEngine engine) {
+        this.pool = pool;
+        this.coalescer = coalescer;
+        this.engine = engine;
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public boolean accountExists(int acct_num) throws SQLException {
+        return accountExists(acct_num, 0);
+    }
+
+    // May be answered by a read replica at most maxStalenessMillis behind the primary (see ReadRouter)
+    public boolean accountExists(int acct_num, long maxStalenessMillis) throws SQLException {
+        ReadRouter router = SimpleBankingSystem.readRouter;
+        if (router != null && engine == null) {
+            Boolean exists = router.replicaAccountExists(acct_num, maxStalenessMillis);
+            if (exists != null) {
+                return exists;
+            }
+        }
+        try (Connection conn = pool.borrow()) {
+            return SimpleBankingSystem.accountExists(conn, acct_num) != 0;
+        }
+    }
+
+    // Customers matching a phone number, or the start of a name or email address, from the in-memory index
+    public List<CustomerIndex.Customer> searchCustomers(String query, int limit) throws SQLException {
+        CustomerIndex index = SimpleBankingSystem.customerIndex;
+        if (index == null) {
+            throw new SQLException("Customer search is not available.");
+        }
+        return index.search(query, limit);
+    }
+
+    // Validates the customer details and creates the account, returning the new Account Number.
+    // A phone number that already exists surfaces as SQLIntegrityConstraintViolationException.
+    public int createAccount(String cust_name, String phone_no, String email_id, double balance)
+            throws SQLException, SimpleBankingSystem.InvalidPhoneNumberException, SimpleBankingSystem.InvalidEmailException,
+            SimpleBankingSystem.InvalidInitialBalanceException {
+
+        SimpleBankingSystem.checkPhoneNumber(phone_no);
+        SimpleBankingSystem.checkEmail(email_id);
+        SimpleBankingSystem.checkBalance(balance);
+        SimpleBankingSystem.requireJournal();
+
+        try (Connection conn = pool.borrow()) {
+            int acc_no = SimpleBankingSystem.openAccount(conn, cust_name, phone_no, email_id, balance);
+            if (acc_no == 0) {
+                throw new SQLException("Account not created.");
+            }
+            if (engine != null) {
+                engine.open(acc_no, balance);
+            }
+            if (SimpleBankingSystem.reconciler != null) {
+                SimpleBankingSystem.reconciler.opened(acc_no, balance);
+            }
+            SimpleBankingSystem.routeAfterWrite(acc_no);
+            if (SimpleBankingSystem.customerIndex != null) {
+                SimpleBankingSystem.customerIndex.add(acc_no, cust_name, phone_no, email_id);
+            }
+            SimpleBankingSystem.journalRecord(TransactionJournal.CREATE, acc_no, 0, balance);
+            return acc_no;
+        }
+    }
+
+    public double getBalance(int acct_num) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        return getBalance(acct_num, 0);
+    }
+
+    // A cache miss may be answered by a read replica at most maxStalenessMillis behind the primary (see ReadRouter);
+    // 0 always reads the primary
+    public double getBalance(int acct_num, long maxStalenessMillis) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        if (engine != null) {
+            long start = System.nanoTime();
+            double balance = engine.balance(acct_num);
+            SimpleBankingSystem.metrics.record(BankMetrics.Operation.BALANCE, start);
+            return balance;
+        }
+
+        long cached = SimpleBankingSystem.balanceCache.get(acct_num);
+        if (cached != BalanceCache.MISSING) {
+            return BalanceCache.fromCents(cached);
+        }
+
+        long start = System.nanoTime();
+        ReadRouter router = SimpleBankingSystem.readRouter;
+        if (router != null) {
+            // Not cached: the cache only holds balances read from the primary
+            double replicaBalance = router.replicaBalance(acct_num, maxStalenessMillis);
+            if (!Double.isNaN(replicaBalance)) {
+                SimpleBankingSystem.metrics.record(BankMetrics.Operation.BALANCE, start);
+                return replicaBalance;
+            }
+        }
+        long readVersion = SimpleBankingSystem.balanceCache.nextVersion();
+        String check_balance_query = "select balance from customers where acc_no = ? and closed_at is null";
+        try (Connection conn = pool.borrow();
+             PreparedStatement check_bal_preparedStatement = conn.prepareStatement(check_balance_query)) {
+            check_bal_preparedStatement.setInt(1, acct_num);
+            try (ResultSet resultSet = check_bal_preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SimpleBankingSystem.InvalidAccountNumberException();
+                }
+                double balance = resultSet.getDouble("balance");
+                SimpleBankingSystem.balanceCache.fill(acct_num, BalanceCache.toCents(balance), readVersion);
+                return balance;
+            }
+        } finally {
+            SimpleBankingSystem.metrics.record(BankMetrics.Operation.BALANCE, start);
+        }
+    }
+
+    // Returns the updated balance
+    public double deposit(int acct_num, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InvalidDepositFundsException {
+        return deposit(acct_num, funds, null);
+    }
+
+    public double deposit(int acct_num, double funds, String idempotencyKey)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InvalidDepositFundsException {
+
+        SimpleBankingSystem.checkDepositFundAmt(funds);
+        IdempotencyKeys.checkKey(idempotencyKey);
+        if (idempotencyKey != null) {
+            IdempotencyKeys.Result earlier = SimpleBankingSystem.idempotencyKeys.replay(idempotencyKey,
+                    TransactionHistory.DEPOSIT, acct_num, 0, funds);
+            if (earlier != null) {
+                return earlier.balances[0];
+            }
+        }
+        SimpleBankingSystem.requireJournal();
+
+        if (engine != null) {
+            rejectKeyWithEngine(idempotencyKey);
+            long start = System.nanoTime();
+            double updatedBalance = engine.deposit(acct_num, funds);
+            SimpleBankingSystem.metrics.record(BankMetrics.Operation.DEPOSIT, start);
+            SimpleBankingSystem.journalRecord(TransactionJournal.DEPOSIT, acct_num, 0, funds);
+            return updatedBalance;
+        }
+
+        // Keyed deposits run on their own so a duplicate key can't fail the other deposits of a flush
+        if (coalescer != null && idempotencyKey == null) {
+            double updatedBalance = awaitCoalesced(coalescer.deposit(acct_num, funds));
+            SimpleBankingSystem.routeAfterWrite(acct_num);
+            return updatedBalance;
+        }
+
+        try (Connection conn = pool.borrow();
+             PreparedStatement deposit_preparedStatement = conn.prepareStatement(SimpleBankingSystem.DEPOSIT_QUERY)) {
+            conn.setAutoCommit(false);
+            long start = System.nanoTime();
+            try {
+                deposit_preparedStatement.setDouble(1, funds);
+                deposit_preparedStatement.setInt(2, acct_num);
+                if (deposit_preparedStatement.executeUpdate() == 0) {
+                    throw new SimpleBankingSystem.InvalidAccountNumberException();
+                }
+                // Taken while the row is locked, so cache updates for the account follow the commit order
+                long version = SimpleBankingSystem.balanceCache.nextVersion();
+                double updatedBalance = SimpleBankingSystem.readBalances(conn, acct_num, acct_num)[0];
+                TransactionHistory.record(conn, acct_num, TransactionHistory.DEPOSIT, funds, updatedBalance, 0);
+                IdempotencyKeys.Result result = idempotencyKey == null ? null : IdempotencyKeys.store(conn, idempotencyKey,
+                        TransactionHistory.DEPOSIT, acct_num, 0, funds, updatedBalance);
+                conn.commit();
+                SimpleBankingSystem.metrics.record(BankMetrics.Operation.DEPOSIT, start);
+                SimpleBankingSystem.balanceCache.put(acct_num, BalanceCache.toCents(updatedBalance), version);
+                SimpleBankingSystem.reconcileRecord(acct_num, updatedBalance, funds);
+                SimpleBankingSystem.routeAfterWrite(acct_num);
+                remember(idempotencyKey, result);
+                SimpleBankingSystem.journalRecord(TransactionJournal.DEPOSIT, acct_num, 0, funds);
+                return updatedBalance;
+            } catch (SQLIntegrityConstraintViolationException e) {
+                return replayStored(conn, e, idempotencyKey, TransactionHistory.DEPOSIT, acct_num, 0, funds, acct_num)[0];
+            } catch (SQLException | SimpleBankingSystem.InvalidAccountNumberException e) {
+                conn.rollback();
+                SimpleBankingSystem.balanceCache.invalidate(acct_num);
+                throw e;
+            }
+        }
+    }
+
+    // The coalescer's future for an unkeyed deposit, for callers that don't want to wait on it; null when deposits
+    // are not coalesced (no coalescer, or the engine takes them)
+    CompletableFuture<Double> depositCoalesced(int acct_num, double funds) {
+        if (coalescer == null || engine != null) {
+            return null;
+        }
+        // Refused before anything is committed, as deposit() does
+        try {
+            SimpleBankingSystem.requireJournal();
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return coalescer.deposit(acct_num, funds).thenApply(updatedBalance -> {
+            SimpleBankingSystem.routeAfterWrite(acct_num);
+            return updatedBalance;
+        });
+    }
+
+    private static double awaitCoalesced(CompletableFuture<Double> result)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the deposit.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SimpleBankingSystem.InvalidAccountNumberException) {
+                throw (SimpleBankingSystem.InvalidAccountNumberException) e.getCause();
+            }
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    // Returns the updated balance
+    public double withdraw(int acct_num, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException,
+            SimpleBankingSystem.VelocityLimitExceededException {
+        return withdraw(acct_num, funds, null);
+    }
+
+    public double withdraw(int acct_num, double funds, String idempotencyKey)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException,
+            SimpleBankingSystem.VelocityLimitExceededException {
+
+        SimpleBankingSystem.checkDepositFundAmt(funds);
+        IdempotencyKeys.checkKey(idempotencyKey);
+        if (idempotencyKey != null) {
+            IdempotencyKeys.Result earlier = SimpleBankingSystem.idempotencyKeys.replay(idempotencyKey,
+                    TransactionHistory.WITHDRAW, acct_num, 0, funds);
+            if (earlier != null) {
+                return earlier.balances[0];
+            }
+        }
+        SimpleBankingSystem.requireJournal();
+
+        // Counted before the debit so concurrent debits can't all pass the limit; handed back if it doesn't happen
+        long reservedAt = SimpleBankingSystem.reserveVelocity(acct_num, funds);
+        boolean debited = false;
+        try {
+            if (engine != null) {
+                rejectKeyWithEngine(idempotencyKey);
+                long start = System.nanoTime();
+                try {
+                    double updatedBalance = engine.withdraw(acct_num, funds);
+                    debited = true;
+                    SimpleBankingSystem.journalRecord(TransactionJournal.WITHDRAW, acct_num, 0, funds);
+                    return updatedBalance;
+                } catch (SimpleBankingSystem.InsufficientFundsException e) {
+                    SimpleBankingSystem.metrics.insufficientFunds();
+                    throw e;
+                } finally {
+                    SimpleBankingSystem.metrics.record(BankMetrics.Operation.WITHDRAW, start);
+                }
+            }
+
+            try (Connection conn = pool.borrow()) {
+                conn.setAutoCommit(false);
+                try {
+                    double updatedBalance = SimpleBankingSystem.withdrawGuarded(conn, acct_num, funds);
+                    long version = SimpleBankingSystem.balanceCache.nextVersion();
+                    IdempotencyKeys.Result result = idempotencyKey == null ? null : IdempotencyKeys.store(conn, idempotencyKey,
+                            TransactionHistory.WITHDRAW, acct_num, 0, funds, updatedBalance);
+                    conn.commit();
+                    SimpleBankingSystem.balanceCache.put(acct_num, BalanceCache.toCents(updatedBalance), version);
+                    SimpleBankingSystem.reconcileRecord(acct_num, updatedBalance, -funds);
+                    SimpleBankingSystem.routeAfterWrite(acct_num);
+                    remember(idempotencyKey, result);
+                    debited = true;
+                    SimpleBankingSystem.journalRecord(TransactionJournal.WITHDRAW, acct_num, 0, funds);
+                    return updatedBalance;
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    return replayStored(conn, e, idempotencyKey, TransactionHistory.WITHDRAW, acct_num, 0, funds, acct_num)[0];
+                } catch (SQLException | SimpleBankingSystem.InvalidAccountNumberException | SimpleBankingSystem.InsufficientFundsException e) {
+                    conn.rollback();
+                    SimpleBankingSystem.balanceCache.invalidate(acct_num);
+                    throw e;
+                }
+            }
+        } finally {
+            if (!debited) {
+                SimpleBankingSystem.releaseVelocity(acct_num, funds, reservedAt);
+            }
+        }
+    }
+
+    // Returns {debit balance, credit balance}
+    public double[] transfer(int debit_acc_no, int credit_acc_no, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException,
+            SimpleBankingSystem.VelocityLimitExceededException {
+        return transfer(debit_acc_no, credit_acc_no, funds, null);
+    }
+
+    public double[] transfer(int debit_acc_no, int credit_acc_no, double funds, String idempotencyKey)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException,
+            SimpleBankingSystem.VelocityLimitExceededException {
+
+        SimpleBankingSystem.checkDepositFundAmt(funds);
+        IdempotencyKeys.checkKey(idempotencyKey);
+        if (idempotencyKey != null) {
+            IdempotencyKeys.Result earlier = SimpleBankingSystem.idempotencyKeys.replay(idempotencyKey,
+                    TransactionHistory.TRANSFER_OUT, debit_acc_no, credit_acc_no, funds);
+            if (earlier != null) {
+                return earlier.getBalances();
+            }
+        }
+        SimpleBankingSystem.requireJournal();
+
+        // Counted before the debit so concurrent debits can't all pass the limit; handed back if it doesn't happen
+        long reservedAt = SimpleBankingSystem.reserveVelocity(debit_acc_no, funds);
+        boolean debited = false;
+        try {
+            if (engine != null) {
+                rejectKeyWithEngine(idempotencyKey);
+                long start = System.nanoTime();
+                try {
+                    double[] updatedBalances = engine.transfer(debit_acc_no, credit_acc_no, funds);
+                    debited = true;
+                    SimpleBankingSystem.journalRecord(TransactionJournal.TRANSFER, debit_acc_no, credit_acc_no, funds);
+                    return updatedBalances;
+                } catch (SimpleBankingSystem.InsufficientFundsException e) {
+                    SimpleBankingSystem.metrics.insufficientFunds();
+                    throw e;
+                } finally {
+                    SimpleBankingSystem.metrics.record(BankMetrics.Operation.TRANSFER, start);
+                }
+            }
+
+            try (Connection conn = pool.borrow()) {
+                conn.setAutoCommit(false);
+                try {
+                    // Same lock order as the TransferEngine so a teller transfer can't deadlock against it
+                    TransferEngine.lockInOrder(conn, debit_acc_no, credit_acc_no);
+                    double[] updatedBalances = SimpleBankingSystem.transferGuarded(conn, debit_acc_no, credit_acc_no, funds);
+                    long version = SimpleBankingSystem.balanceCache.nextVersion();
+                    IdempotencyKeys.Result result = idempotencyKey == null ? null : IdempotencyKeys.store(conn, idempotencyKey,
+                            TransactionHistory.TRANSFER_OUT, debit_acc_no, credit_acc_no, funds, updatedBalances);
+                    conn.commit();
+                    SimpleBankingSystem.balanceCache.put(debit_acc_no, BalanceCache.toCents(updatedBalances[0]), version);
+                    SimpleBankingSystem.balanceCache.put(credit_acc_no, BalanceCache.toCents(updatedBalances[1]), version);
+                    SimpleBankingSystem.reconcileTransfer(debit_acc_no, credit_acc_no, funds, updatedBalances);
+                    SimpleBankingSystem.routeAfterWrite(debit_acc_no, credit_acc_no);
+                    remember(idempotencyKey, result);
+                    debited = true;
+                    SimpleBankingSystem.journalRecord(TransactionJournal.TRANSFER, debit_acc_no, credit_acc_no, funds);
+                    return updatedBalances.clone();
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    return replayStored(conn, e, idempotencyKey, TransactionHistory.TRANSFER_OUT, debit_acc_no, credit_acc_no, funds,
+                            debit_acc_no, credit_acc_no);
+                } catch (SQLException | SimpleBankingSystem.InvalidAccountNumberException | SimpleBankingSystem.InsufficientFundsException e) {
+                    conn.rollback();
+                    SimpleBankingSystem.balanceCache.invalidate(debit_acc_no);
+                    SimpleBankingSystem.balanceCache.invalidate(credit_acc_no);
+                    throw e;
+                }
+            }
+        } finally {
+            if (!debited) {
+                SimpleBankingSystem.releaseVelocity(debit_acc_no, funds, reservedAt);
+            }
+        }
+    }
+
+    // Keys are stored in the operation's transaction, and with the engine there is none to store them in
+    private static void rejectKeyWithEngine(String idempotencyKey) {
+        if (idempotencyKey != null) {
+            throw new IllegalArgumentException("Idempotency keys are not supported with the in-memory ledger engine");
+        }
+    }
+
+    private static void remember(String idempotencyKey, IdempotencyKeys.Result result) {
+        if (idempotencyKey != null) {
+            SimpleBankingSystem.idempotencyKeys.remember(idempotencyKey, result);
+        }
+    }
+
+    // The key's INSERT hit the primary key: this request was already executed (possibly by a request that was
+    // still in flight, whose commit the INSERT waited for). Undo this attempt and answer with the stored result.
+    private static double[] replayStored(Connection conn, SQLIntegrityConstraintViolationException e, String idempotencyKey,
+                                         String operation, int acct_num, int other_acct_num, double funds,
+                                         int... touched) throws SQLException {
+        conn.rollback();
+        for (int acc_no : touched) {
+            SimpleBankingSystem.balanceCache.invalidate(acc_no);
+        }
+        if (idempotencyKey == null) {
+            throw e;
+        }
+        double[] balances = SimpleBankingSystem.idempotencyKeys.stored(conn, idempotencyKey, operation, acct_num,
+                other_acct_num, funds).getBalances();
+        conn.commit();
+        return balances;
+    }
+
+    // Closes the account: a single-row flag update that every read and write path checks. The row, its history and
+    // anything else that refers to it are archived and removed later by the AccountPurger, off the teller's connection.
+    public void deleteAccount(int acct_num) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        SimpleBankingSystem.requireJournal();
+        String del_acct_query = "UPDATE customers SET closed_at = CURRENT_TIMESTAMP WHERE acc_no = ? AND closed_at IS NULL";
+        try (Connection conn = pool.borrow();
+             PreparedStatement del_acct_preparedStatement = conn.prepareStatement(del_acct_query)) {
+            long start = System.nanoTime();
+            del_acct_preparedStatement.setInt(1, acct_num);
+            int rowsDeleted = del_acct_preparedStatement.executeUpdate();
+            SimpleBankingSystem.metrics.record(BankMetrics.Operation.DELETE_ACCOUNT, start);
+            SimpleBankingSystem.balanceCache.invalidate(acct_num);
+            if (engine != null) {
+                engine.remove(acct_num);
+            }
+            if (SimpleBankingSystem.reconciler != null && rowsDeleted > 0) {
+                SimpleBankingSystem.reconciler.touched(acct_num);
+            }
+
+            if (rowsDeleted == 0) {
+                throw new SimpleBankingSystem.InvalidAccountNumberException();
+            }
+            SimpleBankingSystem.routeAfterWrite(acct_num);
+            if (SimpleBankingSystem.customerIndex != null) {
+                SimpleBankingSystem.customerIndex.remove(acct_num);
+            }
+            if (SimpleBankingSystem.velocityLimits != null) {
+                SimpleBankingSystem.velocityLimits.forget(acct_num);
+            }
+            SimpleBankingSystem.journalRecord(TransactionJournal.DELETE, acct_num, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package banking;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// ============ BENCHMARK SUITE FOR THE BANKING OPERATIONS ===========
+// Measures account creation, balance lookup, deposit, withdraw and transfer through the BankService the
+// teller uses, so a failed operation counts as an error. Every operation runs twice: single-threaded over uniformly chosen accounts, and multi-threaded
+// over a handful of hot accounts so the row locks are contended. Each run has a warm-up phase followed by a
+// timed measurement phase; results are written as JSON so runs can be compared over time.
+//
+// By default it runs against an in-memory H2 database in MySQL mode, so only the H2 jar is needed:
+//      java -jar target/simple-banking-system.jar bench --threads=8 --out=bench-results.json
+//
+// With --store=jdbc,mapped it instead runs the AccountStore operations on each of the named stores in turn, over the
+// same accounts and operation mix, and prints their latencies side by side.
+
+public class BankingBenchmark {
+
+    private static final int MAX_SAMPLES_PER_THREAD = 1_000_000;
+    private static final int HOT_ACCOUNTS = 4;
+    private static final double SEED_BALANCE = 1_000_000_000;
+
+    // One banking operation; it borrows its own connection
+    private interface Operation {
+        void run(ThreadLocalRandom random, boolean contended) throws Exception;
+    }
+
+    public static class Result {
+        final String benchmark;
+        final int threads;
+        final long operations;
+        final long errors;
+        final double seconds;
+        final double p50Micros;
+        final double p99Micros;
+        final double p999Micros;
+
+        Result(String benchmark, int threads, long operations, long errors, double seconds, long[] latenciesNanos) {
+            this.benchmark = benchmark;
+            this.threads = threads;
+            this.operations = operations;
+            this.errors = errors;
+            this.seconds = seconds;
+            Arrays.sort(latenciesNanos);
+            this.p50Micros = percentile(latenciesNanos, 0.50);
+            this.p99Micros = percentile(latenciesNanos, 0.99);
+            this.p999Micros = percentile(latenciesNanos, 0.999);
+        }
+
+        double getThroughput() {
+            return seconds == 0 ? 0 : operations / seconds;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"benchmark\": \"%s\", \"mode\": \"thrpt\", \"threads\": %d, \"score\": %.3f, "
+                            + "\"scoreUnit\": \"ops/s\", \"operations\": %d, \"errors\": %d, "
+                            + "\"latencyMicros\": {\"p50\": %.2f, \"p99\": %.2f, \"p99.9\": %.2f}}",
+                    benchmark, threads, getThroughput(), operations, errors, p50Micros, p99Micros, p999Micros);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-28s threads=%-3d %12.1f ops/s   p50=%8.1fus  p99=%8.1fus  p99.9=%8.1fus  errors=%d",
+                    benchmark, threads, getThroughput(), p50Micros, p99Micros, p999Micros, errors);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+            return sorted[Math.max(0, i)] / 1_000.0;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int accounts;
+    private final int threads;
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final AtomicInteger phoneSequence = new AtomicInteger();
+    private int firstAccNo;
+    private final BankService service;
+    // Set while the AccountStore operations run
+    private AccountStore store;
+
+    public BankingBenchmark(ConnectionPool pool, int accounts, int threads, long warmupMillis, long measureMillis) {
+        this.pool = pool;
+        this.service = new BankService(pool);
+        this.accounts = accounts;
+        this.threads = threads;
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    // Command line entry: bench [--url=jdbc:...] [--user=] [--password=] [--accounts=N] [--threads=N]
+    //                           [--warmup=seconds] [--measure=seconds] [--out=file.json] [--store=jdbc,mapped [--store-file=]]
+    public static void run(String[] args) {
+        Map<String, String> options = CliOptions.parse(args);
+        String url = options.getOrDefault("url", BankSchema.embeddedUrl("bench"));
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        long warmup = Long.parseLong(options.getOrDefault("warmup", "2")) * 1000;
+        long measure = Long.parseLong(options.getOrDefault("measure", "5")) * 1000;
+        Path out = Path.of(options.getOrDefault("out", "bench-results.json"));
+
+        try (ConnectionPool pool = new ConnectionPool(url, options.getOrDefault("user", ""), options.getOrDefault("password", ""),
+                threads + 1, 1, 30_000, 10 * 60_000, 0, 32)) {
+            BankingBenchmark benchmark = new BankingBenchmark(pool, accounts, threads, warmup, measure);
+            List<Result> results = options.containsKey("store")
+                    ? benchmark.runStores(Arrays.asList(options.get("store").split(",")), options)
+                    : benchmark.runAll();
+            writeJson(out, results);
+            System.out.println("\nResults written to " + out.toAbsolutePath());
+        } catch (SQLException | IOException | InterruptedException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public List<Result> runAll() throws SQLException, InterruptedException {
+        setUp();
+
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("createAccount", (random, contended) -> {
+            int n = phoneSequence.incrementAndGet();
+            service.createAccount("Bench " + n, phone(n), "bench" + n + "@example.com", SEED_BALANCE);
+        });
+        operations.put("balanceLookup", (random, contended) -> {
+            int acc_no = pick(random, contended);
+            SimpleBankingSystem.balanceCache.invalidate(acc_no);
+            service.getBalance(acc_no);
+        });
+        operations.put("balanceLookupCached", (random, contended) -> service.getBalance(pick(random, contended)));
+        operations.put("deposit", (random, contended) -> service.deposit(pick(random, contended), 1.0));
+        operations.put("withdraw", (random, contended) -> service.withdraw(pick(random, contended), 1.0));
+        operations.put("transfer", (random, contended) -> {
+            int debit = pick(random, contended);
+            int credit = pick(random, contended);
+            while (credit == debit) {
+                credit = pick(random, contended);
+            }
+            service.transfer(debit, credit, 1.0);
+        });
+
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            results.add(measure(entry.getKey() + ".single", entry.getValue(), 1, false));
+            System.out.println(results.get(results.size() - 1));
+            results.add(measure(entry.getKey() + ".contended", entry.getValue(), threads, true));
+            System.out.println(results.get(results.size() - 1));
+        }
+        return results;
+    }
+
+    // The AccountStore operations on each store, one store after the other, then a side-by-side summary.
+    // The mapped store is created in a temporary file unless --store-file is given.
+    public List<Result> runStores(List<String> kinds, Map<String, String> options) throws SQLException, InterruptedException {
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+        }
+        List<Result> results = new ArrayList<>();
+        for (String kind : kinds) {
+            Map<String, String> storeOptions = new HashMap<>(options);
+            storeOptions.put("store", kind.trim());
+            Path tmp = null;
+            if (!options.containsKey("store-file")) {
+                try {
+                    tmp = Files.createTempFile("bench-", ".store");
+                    Files.delete(tmp);
+                } catch (IOException e) {
+                    throw new SQLException(e.getMessage(), e);
+                }
+                storeOptions.put("store-file", tmp.toString());
+            }
+            try (AccountStore opened = AccountStore.open(pool, storeOptions)) {
+                store = opened;
+                results.addAll(runStore(kind.trim()));
+            } finally {
+                store = null;
+                if (tmp != null) {
+                    try {
+                        Files.deleteIfExists(tmp);
+                    } catch (IOException e) {
+                        System.out.println(e.getMessage());
+                    }
+                }
+            }
+        }
+        printSideBySide(kinds, results);
+        return results;
+    }
+
+    private List<Result> runStore(String kind) throws SQLException, InterruptedException {
+        for (int i = 0; i < accounts; i++) {
+            int n = phoneSequence.incrementAndGet();
+            int acc_no = createInStore(n);
+            if (i == 0) {
+                firstAccNo = acc_no;
+            }
+        }
+        SimpleBankingSystem.balanceCache.clear();
+
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("createAccount", (random, contended) -> createInStore(phoneSequence.incrementAndGet()));
+        operations.put("balanceLookup", (random, contended) -> {
+            int acc_no = pick(random, contended);
+            SimpleBankingSystem.balanceCache.invalidate(acc_no);
+            store.getBalance(acc_no);
+        });
+        operations.put("credit", (random, contended) -> store.credit(pick(random, contended), 1.0));
+        operations.put("debit", (random, contended) -> store.debit(pick(random, contended), 1.0));
+        operations.put("transfer", (random, contended) -> {
+            int debit = pick(random, contended);
+            int credit = pick(random, contended);
+            while (credit == debit) {
+                credit = pick(random, contended);
+            }
+            store.transfer(debit, credit, 1.0);
+        });
+
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            results.add(measure("store." + kind + "." + entry.getKey() + ".single", entry.getValue(), 1, false));
+            System.out.println(results.get(results.size() - 1));
+            results.add(measure("store." + kind + "." + entry.getKey() + ".contended", entry.getValue(), threads, true));
+            System.out.println(results.get(results.size() - 1));
+        }
+        return results;
+    }
+
+    private int createInStore(int n) throws SQLException {
+        try {
+            return store.createAccount("Bench " + n, phone(n), "bench" + n + "@example.com", SEED_BALANCE);
+        } catch (SimpleBankingSystem.InvalidPhoneNumberException | SimpleBankingSystem.InvalidEmailException
+                 | SimpleBankingSystem.InvalidInitialBalanceException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+    }
+
+    // One line per operation: p50 and throughput of every store, relative to the first
+    private static void printSideBySide(List<String> kinds, List<Result> results) {
+        Map<String, Result> byName = new HashMap<>();
+        for (Result result : results) {
+            byName.put(result.benchmark, result);
+        }
+        String first = kinds.get(0).trim();
+        System.out.println("\n================== ACCOUNT STORES SIDE BY SIDE (p50, ops/s, p50 speedup over the first) ==================");
+        for (Result result : results) {
+            String prefix = "store." + first + ".";
+            if (!result.benchmark.startsWith(prefix)) {
+                continue;
+            }
+            String operation = result.benchmark.substring(prefix.length());
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-26s", operation));
+            for (String kind : kinds) {
+                Result other = byName.get("store." + kind.trim() + "." + operation);
+                if (other != null) {
+                    line.append(String.format(Locale.ROOT, "  %s %9.1fus %11.0f/s", kind.trim(), other.p50Micros,
+                            other.getThroughput()));
+                    if (other != result && other.p50Micros > 0) {
+                        line.append(String.format(Locale.ROOT, " (%.1fx)", result.p50Micros / other.p50Micros));
+                    }
+                }
+            }
+            System.out.println(line);
+        }
+    }
+
+    // Creates the schema and the accounts the money-movement benchmarks work on
+    private void setUp() throws SQLException {
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+            for (int i = 0; i < accounts; i++) {
+                int n = phoneSequence.incrementAndGet();
+                int acc_no = SimpleBankingSystem.openAccount(conn, "Bench " + n, phone(n), "bench" + n + "@example.com", SEED_BALANCE);
+                if (i == 0) {
+                    firstAccNo = acc_no;
+                }
+            }
+        }
+        // Money movement must not depend on the cache; only balanceLookupCached reads from it
+        SimpleBankingSystem.balanceCache.clear();
+    }
+
+    private int pick(ThreadLocalRandom random, boolean contended) {
+        return firstAccNo + random.nextInt(contended ? Math.min(HOT_ACCOUNTS, accounts) : accounts);
+    }
+
+    private static String phone(int n) {
+        return "9" + String.format("%09d", n);
+    }
+
+    private Result measure(String name, Operation operation, int threadCount, boolean contended) throws InterruptedException {
+        runPhase(operation, threadCount, contended, warmupMillis, null);
+
+        long[][] samples = new long[threadCount][];
+        long[] counts = new long[threadCount];
+        long[] errors = new long[threadCount];
+        long start = System.nanoTime();
+        runPhase(operation, threadCount, contended, measureMillis, (t, latencies, count, errorCount) -> {
+            samples[t] = latencies;
+            counts[t] = count;
+            errors[t] = errorCount;
+        });
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        long total = 0, totalErrors = 0;
+        int sampleCount = 0;
+        for (int t = 0; t < threadCount; t++) {
+            total += counts[t];
+            totalErrors += errors[t];
+            sampleCount += (int) Math.min(counts[t], MAX_SAMPLES_PER_THREAD);
+        }
+        long[] latencies = new long[sampleCount];
+        int pos = 0;
+        for (int t = 0; t < threadCount; t++) {
+            int n = (int) Math.min(counts[t], MAX_SAMPLES_PER_THREAD);
+            System.arraycopy(samples[t], 0, latencies, pos, n);
+            pos += n;
+        }
+        return new Result(name, threadCount, total, totalErrors, seconds, latencies);
+    }
+
+    private interface PhaseSink {
+        void accept(int thread, long[] latencies, long count, long errors);
+    }
+
+    private void runPhase(Operation operation, int threadCount, boolean contended, long millis, PhaseSink sink)
+            throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(threadCount);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threadCount];
+
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                long[] latencies = sink == null ? null : new long[MAX_SAMPLES_PER_THREAD];
+                long count = 0, errorCount = 0;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long deadline = System.nanoTime() + millis * 1_000_000;
+                while (System.nanoTime() < deadline) {
+                    long begin = System.nanoTime();
+                    try {
+                        operation.run(random, contended);
+                    } catch (Exception e) {
+                        errorCount++;
+                    }
+                    if (latencies != null && count < MAX_SAMPLES_PER_THREAD) {
+                        latencies[(int) count] = System.nanoTime() - begin;
+                    }
+                    count++;
+                }
+                if (sink != null) {
+                    sink.accept(id, latencies, count, errorCount);
+                }
+            }, "bench-" + t);
+            workers[t].start();
+        }
+
+        ready.await();
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private static void writeJson(Path out, List<Result> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+            writer.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                writer.print("  " + results.get(i).toJson());
+                writer.println(i < results.size() - 1 ? "," : "");
+            }
+            writer.println("]");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package banking;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.Map;
+
+// ============ END-OF-DAY BATCH JOB ===========
+// One step of the end-of-day run. The BatchRunner splits the acc_no key space into ranges and calls
+// processRange once per range, on its own connection and inside its own transaction, so a job should
+// touch only the rows of that range and do it with set-based statements rather than row by row.
+
+public interface BatchJob {
+
+    // Name stored with the checkpoints, so a restarted run skips the ranges this job already finished
+    String getName();
+
+    // Applies the job to acc_no in [first_acc_no, last_acc_no] and returns the number of rows changed.
+    // Every amount credited is added to credits (acc_no -> cents); the runner commits the range together with its
+    // checkpoint and then journals the credits as DEPOSIT records, so a journal replay keeps them.
+    int processRange(Connection conn, LocalDate businessDate, int first_acc_no, int last_acc_no, Map<Integer, Long> credits)
+            throws SQLException;
+}
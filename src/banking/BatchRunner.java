@@ -0,0 +1,241 @@
+package banking;
+
+import java.io.IOException;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// ============ PARTITIONED END-OF-DAY BATCH RUNNER ===========
+// Runs a BatchJob over the whole customers table without one huge transaction. The acc_no key space is cut
+// into ranges of rangeSize account numbers; the ranges are processed in parallel by a fork/join pool, each on
+// its own pooled connection and in its own short transaction, so row locks are only held for one range at a time
+// and online traffic keeps flowing. Every finished range writes a row to batch_checkpoints in the same commit,
+// so a range is applied exactly once per business date and a restarted run resumes with the ranges still missing.
+
+public class BatchRunner {
+
+    private static final String CHECKPOINT_QUERY = "SELECT range_start FROM batch_checkpoints WHERE job_name = ? AND business_date = ?";
+    private static final String INSERT_CHECKPOINT_QUERY = "INSERT INTO batch_checkpoints(job_name, business_date, range_start, "
+            + "range_end, rows_updated, finished_at) VALUES(?,?,?,?,?,?)";
+
+    public static class Summary {
+        public final String job;
+        public final LocalDate businessDate;
+        public final int ranges;
+        public final int skipped;
+        public final long rowsUpdated;
+        public final int failedRanges;
+        public final long elapsedNanos;
+
+        private Summary(String job, LocalDate businessDate, int ranges, int skipped, long rowsUpdated, int failedRanges,
+                        long elapsedNanos) {
+            this.job = job;
+            this.businessDate = businessDate;
+            this.ranges = ranges;
+            this.skipped = skipped;
+            this.rowsUpdated = rowsUpdated;
+            this.failedRanges = failedRanges;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Job %s for %s: %d ranges (%d already done), %d rows updated, %d ranges failed in %.2f s",
+                    job, businessDate, ranges, skipped, rowsUpdated, failedRanges, elapsedNanos / 1_000_000_000.0);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int rangeSize;
+    private final int parallelism;
+
+    public BatchRunner(ConnectionPool pool, int rangeSize, int parallelism) {
+        if (rangeSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("rangeSize and parallelism must be positive");
+        }
+        this.pool = pool;
+        this.rangeSize = rangeSize;
+        this.parallelism = parallelism;
+    }
+
+    // Command line entry: eod <job> [--rate=percent] [--date=yyyy-mm-dd] [--range-size=N] [--parallelism=N] [--journal=dir]
+    public static void run(ConnectionPool pool, String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java -jar simple-banking-system.jar eod interest --rate=3.5 [--date=yyyy-mm-dd] [--range-size=N] [--parallelism=N] [--journal=dir]");
+            return;
+        }
+        Map<String, String> options = CliOptions.parse(args);
+        LocalDate businessDate = options.containsKey("date") ? LocalDate.parse(options.get("date")) : LocalDate.now();
+        int rangeSize = Integer.parseInt(options.getOrDefault("range-size", "10000"));
+        // Leave a connection for the online traffic
+        int parallelism = Integer.parseInt(options.getOrDefault("parallelism", String.valueOf(Math.max(1, pool.getMaxSize() - 1))));
+
+        BatchJob job;
+        switch (args[1]) {
+            case "interest":
+                if (!options.containsKey("rate")) {
+                    System.out.println("The interest job needs --rate=<annual percent>.");
+                    return;
+                }
+                job = new InterestAccrualJob(Double.parseDouble(options.get("rate")));
+                break;
+            default:
+                System.out.println("Unknown batch job: " + args[1]);
+                return;
+        }
+
+        try {
+            System.out.println(new BatchRunner(pool, rangeSize, parallelism).run(job, businessDate));
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public Summary run(BatchJob job, LocalDate businessDate) throws SQLException {
+        long start = System.nanoTime();
+        int minAccNo, maxAccNo;
+        Set<Integer> done = new HashSet<>();
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+            try (Statement statement = conn.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT MIN(acc_no), MAX(acc_no) FROM customers")) {
+                resultSet.next();
+                minAccNo = resultSet.getInt(1);
+                maxAccNo = resultSet.getInt(2);
+                if (resultSet.wasNull()) {
+                    return new Summary(job.getName(), businessDate, 0, 0, 0, 0, System.nanoTime() - start);
+                }
+            }
+            try (PreparedStatement checkpoint_preparedStatement = conn.prepareStatement(CHECKPOINT_QUERY)) {
+                checkpoint_preparedStatement.setString(1, job.getName());
+                checkpoint_preparedStatement.setDate(2, java.sql.Date.valueOf(businessDate));
+                try (ResultSet resultSet = checkpoint_preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        done.add(resultSet.getInt("range_start"));
+                    }
+                }
+            }
+        }
+
+        // Ranges are aligned to multiples of rangeSize so a restart sees the same boundaries
+        List<int[]> pending = new ArrayList<>();
+        int ranges = 0;
+        for (long first = (long) Math.floorDiv(minAccNo, rangeSize) * rangeSize; first <= maxAccNo; first += rangeSize) {
+            ranges++;
+            if (!done.contains((int) first)) {
+                pending.add(new int[]{(int) first, (int) Math.min(Integer.MAX_VALUE, first + rangeSize - 1)});
+            }
+        }
+
+        LongAdder rowsUpdated = new LongAdder();
+        LongAdder failedRanges = new LongAdder();
+        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+        try {
+            forkJoinPool.invoke(new RangeTask(job, businessDate, pending, 0, pending.size(), rowsUpdated, failedRanges));
+        } finally {
+            forkJoinPool.shutdown();
+        }
+        return new Summary(job.getName(), businessDate, ranges, ranges - pending.size(), rowsUpdated.sum(),
+                failedRanges.intValue(), System.nanoTime() - start);
+    }
+
+    // Splits the pending ranges in halves until a single range is left, then processes it
+    private final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BatchJob job;
+        private final LocalDate businessDate;
+        private final List<int[]> ranges;
+        private final int from;
+        private final int to;
+        private final LongAdder rowsUpdated;
+        private final LongAdder failedRanges;
+
+        RangeTask(BatchJob job, LocalDate businessDate, List<int[]> ranges, int from, int to,
+                  LongAdder rowsUpdated, LongAdder failedRanges) {
+            this.job = job;
+            this.businessDate = businessDate;
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+            this.rowsUpdated = rowsUpdated;
+            this.failedRanges = failedRanges;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 0) {
+                return;
+            }
+            if (to - from == 1) {
+                int[] range = ranges.get(from);
+                try {
+                    rowsUpdated.add(processRange(job, businessDate, range[0], range[1]));
+                } catch (SQLException e) {
+                    // Left without a checkpoint, so the next run picks it up again (unless only its journal write failed)
+                    failedRanges.increment();
+                    SimpleBankingSystem.metrics.sqlError();
+                    System.out.println("Range " + range[0] + "-" + range[1] + " failed: " + e.getMessage());
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(job, businessDate, ranges, from, mid, rowsUpdated, failedRanges),
+                    new RangeTask(job, businessDate, ranges, mid, to, rowsUpdated, failedRanges));
+        }
+    }
+
+    // One range, one transaction: the job's updates and the checkpoint commit together; its credits are journaled after
+    private int processRange(BatchJob job, LocalDate businessDate, int first_acc_no, int last_acc_no) throws SQLException {
+        SimpleBankingSystem.requireJournal();
+        int rows;
+        Map<Integer, Long> credits = new HashMap<>();
+        try (Connection conn = pool.borrow()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement checkpoint_preparedStatement = conn.prepareStatement(INSERT_CHECKPOINT_QUERY)) {
+                rows = job.processRange(conn, businessDate, first_acc_no, last_acc_no, credits);
+                checkpoint_preparedStatement.setString(1, job.getName());
+                checkpoint_preparedStatement.setDate(2, java.sql.Date.valueOf(businessDate));
+                checkpoint_preparedStatement.setInt(3, first_acc_no);
+                checkpoint_preparedStatement.setInt(4, last_acc_no);
+                checkpoint_preparedStatement.setInt(5, rows);
+                checkpoint_preparedStatement.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
+                checkpoint_preparedStatement.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        // Balances in this range changed underneath the cache (and the reconciler, if one runs in this process)
+        LedgerReconciler reconciler = SimpleBankingSystem.reconciler;
+        for (long acc_no = first_acc_no; acc_no <= last_acc_no; acc_no++) {
+            SimpleBankingSystem.balanceCache.invalidate((int) acc_no);
+            if (reconciler != null) {
+                reconciler.touched((int) acc_no);
+            }
+        }
+        journal(credits);
+        return rows;
+    }
+
+    // The committed credits of one range as DEPOSIT records, with one group commit
+    private static void journal(Map<Integer, Long> credits) throws SQLException {
+        TransactionJournal journal = SimpleBankingSystem.journal;
+        if (journal == null || credits.isEmpty()) {
+            return;
+        }
+        try {
+            long lastLsn = 0;
+            for (Map.Entry<Integer, Long> credit : credits.entrySet()) {
+                lastLsn = journal.append(TransactionJournal.DEPOSIT, credit.getKey(), 0, credit.getValue());
+            }
+            journal.awaitDurable(lastLsn);
+        } catch (IOException e) {
+            throw SimpleBankingSystem.journalFailed(e);
+        }
+    }
+}
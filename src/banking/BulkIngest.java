@@ -0,0 +1,434 @@
+package banking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+
+// ============ BULK TRANSACTION INGESTION USING JDBC BATCHING ===========
+// Streams a settlement file of deposits, withdrawals and transfers and applies it in chunks.
+// Each chunk is sent as a handful of JDBC batches and committed once; rows that fail (unknown account,
+// insufficient funds, bad input) are reported individually and the rest of the file carries on.
+//
+// CSV format, one operation per line:          D,<acc_no>,<amount>   W,<acc_no>,<amount>   T,<debit acc_no>,<amount>,<credit acc_no>
+// Fixed-width format (columns, 0-based):       0 type | 1-10 acc_no | 11-25 amount | 26-35 credit acc_no
+// Lines that are blank or start with '#' are skipped.
+//
+// Within a chunk, deposits are applied before debits, so a withdrawal may be funded by a deposit that
+// appears later in the same chunk. Keep chunks small if strict file order matters.
+//
+// Settlement files are exempt from the velocity limits: their debits are not checked against them. They are still
+// WITHDRAW and TRANSFER_OUT history, so a server started within a day of the ingest counts them when it rebuilds the
+// limits, and a running server doesn't see them until then.
+
+public class BulkIngest {
+
+    public enum Format { CSV, FIXED }
+
+    private static final char DEPOSIT = 'D';
+    private static final char WITHDRAW = 'W';
+    private static final char TRANSFER = 'T';
+
+    private static final class Row {
+        final long lineNo;
+        final char type;
+        final int accNo;
+        final double amount;
+        final int creditAccNo;
+        String failure;
+        boolean debited;
+
+        Row(long lineNo, char type, int accNo, double amount, int creditAccNo) {
+            this.lineNo = lineNo;
+            this.type = type;
+            this.accNo = accNo;
+            this.amount = amount;
+            this.creditAccNo = creditAccNo;
+        }
+    }
+
+    public static class Summary {
+        public long rows;
+        public long applied;
+        public long failed;
+        public long chunks;
+        public long elapsedNanos;
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1_000_000_000.0;
+            return String.format("Ingested %d rows in %d chunks: %d applied, %d failed (%.2f s, %.0f rows/sec)",
+                    rows, chunks, applied, failed, seconds, seconds == 0 ? 0 : rows / seconds);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+
+    public BulkIngest(ConnectionPool pool, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    // Command line entry: ingest <file> [--format=csv|fixed] [--batch-size=N]
+    public static void run(ConnectionPool pool, String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java -jar simple-banking-system.jar ingest <file> [--format=csv|fixed] [--batch-size=N]");
+            return;
+        }
+        Path file = Path.of(args[1]);
+        Format format = args[1].toLowerCase().endsWith(".csv") ? Format.CSV : Format.FIXED;
+        int batchSize = 1000;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--format=")) {
+                format = Format.valueOf(args[i].substring("--format=".length()).toUpperCase());
+            } else if (args[i].startsWith("--batch-size=")) {
+                batchSize = Integer.parseInt(args[i].substring("--batch-size=".length()));
+            }
+        }
+
+        try {
+            Summary summary = new BulkIngest(pool, batchSize).ingest(file, format);
+            System.out.println(summary);
+        } catch (IOException | SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    // Streams the file, applying it one chunk at a time
+    public Summary ingest(Path file, Format format) throws IOException, SQLException {
+        Summary summary = new Summary();
+        long start = System.nanoTime();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             Connection conn = pool.borrow()) {
+            conn.setAutoCommit(false);
+
+            List<Row> chunk = new ArrayList<>(batchSize);
+            String line;
+            long lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                summary.rows++;
+                Row row = parse(lineNo, line, format);
+                if (row == null) {
+                    report(lineNo, "Unreadable row: " + line);
+                    summary.failed++;
+                    continue;
+                }
+                chunk.add(row);
+                if (chunk.size() == batchSize) {
+                    applyChunk(conn, chunk, summary);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                applyChunk(conn, chunk, summary);
+            }
+        }
+
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    private static Row parse(long lineNo, String line, Format format) {
+        try {
+            String type, accNo, amount, creditAccNo;
+            if (format == Format.CSV) {
+                String[] fields = line.split(",", -1);
+                if (fields.length < 3) {
+                    return null;
+                }
+                type = fields[0].trim();
+                accNo = fields[1].trim();
+                amount = fields[2].trim();
+                creditAccNo = fields.length > 3 ? fields[3].trim() : "";
+            } else {
+                if (line.length() < 26) {
+                    return null;
+                }
+                type = line.substring(0, 1);
+                accNo = line.substring(1, 11).trim();
+                amount = line.substring(11, 26).trim();
+                creditAccNo = line.length() > 26 ? line.substring(26, Math.min(36, line.length())).trim() : "";
+            }
+
+            if (type.isEmpty()) {
+                return null;
+            }
+            char op = Character.toUpperCase(type.charAt(0));
+            if (op != DEPOSIT && op != WITHDRAW && op != TRANSFER) {
+                return null;
+            }
+            if (op == TRANSFER && creditAccNo.isEmpty()) {
+                return null;
+            }
+            return new Row(lineNo, op, Integer.parseInt(accNo), Double.parseDouble(amount),
+                    op == TRANSFER ? Integer.parseInt(creditAccNo) : 0);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Applies one chunk in a single transaction: deposit batch, guarded debit batch, then transfer credits.
+    // If the batches themselves fail the chunk is rolled back and replayed row by row.
+    private void applyChunk(Connection conn, List<Row> chunk, Summary summary) throws SQLException {
+        SimpleBankingSystem.requireJournal();
+        long start = System.nanoTime();
+        summary.chunks++;
+        List<Row> valid = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            try {
+                SimpleBankingSystem.checkDepositFundAmt(row.amount);
+                valid.add(row);
+            } catch (SimpleBankingSystem.InvalidDepositFundsException e) {
+                row.failure = e.getMessage();
+            }
+        }
+
+        try {
+            applyBatches(conn, valid);
+            recordHistory(conn, valid);
+            conn.commit();
+        } catch (SQLException e) {
+            SimpleBankingSystem.metrics.sqlError();
+            conn.rollback();
+            System.out.println("Chunk ending at line " + chunk.get(chunk.size() - 1).lineNo
+                    + " failed as a batch (" + e.getMessage() + "), applying it row by row.");
+            for (Row row : valid) {
+                row.failure = null;
+                row.debited = false;
+                applySingle(conn, row);
+            }
+        }
+        // Batch updates don't return balances, so drop the touched accounts and let the next read refresh them
+        invalidate(valid);
+        try {
+            journal(valid);
+        } catch (SQLException e) {
+            throw new SQLException("Chunk ending at line " + chunk.get(chunk.size() - 1).lineNo + ": " + e.getMessage(), e);
+        }
+        SimpleBankingSystem.metrics.record(BankMetrics.Operation.INGEST_CHUNK, start);
+
+        for (Row row : chunk) {
+            if (row.failure == null) {
+                summary.applied++;
+            } else {
+                summary.failed++;
+                report(row.lineNo, row.failure);
+            }
+        }
+    }
+
+    private static void applyBatches(Connection conn, List<Row> rows) throws SQLException {
+        // Deposits
+        try (PreparedStatement deposit_preparedStatement = conn.prepareStatement(SimpleBankingSystem.DEPOSIT_QUERY)) {
+            List<Row> batched = new ArrayList<>();
+            for (Row row : rows) {
+                if (row.type == DEPOSIT) {
+                    deposit_preparedStatement.setDouble(1, row.amount);
+                    deposit_preparedStatement.setInt(2, row.accNo);
+                    deposit_preparedStatement.addBatch();
+                    batched.add(row);
+                }
+            }
+            int[] counts = executeBatch(deposit_preparedStatement, batched, true);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    batched.get(i).failure = new SimpleBankingSystem.InvalidAccountNumberException().getMessage();
+                }
+            }
+        }
+
+        // Withdrawals and transfer debits, guarded by the balance
+        try (PreparedStatement withdraw_preparedStatement = conn.prepareStatement(SimpleBankingSystem.GUARDED_WITHDRAW_QUERY)) {
+            List<Row> batched = new ArrayList<>();
+            for (Row row : rows) {
+                if (row.type == WITHDRAW || row.type == TRANSFER) {
+                    withdraw_preparedStatement.setDouble(1, row.amount);
+                    withdraw_preparedStatement.setInt(2, row.accNo);
+                    withdraw_preparedStatement.setDouble(3, row.amount);
+                    withdraw_preparedStatement.addBatch();
+                    batched.add(row);
+                }
+            }
+            int[] counts = executeBatch(withdraw_preparedStatement, batched, false);
+            for (int i = 0; i < counts.length; i++) {
+                Row row = batched.get(i);
+                if (counts[i] == 0) {
+                    row.failure = debitFailure(conn, row.accNo);
+                } else {
+                    row.debited = true;
+                }
+            }
+        }
+
+        // Transfer credits for every debit that went through
+        List<Row> unknownCredit = new ArrayList<>();
+        try (PreparedStatement deposit_preparedStatement = conn.prepareStatement(SimpleBankingSystem.DEPOSIT_QUERY)) {
+            List<Row> batched = new ArrayList<>();
+            for (Row row : rows) {
+                if (row.type == TRANSFER && row.debited) {
+                    deposit_preparedStatement.setDouble(1, row.amount);
+                    deposit_preparedStatement.setInt(2, row.creditAccNo);
+                    deposit_preparedStatement.addBatch();
+                    batched.add(row);
+                }
+            }
+            int[] counts = executeBatch(deposit_preparedStatement, batched, false);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    unknownCredit.add(batched.get(i));
+                }
+            }
+
+            // Put the money back on transfers whose credit account does not exist
+            if (!unknownCredit.isEmpty()) {
+                for (Row row : unknownCredit) {
+                    deposit_preparedStatement.setDouble(1, row.amount);
+                    deposit_preparedStatement.setInt(2, row.accNo);
+                    deposit_preparedStatement.addBatch();
+                    row.failure = "Credit " + new SimpleBankingSystem.InvalidAccountNumberException().getMessage();
+                }
+                deposit_preparedStatement.executeBatch();
+            }
+        }
+    }
+
+    // History rows for the applied rows of the chunk, in the chunk's transaction. The batches don't read
+    // balances back, so balance_after is left empty.
+    private static void recordHistory(Connection conn, List<Row> rows) throws SQLException {
+        try (PreparedStatement history_preparedStatement = conn.prepareStatement(TransactionHistory.INSERT_TRANSACTION_QUERY)) {
+            int batched = 0;
+            for (Row row : rows) {
+                if (row.failure != null) {
+                    continue;
+                }
+                switch (row.type) {
+                    case DEPOSIT:
+                        TransactionHistory.bind(history_preparedStatement, row.accNo, TransactionHistory.DEPOSIT, row.amount, Double.NaN, 0);
+                        break;
+                    case WITHDRAW:
+                        TransactionHistory.bind(history_preparedStatement, row.accNo, TransactionHistory.WITHDRAW, row.amount, Double.NaN, 0);
+                        break;
+                    default:
+                        TransactionHistory.bind(history_preparedStatement, row.accNo, TransactionHistory.TRANSFER_OUT, row.amount,
+                                Double.NaN, row.creditAccNo);
+                        history_preparedStatement.addBatch();
+                        TransactionHistory.bind(history_preparedStatement, row.creditAccNo, TransactionHistory.TRANSFER_IN, row.amount,
+                                Double.NaN, row.accNo);
+                        batched++;
+                }
+                history_preparedStatement.addBatch();
+                batched++;
+            }
+            if (batched > 0) {
+                history_preparedStatement.executeBatch();
+            }
+        }
+    }
+
+    // Drivers that rewrite batches may answer SUCCESS_NO_INFO, which says nothing about whether a row matched. For
+    // plain deposits it is taken as applied; where a count of 0 decides what happens next (a debit refused for lack
+    // of funds, a transfer credit to a missing account) it fails the batch, and the chunk is applied row by row.
+    private static int[] executeBatch(PreparedStatement statement, List<Row> batched, boolean noInfoIsApplied) throws SQLException {
+        if (batched.isEmpty()) {
+            return new int[0];
+        }
+        int[] counts = statement.executeBatch();
+        if (counts.length != batched.size()) {
+            throw new SQLException("Driver returned " + counts.length + " update counts for " + batched.size() + " batched rows.");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                if (!noInfoIsApplied) {
+                    throw new SQLException("Driver returned no update counts for a guarded batch.");
+                }
+                counts[i] = 1;
+            }
+        }
+        return counts;
+    }
+
+    // Fallback path: one row, one transaction
+    private static void applySingle(Connection conn, Row row) throws SQLException {
+        try {
+            switch (row.type) {
+                case DEPOSIT:
+                    try (PreparedStatement deposit_preparedStatement = conn.prepareStatement(SimpleBankingSystem.DEPOSIT_QUERY)) {
+                        deposit_preparedStatement.setDouble(1, row.amount);
+                        deposit_preparedStatement.setInt(2, row.accNo);
+                        if (deposit_preparedStatement.executeUpdate() == 0) {
+                            throw new SimpleBankingSystem.InvalidAccountNumberException();
+                        }
+                    }
+                    TransactionHistory.record(conn, row.accNo, TransactionHistory.DEPOSIT, row.amount, Double.NaN, 0);
+                    break;
+                case WITHDRAW:
+                    SimpleBankingSystem.withdrawGuarded(conn, row.accNo, row.amount);
+                    break;
+                default:
+                    SimpleBankingSystem.transferGuarded(conn, row.accNo, row.creditAccNo, row.amount);
+            }
+            conn.commit();
+        } catch (SimpleBankingSystem.InvalidAccountNumberException | SimpleBankingSystem.InsufficientFundsException e) {
+            conn.rollback();
+            row.failure = e.getMessage();
+        } catch (SQLException e) {
+            conn.rollback();
+            row.failure = e.getMessage();
+        }
+    }
+
+    // Journals the applied rows of a committed chunk and waits for them with a single group commit. A failure stops
+    // the ingest: the chunk is committed but can't be replayed, and no further chunk is applied.
+    private static void journal(List<Row> rows) throws SQLException {
+        TransactionJournal journal = SimpleBankingSystem.journal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            long lastLsn = 0;
+            for (Row row : rows) {
+                if (row.failure != null) {
+                    continue;
+                }
+                byte type = row.type == DEPOSIT ? TransactionJournal.DEPOSIT
+                        : row.type == WITHDRAW ? TransactionJournal.WITHDRAW : TransactionJournal.TRANSFER;
+                lastLsn = journal.append(type, row.accNo, row.creditAccNo, BalanceCache.toCents(row.amount));
+            }
+            journal.awaitDurable(lastLsn);
+        } catch (IOException e) {
+            throw SimpleBankingSystem.journalFailed(e);
+        }
+    }
+
+    private static void invalidate(List<Row> rows) {
+        for (Row row : rows) {
+            SimpleBankingSystem.balanceCache.invalidate(row.accNo);
+            if (row.type == TRANSFER) {
+                SimpleBankingSystem.balanceCache.invalidate(row.creditAccNo);
+            }
+        }
+    }
+
+    private static String debitFailure(Connection conn, int acc_no) {
+        if (SimpleBankingSystem.accountExists(conn, acc_no) == 0) {
+            return new SimpleBankingSystem.InvalidAccountNumberException().getMessage();
+        }
+        return new SimpleBankingSystem.InsufficientFundsException().getMessage();
+    }
+
+    private static void report(long lineNo, String failure) {
+        System.out.println("Line " + lineNo + ": " + failure);
+    }
+}
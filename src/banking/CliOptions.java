@@ -0,0 +1,29 @@
+package banking;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// ============ COMMAND LINE OPTIONS ===========
+// The --name=value options shared by the non-interactive commands (serve, ingest, onboard, eod, bench, ...).
+// args[0] is the command and is skipped; a bare --flag is read as "true".
+
+public final class CliOptions {
+
+    private CliOptions() {
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                int eq = args[i].indexOf('=');
+                if (eq > 0) {
+                    options.put(args[i].substring(2, eq), args[i].substring(eq + 1));
+                } else {
+                    options.put(args[i].substring(2), "true");
+                }
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,417 @@
+package banking;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// ============ BOUNDED JDBC CONNECTION POOL ===========
+
+public class ConnectionPool implements AutoCloseable {
+
+    // Connections used this recently are handed out again without a validation round trip
+    private static final long ALIVE_BYPASS_MILLIS = 500;
+    // Caller frames shown in a leak report
+    private static final int LEAK_REPORT_FRAMES = 5;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+    // Capture the stack of every borrow for leak reports; off by default, it is the costliest part of a borrow
+    private volatile boolean leakTrace = false;
+
+    // Pool Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final StatementCache.Stats statementStats = new StatementCache.Stats();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder validations = new LongAdder();
+
+    public ConnectionPool(String url, String username, String password, int maxSize, int minIdle,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, long leakThresholdMillis, int statementCacheSize) {
+        if (maxSize <= 0 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: maxSize=" + maxSize + ", minIdle=" + minIdle);
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = minIdle;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.validationTimeoutSeconds = 2;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakThresholdMillis > 0 ? leakThresholdMillis : Long.MAX_VALUE) / 2);
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Borrows a Connection from the pool. Closing the returned Connection hands it back to the pool.
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                borrowTimeouts.incrementAndGet();
+                throw new SQLTransientConnectionException("Connection pool exhausted: no connection available within "
+                        + borrowTimeoutMillis + " ms (active=" + getActiveCount() + ", max=" + maxSize + ").");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection.", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pc;
+            while (true) {
+                pc = idle.pollFirst();
+                if (pc == null) {
+                    pc = createConnection();
+                    break;
+                }
+                if (validate(pc)) {
+                    break;
+                }
+                validationFailures.incrementAndGet();
+                closePhysical(pc);
+            }
+
+            pc.borrowedAt = System.currentTimeMillis();
+            pc.borrower = Thread.currentThread();
+            pc.borrowSite = leakTrace && leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            pc.leakReported = false;
+            borrowed.add(pc);
+            borrowCount.incrementAndGet();
+            return pc.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Hands a Connection back to the pool, resetting any transaction state left behind by the borrower
+    private void release(PooledConnection pc) {
+        borrowed.remove(pc);
+        pc.borrower = null;
+        pc.borrowSite = null;
+        boolean reusable = !closed;
+        try {
+            if (reusable && !pc.physical.getAutoCommit()) {
+                rollbacks.increment();
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        if (reusable) {
+            pc.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pc);
+        } else {
+            closePhysical(pc);
+        }
+        permits.release();
+    }
+
+    private PooledConnection createConnection() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, username, password);
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private boolean validate(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.lastUsed < ALIVE_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            validations.increment();
+            return pc.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void closePhysical(PooledConnection pc) {
+        if (pc.statements != null) {
+            pc.statements.closeAll();
+        }
+        try {
+            pc.physical.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        long prev;
+        while (waitNanos > (prev = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(prev, waitNanos)) {
+                break;
+            }
+        }
+    }
+
+    // Records where each borrow happens, for the leak report. Without it the report names the borrowing thread and
+    // where that thread is when the leak is noticed.
+    public void setLeakTrace(boolean leakTrace) {
+        this.leakTrace = leakTrace;
+    }
+
+    // Where a leaked connection was borrowed, or else who holds it
+    private static String holder(PooledConnection pc) {
+        Throwable site = pc.borrowSite;
+        Thread borrower = pc.borrower;
+        if (site != null) {
+            return " Borrowed at " + frames(site.getStackTrace());
+        }
+        if (borrower == null) {
+            return "";
+        }
+        return " Borrowed by thread " + borrower.getName()
+                + (borrower.isAlive() ? ", now at " + frames(borrower.getStackTrace()) : ", which has ended");
+    }
+
+    // The first frames outside the pool, innermost first, on one line
+    private static String frames(StackTraceElement[] stack) {
+        StringBuilder sb = new StringBuilder();
+        int shown = 0;
+        for (StackTraceElement frame : stack) {
+            if (frame.getClassName().equals(ConnectionPool.class.getName())) {
+                continue;
+            }
+            if (shown == LEAK_REPORT_FRAMES) {
+                sb.append(" <- ...");
+                break;
+            }
+            sb.append(shown++ == 0 ? "" : " <- ").append(frame);
+        }
+        return sb.toString();
+    }
+
+    // Evicts idle connections past the idle timeout and reports connections held longer than the leak threshold
+    private void houseKeep() {
+        long now = System.currentTimeMillis();
+
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() > minIdle) {
+            PooledConnection pc = it.next();
+            if (now - pc.lastUsed > idleTimeoutMillis && idle.removeLastOccurrence(pc)) {
+                evictedCount.incrementAndGet();
+                closePhysical(pc);
+            }
+        }
+
+        if (leakThresholdMillis > 0) {
+            for (PooledConnection pc : borrowed) {
+                if (!pc.leakReported && now - pc.borrowedAt > leakThresholdMillis) {
+                    pc.leakReported = true;
+                    leaksDetected.incrementAndGet();
+                    System.out.println("Possible connection leak: connection held for " + (now - pc.borrowedAt) + " ms." + holder(pc));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            closePhysical(pc);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getThreadsAwaiting() {
+        return permits.getQueueLength();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / borrows;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    public long getBorrowTimeouts() {
+        return borrowTimeouts.get();
+    }
+
+    public long getLeaksDetected() {
+        return leaksDetected.get();
+    }
+
+    public StatementCache.Stats getStatementCacheStats() {
+        return statementStats;
+    }
+
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    // Statement executions, commits, rollbacks and validation pings issued through this pool
+    public long getRoundTrips() {
+        return statementStats.getExecutions() + commits.sum() + rollbacks.sum() + validations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool[active=%d, idle=%d, max=%d, waiting=%d, borrows=%d, avgWait=%.3fms, maxWait=%.3fms, "
+                        + "created=%d, evicted=%d, validationFailures=%d, timeouts=%d, leaks=%d]",
+                getActiveCount(), getIdleCount(), maxSize, getThreadsAwaiting(), getBorrowCount(), getAverageWaitMillis(),
+                getMaxWaitMillis(), getCreatedCount(), getEvictedCount(), getValidationFailures(), getBorrowTimeouts(), getLeaksDetected()) + " " + statementStats;
+    }
+
+    // A physical Connection owned by the pool. Each borrow gets its own handle so a stale handle cannot return it twice.
+    private final class PooledConnection {
+        final Connection physical;
+        final StatementCache statements;
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile long borrowedAt;
+        volatile Thread borrower;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = statementCacheSize > 0 ? new StatementCache(physical, statementCacheSize, statementStats) : null;
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+    }
+
+    // Proxy handler that turns close() into a return to the pool
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pc;
+        private boolean returned = false;
+
+        Handle(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pc);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pc.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pc.physical + "]";
+                case "commit":
+                    commits.increment();
+                    return forward(method, args);
+                case "rollback":
+                    rollbacks.increment();
+                    return forward(method, args);
+                case "prepareStatement":
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool.");
+                    }
+                    if (pc.statements != null && args.length == 1) {
+                        return pc.statements.prepare((Connection) proxy, (String) args[0], Statement.NO_GENERATED_KEYS);
+                    }
+                    if (pc.statements != null && args.length == 2 && args[1] instanceof Integer) {
+                        return pc.statements.prepare((Connection) proxy, (String) args[0], (Integer) args[1]);
+                    }
+                    return forward(method, args);
+                default:
+                    return forward(method, args);
+            }
+        }
+
+        private Object forward(Method method, Object[] args) throws Throwable {
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            try {
+                return method.invoke(pc.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package banking;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// ============ IN-MEMORY CUSTOMER SEARCH INDEX ===========
+// Lets a teller find an account without knowing its acc_no, and without LIKE scans over customers:
+//   - phone: exact lookup in a hash map (phone numbers are unique)
+//   - email: prefix search in a trie over the lower-cased address
+//   - name:  prefix search in a trie over every lower-cased word of the name, so "sha" finds "Ravi Sharma".
+//            A query of several words matches names that have a word starting with each of them.
+//
+// build() fills it with one streaming scan of the open accounts; after that BankService keeps it current as
+// accounts are created and closed. Accounts created or closed by other processes (onboard, another server) are
+// only seen after the next build(). Lookups take a shared read lock and never touch the database.
+
+public class CustomerIndex {
+
+    private static final String SCAN_QUERY = "SELECT acc_no, name, phone, email FROM customers WHERE closed_at IS NULL";
+    private static final int SCAN_FETCH_SIZE = 10_000;
+
+    public static final class Customer {
+        public final int accNo;
+        public final String name;
+        public final String phone;
+        public final String email;
+
+        Customer(int accNo, String name, String phone, String email) {
+            this.accNo = accNo;
+            this.name = name;
+            this.phone = phone;
+            this.email = email;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"acc_no\": %d, \"name\": \"%s\", \"phone\": \"%s\", \"email\": \"%s\"}",
+                    accNo, escape(name), escape(phone), escape(email));
+        }
+
+        @Override
+        public String toString() {
+            return accNo + "  " + name + "  " + phone + "  " + email;
+        }
+    }
+
+    // One trie node: children kept in small parallel arrays sorted by character, and the customers whose key ends here
+    private static final class Node {
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        Customer[] ends = null;
+        int endCount = 0;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node addChild(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int at = -i - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newLabels[at] = c;
+            newChildren[at] = new Node();
+            System.arraycopy(labels, at, newLabels, at + 1, labels.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[at];
+        }
+
+        void addEnd(Customer customer) {
+            if (ends == null) {
+                ends = new Customer[1];
+            } else if (endCount == ends.length) {
+                ends = Arrays.copyOf(ends, endCount * 2);
+            }
+            ends[endCount++] = customer;
+        }
+
+        void removeEnd(int accNo) {
+            for (int i = 0; i < endCount; i++) {
+                if (ends[i].accNo == accNo) {
+                    ends[i] = ends[--endCount];
+                    ends[endCount] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Customer> byAccount = new HashMap<>();
+    private final Map<String, Customer> byPhone = new HashMap<>();
+    private final Node names = new Node();
+    private final Node emails = new Node();
+
+    // Indexes every open account with one streaming scan
+    public static CustomerIndex build(ConnectionPool pool) throws SQLException {
+        CustomerIndex index = new CustomerIndex();
+        try (Connection conn = pool.borrow();
+             PreparedStatement scan_preparedStatement = conn.prepareStatement(SCAN_QUERY)) {
+            scan_preparedStatement.setFetchSize(SCAN_FETCH_SIZE);
+            try (ResultSet resultSet = scan_preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    index.add(resultSet.getInt("acc_no"), resultSet.getString("name"), resultSet.getString("phone"),
+                            resultSet.getString("email"));
+                }
+            }
+        }
+        return index;
+    }
+
+    public void add(int acc_no, String name, String phone, String email) {
+        Customer customer = new Customer(acc_no, name, phone, email);
+        lock.writeLock().lock();
+        try {
+            Customer previous = byAccount.put(acc_no, customer);
+            if (previous != null) {
+                unlink(previous);
+            }
+            byPhone.put(phone, customer);
+            for (String word : words(name)) {
+                insert(names, word, customer);
+            }
+            insert(emails, email.toLowerCase(Locale.ROOT), customer);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Emptied trie nodes are left in place; they are few and the next build() drops them
+    public void remove(int acc_no) {
+        lock.writeLock().lock();
+        try {
+            Customer customer = byAccount.remove(acc_no);
+            if (customer != null) {
+                unlink(customer);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Customer byPhone(String phone) {
+        lock.readLock().lock();
+        try {
+            return byPhone.get(phone.trim());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Up to limit customers with an email address starting with prefix, in address order
+    public List<Customer> byEmailPrefix(String prefix, int limit) {
+        List<Customer> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Node node = find(emails, prefix.trim().toLowerCase(Locale.ROOT));
+            if (node != null) {
+                collect(node, found, new HashSet<>(), limit, null);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    // Up to limit customers with a word of their name starting with each word of the query
+    public List<Customer> byNamePrefix(String query, int limit) {
+        List<Customer> found = new ArrayList<>();
+        List<String> queryWords = words(query);
+        if (queryWords.isEmpty()) {
+            return found;
+        }
+        lock.readLock().lock();
+        try {
+            // Walk the trie for the first word, and check the others against each candidate's name
+            Node node = find(names, queryWords.get(0));
+            if (node != null) {
+                collect(node, found, new HashSet<>(), limit, queryWords.subList(1, queryWords.size()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    // Phone number when the query is one, email prefix when it has an @, otherwise name prefix
+    public List<Customer> search(String query, int limit) {
+        String trimmed = query.trim();
+        if (SimpleBankingSystem.isValidPhone(trimmed)) {
+            Customer customer = byPhone(trimmed);
+            return customer == null ? Collections.emptyList() : Collections.singletonList(customer);
+        }
+        if (trimmed.indexOf('@') >= 0) {
+            return byEmailPrefix(trimmed, limit);
+        }
+        return byNamePrefix(trimmed, limit);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byAccount.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void unlink(Customer customer) {
+        if (byPhone.get(customer.phone) == customer) {
+            byPhone.remove(customer.phone);
+        }
+        for (String word : words(customer.name)) {
+            Node node = find(names, word);
+            if (node != null) {
+                node.removeEnd(customer.accNo);
+            }
+        }
+        Node node = find(emails, customer.email.toLowerCase(Locale.ROOT));
+        if (node != null) {
+            node.removeEnd(customer.accNo);
+        }
+    }
+
+    private static void insert(Node root, String key, Customer customer) {
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.addChild(key.charAt(i));
+        }
+        node.addEnd(customer);
+    }
+
+    private static Node find(Node root, String key) {
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i));
+        }
+        return node;
+    }
+
+    // Depth-first, so results come in key order; a customer reached through two of its words is listed once
+    private static void collect(Node node, List<Customer> found, Set<Integer> seen, int limit, List<String> otherWords) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty() && found.size() < limit) {
+            Node current = stack.pop();
+            for (int i = 0; i < current.endCount && found.size() < limit; i++) {
+                Customer customer = current.ends[i];
+                if (seen.add(customer.accNo) && (otherWords == null || hasWordPrefixes(customer.name, otherWords))) {
+                    found.add(customer);
+                }
+            }
+            for (int i = current.children.length - 1; i >= 0; i--) {
+                stack.push(current.children[i]);
+            }
+        }
+    }
+
+    private static boolean hasWordPrefixes(String name, List<String> prefixes) {
+        List<String> nameWords = words(name);
+        for (String prefix : prefixes) {
+            boolean matched = false;
+            for (String word : nameWords) {
+                if (word.startsWith(prefix)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerIndex[customers=" + size() + "]";
+    }
+}
@@ -0,0 +1,268 @@
+package banking;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+
+// ============ HIGH-VOLUME CUSTOMER ONBOARDING ===========
+// Reads a CSV file of new customers (name,phone,email,balance), validates each row with the allocation-free
+// validators, and inserts the valid ones in JDBC batches. Account numbers come back through getGeneratedKeys.
+// Accepted customers are written to an accounts file (acc_no,phone) and every rejected row goes to a reject
+// file together with the reason, so a bad row never stops the run.
+
+public class CustomerOnboarding {
+
+    // Same wording as the teller's validation exceptions, built once
+    private static final String INVALID_PHONE = new SimpleBankingSystem.InvalidPhoneNumberException().getMessage();
+    private static final String INVALID_EMAIL = new SimpleBankingSystem.InvalidEmailException().getMessage();
+    private static final String INVALID_BALANCE = new SimpleBankingSystem.InvalidInitialBalanceException().getMessage();
+
+    private static final class Customer {
+        final long lineNo;
+        final String line;
+        final String name;
+        final String phone;
+        final String email;
+        final double balance;
+
+        Customer(long lineNo, String line, String name, String phone, String email, double balance) {
+            this.lineNo = lineNo;
+            this.line = line;
+            this.name = name;
+            this.phone = phone;
+            this.email = email;
+            this.balance = balance;
+        }
+    }
+
+    public static class Summary {
+        public long rows;
+        public long created;
+        public long rejected;
+        public long elapsedNanos;
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1_000_000_000.0;
+            return String.format("Onboarded %d of %d customers, %d rejected (%.2f s, %.0f rows/sec)",
+                    created, rows, rejected, seconds, seconds == 0 ? 0 : rows / seconds);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private long pendingLsn = 0;
+
+    public CustomerOnboarding(ConnectionPool pool, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    // Command line entry: onboard <file> [--batch-size=N] [--rejects=file] [--accounts=file]
+    public static void run(ConnectionPool pool, String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java -jar simple-banking-system.jar onboard <file> [--batch-size=N] [--rejects=file] [--accounts=file]");
+            return;
+        }
+        Map<String, String> options = CliOptions.parse(args);
+        Path input = Path.of(args[1]);
+        Path rejects = Path.of(options.getOrDefault("rejects", args[1] + ".rejects"));
+        Path accounts = Path.of(options.getOrDefault("accounts", args[1] + ".accounts"));
+        int batchSize = Integer.parseInt(options.getOrDefault("batch-size", "500"));
+
+        try {
+            Summary summary = new CustomerOnboarding(pool, batchSize).onboard(input, accounts, rejects);
+            System.out.println(summary);
+            System.out.println("Account numbers written to " + accounts + ", rejects written to " + rejects);
+        } catch (IOException | SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public Summary onboard(Path input, Path accountsFile, Path rejectsFile) throws IOException, SQLException {
+        Summary summary = new Summary();
+        long start = System.nanoTime();
+        Set<String> seenPhones = new HashSet<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter accounts = Files.newBufferedWriter(accountsFile, StandardCharsets.UTF_8);
+             BufferedWriter rejects = Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8);
+             Connection conn = pool.borrow()) {
+            conn.setAutoCommit(false);
+
+            List<Customer> chunk = new ArrayList<>(batchSize);
+            String line;
+            long lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                summary.rows++;
+
+                String[] fields = line.split(",", -1);
+                if (fields.length != 4) {
+                    reject(rejects, summary, lineNo, line, "Expected name,phone,email,balance");
+                    continue;
+                }
+                String name = fields[0].trim();
+                String phone = fields[1].trim();
+                String email = fields[2].trim();
+                double balance;
+                try {
+                    balance = Double.parseDouble(fields[3].trim());
+                } catch (NumberFormatException e) {
+                    reject(rejects, summary, lineNo, line, INVALID_BALANCE);
+                    continue;
+                }
+
+                String failure = validate(name, phone, email, balance);
+                if (failure == null && !seenPhones.add(phone)) {
+                    failure = "Phone Number Already Exists! (earlier in this file)";
+                }
+                if (failure != null) {
+                    reject(rejects, summary, lineNo, line, failure);
+                    continue;
+                }
+
+                chunk.add(new Customer(lineNo, line, name, phone, email, balance));
+                if (chunk.size() == batchSize) {
+                    insertChunk(conn, chunk, accounts, rejects, summary);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                insertChunk(conn, chunk, accounts, rejects, summary);
+            }
+        }
+
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    // Returns the reason a row is invalid, or null. Uses the boolean validators so rejects don't build exceptions.
+    private static String validate(String name, String phone, String email, double balance) {
+        if (name.isEmpty() || name.length() > 100) {
+            return "Invalid Customer Name";
+        }
+        if (!SimpleBankingSystem.isValidPhone(phone)) {
+            return INVALID_PHONE;
+        }
+        if (!SimpleBankingSystem.isValidEmail(email) || email.length() > 100) {
+            return INVALID_EMAIL;
+        }
+        if (!(balance > 0)) {
+            return INVALID_BALANCE;
+        }
+        return null;
+    }
+
+    // Inserts a chunk as one batch and commits it. If the batch fails (typically a phone that already exists
+    // in the database) the chunk is rolled back and inserted row by row so only the offending rows are rejected.
+    private void insertChunk(Connection conn, List<Customer> chunk, BufferedWriter accounts, BufferedWriter rejects,
+                             Summary summary) throws SQLException, IOException {
+        SimpleBankingSystem.requireJournal();
+        long start = System.nanoTime();
+        int[] accNos = new int[chunk.size()];
+        try (PreparedStatement insert_preparedStatement = conn.prepareStatement(SimpleBankingSystem.INSERT_CUSTOMER_QUERY,
+                Statement.RETURN_GENERATED_KEYS)) {
+            for (Customer customer : chunk) {
+                insert_preparedStatement.setString(1, customer.name);
+                insert_preparedStatement.setString(2, customer.phone);
+                insert_preparedStatement.setString(3, customer.email);
+                insert_preparedStatement.setDouble(4, customer.balance);
+                insert_preparedStatement.addBatch();
+            }
+            insert_preparedStatement.executeBatch();
+
+            int i = 0;
+            try (ResultSet keys = insert_preparedStatement.getGeneratedKeys()) {
+                while (keys.next() && i < accNos.length) {
+                    accNos[i++] = keys.getInt(1);
+                }
+            }
+            if (i != accNos.length) {
+                throw new SQLException("Driver returned " + i + " generated keys for " + accNos.length + " inserted rows.");
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            SimpleBankingSystem.metrics.sqlError();
+            conn.rollback();
+            insertRowByRow(conn, chunk, accounts, rejects, summary);
+            SimpleBankingSystem.metrics.record(BankMetrics.Operation.ONBOARD_CHUNK, start);
+            return;
+        }
+
+        for (int i = 0; i < accNos.length; i++) {
+            accepted(accounts, summary, accNos[i], chunk.get(i));
+        }
+        awaitJournal();
+        SimpleBankingSystem.metrics.record(BankMetrics.Operation.ONBOARD_CHUNK, start);
+    }
+
+    // One group commit of the journal per chunk instead of one per customer
+    private void awaitJournal() throws IOException {
+        if (SimpleBankingSystem.journal != null && pendingLsn != 0) {
+            try {
+                SimpleBankingSystem.journal.awaitDurable(pendingLsn);
+            } catch (IOException e) {
+                throw journalFailed(e);
+            }
+        }
+    }
+
+    // Stops the onboarding: the accounts are committed but can't be replayed. An IOException, so the row-by-row
+    // insert doesn't take it for a rejected row.
+    private static IOException journalFailed(IOException e) {
+        return new IOException(SimpleBankingSystem.journalFailed(e).getMessage(), e);
+    }
+
+    private void insertRowByRow(Connection conn, List<Customer> chunk, BufferedWriter accounts, BufferedWriter rejects,
+                                Summary summary) throws SQLException, IOException {
+        for (Customer customer : chunk) {
+            try {
+                int acc_no = SimpleBankingSystem.openAccount(conn, customer.name, customer.phone, customer.email, customer.balance);
+                conn.commit();
+                if (acc_no != 0) {
+                    accepted(accounts, summary, acc_no, customer);
+                } else {
+                    reject(rejects, summary, customer.lineNo, customer.line, "Account not created.");
+                }
+            } catch (SQLIntegrityConstraintViolationException e) {
+                conn.rollback();
+                reject(rejects, summary, customer.lineNo, customer.line, "Phone Number Already Exists!");
+            } catch (SQLException e) {
+                conn.rollback();
+                reject(rejects, summary, customer.lineNo, customer.line, e.getMessage());
+            }
+        }
+        awaitJournal();
+    }
+
+    private void accepted(BufferedWriter accounts, Summary summary, int acc_no, Customer customer) throws IOException {
+        summary.created++;
+        if (SimpleBankingSystem.journal != null) {
+            try {
+                pendingLsn = SimpleBankingSystem.journal.append(TransactionJournal.CREATE, acc_no, 0, BalanceCache.toCents(customer.balance));
+            } catch (IOException e) {
+                throw journalFailed(e);
+            }
+        }
+        accounts.write(acc_no + "," + customer.phone);
+        accounts.newLine();
+    }
+
+    private static void reject(BufferedWriter rejects, Summary summary, long lineNo, String line, String reason) throws IOException {
+        summary.rejected++;
+        rejects.write(lineNo + "," + reason.replace(',', ';') + "," + line);
+        rejects.newLine();
+    }
+}
@@ -0,0 +1,295 @@
+package banking;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// ============ DEPOSIT COALESCING FOR HOT ACCOUNTS ===========
+// Credits to the same account all queue on that account's row lock when each one runs its own UPDATE.
+// The coalescer collects deposits for up to maxDelayMillis (or until maxBatch are waiting), adds up the credits
+// per account and applies each account's net amount with a single UPDATE, all in one transaction. After the
+// commit and the journal's group commit, every caller's future completes with the balance right after its own
+// credit, so a caller is only acknowledged once its deposit is durable, exactly as with a direct deposit.
+// Each caller still gets its own row in the transaction history, written in the flush's transaction.
+// Accounts are updated in ascending acc_no order so a flush can't deadlock against the TransferEngine.
+
+public class DepositCoalescer implements AutoCloseable {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int IN_LIST_SIZE = 500;
+
+    private static final class Pending {
+        final int accNo;
+        final double funds;
+        final CompletableFuture<Double> result = new CompletableFuture<>();
+        // Balance right after this deposit, NaN when the account does not exist
+        double balanceAfter;
+
+        Pending(int accNo, double funds) {
+            this.accNo = accNo;
+            this.funds = funds;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final LongAdder deposits = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder rowUpdates = new LongAdder();
+
+    public DepositCoalescer(ConnectionPool pool, int maxBatch, long maxDelayMillis) {
+        if (maxBatch <= 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("maxBatch must be positive and maxDelayMillis not negative");
+        }
+        this.pool = pool;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.flusher = new Thread(this::flushLoop, "deposit-coalescer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Queues a deposit. The future completes with the balance after this deposit, or exceptionally with
+    // InvalidAccountNumberException / SQLException.
+    public CompletableFuture<Double> deposit(int acct_num, double funds) {
+        Pending pending = new Pending(acct_num, funds);
+        try {
+            SimpleBankingSystem.checkDepositFundAmt(funds);
+        } catch (SimpleBankingSystem.InvalidDepositFundsException e) {
+            pending.result.completeExceptionally(e);
+            return pending.result;
+        }
+        if (!running) {
+            pending.result.completeExceptionally(new SQLException("Deposit coalescer is closed."));
+            return pending.result;
+        }
+        deposits.increment();
+        queue.add(pending);
+        return pending.result;
+    }
+
+    public long getDeposits() {
+        return deposits.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    // Row updates actually sent; deposits / row updates is the coalescing factor
+    public long getRowUpdates() {
+        return rowUpdates.sum();
+    }
+
+    @Override
+    public String toString() {
+        long updates = rowUpdates.sum();
+        return String.format("DepositCoalescer[deposits=%d, flushes=%d, rowUpdates=%d, coalescing=%.1fx]",
+                deposits.sum(), flushes.sum(), updates, updates == 0 ? 0 : (double) deposits.sum() / updates);
+    }
+
+    private void flushLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close() wants the queue drained without waiting for the window
+                queue.drainTo(batch, maxBatch - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        // Net credit per account, in lock order
+        TreeMap<Integer, Double> net = new TreeMap<>();
+        for (Pending pending : batch) {
+            net.merge(pending.accNo, pending.funds, Double::sum);
+        }
+
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = pool.borrow()) {
+                conn.setAutoCommit(false);
+                try {
+                    Set<Integer> missing = applyNet(conn, net);
+                    // Taken while the rows are locked, so cache updates follow the commit order
+                    long version = SimpleBankingSystem.balanceCache.nextVersion();
+                    Map<Integer, Double> balances = readBalances(conn, net.keySet());
+                    // A closed account still has its row until it is purged
+                    balances.keySet().removeAll(missing);
+                    assignBalances(batch, missing, balances);
+                    recordHistory(conn, batch);
+                    conn.commit();
+                    flushes.increment();
+                    rowUpdates.add(net.size());
+                    SimpleBankingSystem.metrics.record(BankMetrics.Operation.DEPOSIT_FLUSH, start);
+                    complete(batch, balances, version);
+                    return;
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                if (!TransferEngine.isRetryable(e) || attempt >= MAX_ATTEMPTS) {
+                    SimpleBankingSystem.metrics.sqlError();
+                    for (Integer acc_no : net.keySet()) {
+                        SimpleBankingSystem.balanceCache.invalidate(acc_no);
+                    }
+                    for (Pending pending : batch) {
+                        pending.result.completeExceptionally(e);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    // One UPDATE per account for its net credit; returns the accounts that don't exist
+    private static Set<Integer> applyNet(Connection conn, TreeMap<Integer, Double> net) throws SQLException {
+        Set<Integer> missing = new HashSet<>();
+        List<Integer> accounts = new ArrayList<>(net.keySet());
+        try (PreparedStatement deposit_preparedStatement = conn.prepareStatement(SimpleBankingSystem.DEPOSIT_QUERY)) {
+            for (Integer acc_no : accounts) {
+                deposit_preparedStatement.setDouble(1, net.get(acc_no));
+                deposit_preparedStatement.setInt(2, acc_no);
+                deposit_preparedStatement.addBatch();
+            }
+            int[] counts = deposit_preparedStatement.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    missing.add(accounts.get(i));
+                }
+            }
+        }
+        return missing;
+    }
+
+    private static Map<Integer, Double> readBalances(Connection conn, Set<Integer> accounts) throws SQLException {
+        Map<Integer, Double> balances = new HashMap<>();
+        List<Integer> list = new ArrayList<>(accounts);
+        for (int from = 0; from < list.size(); from += IN_LIST_SIZE) {
+            List<Integer> part = list.subList(from, Math.min(list.size(), from + IN_LIST_SIZE));
+            String balances_query = "SELECT acc_no, balance FROM customers WHERE acc_no IN ("
+                    + String.join(",", Collections.nCopies(part.size(), "?")) + ")";
+            try (PreparedStatement balances_preparedStatement = conn.prepareStatement(balances_query)) {
+                for (int i = 0; i < part.size(); i++) {
+                    balances_preparedStatement.setInt(i + 1, part.get(i));
+                }
+                try (ResultSet resultSet = balances_preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        balances.put(resultSet.getInt("acc_no"), resultSet.getDouble("balance"));
+                    }
+                }
+            }
+        }
+        return balances;
+    }
+
+    // Walking the batch backwards from each account's final balance gives every caller the balance right
+    // after its own credit. Done in cents so the walk doesn't accumulate floating point error.
+    private static void assignBalances(List<Pending> batch, Set<Integer> missing, Map<Integer, Double> balances) {
+        Map<Integer, Long> running = new HashMap<>();
+        for (Map.Entry<Integer, Double> entry : balances.entrySet()) {
+            running.put(entry.getKey(), BalanceCache.toCents(entry.getValue()));
+        }
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            Pending pending = batch.get(i);
+            Long cents = running.get(pending.accNo);
+            if (missing.contains(pending.accNo) || cents == null) {
+                pending.balanceAfter = Double.NaN;
+                continue;
+            }
+            pending.balanceAfter = BalanceCache.fromCents(cents);
+            running.put(pending.accNo, cents - BalanceCache.toCents(pending.funds));
+        }
+    }
+
+    private static void recordHistory(Connection conn, List<Pending> batch) throws SQLException {
+        try (PreparedStatement history_preparedStatement = conn.prepareStatement(TransactionHistory.INSERT_TRANSACTION_QUERY)) {
+            int batched = 0;
+            for (Pending pending : batch) {
+                if (!Double.isNaN(pending.balanceAfter)) {
+                    TransactionHistory.bind(history_preparedStatement, pending.accNo, TransactionHistory.DEPOSIT, pending.funds,
+                            pending.balanceAfter, 0);
+                    history_preparedStatement.addBatch();
+                    batched++;
+                }
+            }
+            if (batched > 0) {
+                history_preparedStatement.executeBatch();
+            }
+        }
+    }
+
+    // Journals the committed deposits with one group commit, refreshes the cache and completes the callers.
+    // If the journal fails the callers get the failure instead of their balance.
+    private static void complete(List<Pending> batch, Map<Integer, Double> balances, long version) {
+        SQLException journalFailure = null;
+        TransactionJournal journal = SimpleBankingSystem.journal;
+        if (journal != null) {
+            try {
+                long lastLsn = 0;
+                for (Pending pending : batch) {
+                    if (!Double.isNaN(pending.balanceAfter)) {
+                        lastLsn = journal.append(TransactionJournal.DEPOSIT, pending.accNo, 0, BalanceCache.toCents(pending.funds));
+                    }
+                }
+                journal.awaitDurable(lastLsn);
+            } catch (IOException e) {
+                journalFailure = SimpleBankingSystem.journalFailed(e);
+            }
+        }
+
+        for (Map.Entry<Integer, Double> entry : balances.entrySet()) {
+            SimpleBankingSystem.balanceCache.put(entry.getKey(), BalanceCache.toCents(entry.getValue()), version);
+        }
+        for (Pending pending : batch) {
+            if (Double.isNaN(pending.balanceAfter)) {
+                pending.result.completeExceptionally(new SimpleBankingSystem.InvalidAccountNumberException());
+            } else {
+                SimpleBankingSystem.reconcileRecord(pending.accNo, pending.balanceAfter, pending.funds);
+                if (journalFailure != null) {
+                    pending.result.completeExceptionally(journalFailure);
+                } else {
+                    pending.result.complete(pending.balanceAfter);
+                }
+            }
+        }
+    }
+
+    // Flushes whatever is queued and stops the flusher
+    @Override
+    public void close() {
+        running = false;
+        try {
+            flusher.join(30_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
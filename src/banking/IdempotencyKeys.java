@@ -0,0 +1,190 @@
+package banking;
+
+import java.sql.*;
+import java.util.*;
+
+// ============ IDEMPOTENCY KEYS FOR MONEY MOVEMENTS ===========
+// A client that times out and retries a deposit, withdrawal or transfer can send the same idempotency key again
+// and get the original result instead of moving the money twice. The key and the result are inserted into the
+// idempotency_keys table (primary key on idem_key) in the same transaction as the balance change, so a key is
+// stored exactly when its operation commits.
+//
+// Recently completed keys are also held in memory (bounded, evicted in insertion order and after ttlMillis), so a
+// retry normally gets its answer from one hash lookup without a database round trip. A key that is not in memory
+// (evicted, expired, or executed by another process) is caught by the primary key instead: the retry's INSERT
+// fails, its transaction is rolled back and the stored result is read back. A retry that races the original
+// blocks on the key's index entry until the original commits, then takes the same path.
+
+public class IdempotencyKeys {
+
+    public static final int MAX_KEY_LENGTH = 64;
+
+    static final String INSERT_KEY_QUERY = "INSERT INTO idempotency_keys(idem_key, operation, acc_no, counterparty, amount, "
+            + "balance_after, counter_balance_after) VALUES(?,?,?,?,?,?,?)";
+    private static final String SELECT_KEY_QUERY = "SELECT operation, acc_no, counterparty, amount, balance_after, "
+            + "counter_balance_after FROM idempotency_keys WHERE idem_key = ?";
+
+    // What a completed operation returned. For a transfer balances is {debit, credit}, otherwise {balance}.
+    public static final class Result {
+        final String operation;
+        final int accNo;
+        final int counterparty;
+        final double amount;
+        final double[] balances;
+        final long storedAt;
+
+        Result(String operation, int accNo, int counterparty, double amount, double[] balances) {
+            this.operation = operation;
+            this.accNo = accNo;
+            this.counterparty = counterparty;
+            this.amount = amount;
+            this.balances = balances;
+            this.storedAt = System.currentTimeMillis();
+        }
+
+        public double[] getBalances() {
+            return balances.clone();
+        }
+
+        // A key may only be replayed for the request it was first used with
+        boolean matches(String operation, int accNo, int counterparty, double amount) {
+            return this.operation.equals(operation) && this.accNo == accNo && this.counterparty == counterparty
+                    && BalanceCache.toCents(this.amount) == BalanceCache.toCents(amount);
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Result> recent;
+
+    // Metrics
+    private long memoryReplays, databaseReplays, expirations;
+
+    public IdempotencyKeys(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("maxEntries and ttlMillis must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        // Insertion order is also expiry order, so the eldest entry is always the next one to expire
+        this.recent = new LinkedHashMap<String, Result>(Math.min(maxEntries, 1 << 16) * 4 / 3 + 1) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > IdempotencyKeys.this.maxEntries;
+            }
+        };
+    }
+
+    // Rejects keys that can't be stored. A null key means the request is not idempotent.
+    public static String checkKey(String key) {
+        if (key != null && (key.isEmpty() || key.length() > MAX_KEY_LENGTH)) {
+            throw new IllegalArgumentException("Idempotency key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        return key;
+    }
+
+    // The hot path: the earlier result for this key if it completed recently, or null to go ahead and execute
+    public synchronized Result replay(String key, String operation, int accNo, int counterparty, double amount) {
+        expire();
+        Result result = recent.get(key);
+        if (result == null) {
+            return null;
+        }
+        checkSameRequest(result, operation, accNo, counterparty, amount);
+        memoryReplays++;
+        return result;
+    }
+
+    // Stores the key and result in the caller's transaction. Throws SQLIntegrityConstraintViolationException
+    // when the key has already been used; the caller then rolls back and calls stored().
+    public static Result store(Connection conn, String key, String operation, int accNo, int counterparty, double amount,
+                               double... balances) throws SQLException {
+        try (PreparedStatement key_preparedStatement = conn.prepareStatement(INSERT_KEY_QUERY)) {
+            key_preparedStatement.setString(1, key);
+            key_preparedStatement.setString(2, operation);
+            key_preparedStatement.setInt(3, accNo);
+            if (counterparty == 0) {
+                key_preparedStatement.setNull(4, Types.INTEGER);
+            } else {
+                key_preparedStatement.setInt(4, counterparty);
+            }
+            key_preparedStatement.setDouble(5, amount);
+            key_preparedStatement.setDouble(6, balances[0]);
+            if (balances.length > 1) {
+                key_preparedStatement.setDouble(7, balances[1]);
+            } else {
+                key_preparedStatement.setNull(7, Types.DOUBLE);
+            }
+            key_preparedStatement.executeUpdate();
+        }
+        return new Result(operation, accNo, counterparty, amount, balances);
+    }
+
+    // The unique-index fallback: reads the result stored by the request that used the key first
+    public Result stored(Connection conn, String key, String operation, int accNo, int counterparty, double amount)
+            throws SQLException {
+        try (PreparedStatement key_preparedStatement = conn.prepareStatement(SELECT_KEY_QUERY)) {
+            key_preparedStatement.setString(1, key);
+            try (ResultSet resultSet = key_preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Idempotency key " + key + " is in use but has no stored result.");
+                }
+                String storedOperation = resultSet.getString("operation");
+                double balance = resultSet.getDouble("balance_after");
+                double counterBalance = resultSet.getDouble("counter_balance_after");
+                boolean transfer = !resultSet.wasNull();
+                Result result = new Result(storedOperation, resultSet.getInt("acc_no"), resultSet.getInt("counterparty"),
+                        resultSet.getDouble("amount"), transfer ? new double[]{balance, counterBalance} : new double[]{balance});
+                checkSameRequest(result, operation, accNo, counterparty, amount);
+                synchronized (this) {
+                    databaseReplays++;
+                    recent.put(key, result);
+                }
+                return result;
+            }
+        }
+    }
+
+    // Called after the operation's transaction has committed
+    public synchronized void remember(String key, Result result) {
+        expire();
+        recent.put(key, result);
+    }
+
+    private static void checkSameRequest(Result result, String operation, int accNo, int counterparty, double amount) {
+        if (!result.matches(operation, accNo, counterparty, amount)) {
+            throw new IllegalArgumentException("Idempotency key was already used for a different request");
+        }
+    }
+
+    // Drops expired entries from the old end; amortised O(1) per call
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        Iterator<Result> it = recent.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().storedAt > cutoff) {
+                return;
+            }
+            it.remove();
+            expirations++;
+        }
+    }
+
+    public synchronized int size() {
+        return recent.size();
+    }
+
+    public synchronized long getMemoryReplays() {
+        return memoryReplays;
+    }
+
+    public synchronized long getDatabaseReplays() {
+        return databaseReplays;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("IdempotencyKeys[size=%d/%d, ttl=%ds, memoryReplays=%d, databaseReplays=%d, expirations=%d]",
+                recent.size(), maxEntries, ttlMillis / 1000, memoryReplays, databaseReplays, expirations);
+    }
+}
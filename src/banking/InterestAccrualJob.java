@@ -0,0 +1,71 @@
+package banking;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.Map;
+
+// ============ DAILY INTEREST ACCRUAL ===========
+// Credits one day of interest to every account with a positive balance: balance * annual rate / 365,
+// rounded to the paisa. Per acc_no range: lock the rows, write the INTEREST history rows with one INSERT ... SELECT,
+// then credit them with one UPDATE. Locking first means both statements see the same balances, and the locking read
+// computes the same rounded interest, which is handed to the runner for the journal.
+
+public class InterestAccrualJob implements BatchJob {
+
+    private static final String ACCRUE_INTEREST_QUERY = "UPDATE customers SET balance = balance + ROUND(balance * ?, 2) "
+            + "WHERE acc_no BETWEEN ? AND ? AND balance > 0 AND closed_at IS NULL";
+
+    private static final String LOCK_RANGE_QUERY = "SELECT acc_no, ROUND(balance * ?, 2) AS interest FROM customers "
+            + "WHERE acc_no BETWEEN ? AND ? AND balance > 0 AND closed_at IS NULL FOR UPDATE";
+    private static final String INTEREST_HISTORY_QUERY = "INSERT INTO transactions(acc_no, type, amount, balance_after) "
+            + "SELECT acc_no, '" + TransactionHistory.INTEREST + "', ROUND(balance * ?, 2), balance + ROUND(balance * ?, 2) "
+            + "FROM customers WHERE acc_no BETWEEN ? AND ? AND balance > 0 AND closed_at IS NULL";
+
+    private final double dailyRate;
+
+    // annualRatePercent = 3.5 for 3.5% a year
+    public InterestAccrualJob(double annualRatePercent) {
+        if (annualRatePercent <= 0) {
+            throw new IllegalArgumentException("Interest rate must be positive");
+        }
+        this.dailyRate = annualRatePercent / 100 / 365;
+    }
+
+    @Override
+    public String getName() {
+        return "interest";
+    }
+
+    @Override
+    public int processRange(Connection conn, LocalDate businessDate, int first_acc_no, int last_acc_no, Map<Integer, Long> credits)
+            throws SQLException {
+        try (PreparedStatement lock_preparedStatement = conn.prepareStatement(LOCK_RANGE_QUERY)) {
+            lock_preparedStatement.setDouble(1, dailyRate);
+            lock_preparedStatement.setInt(2, first_acc_no);
+            lock_preparedStatement.setInt(3, last_acc_no);
+            lock_preparedStatement.setFetchSize(1_000);
+            try (ResultSet resultSet = lock_preparedStatement.executeQuery()) {
+                // Rows are locked as they are read
+                while (resultSet.next()) {
+                    long cents = BalanceCache.toCents(resultSet.getDouble("interest"));
+                    if (cents > 0) {
+                        credits.put(resultSet.getInt("acc_no"), cents);
+                    }
+                }
+            }
+        }
+        try (PreparedStatement history_preparedStatement = conn.prepareStatement(INTEREST_HISTORY_QUERY)) {
+            history_preparedStatement.setDouble(1, dailyRate);
+            history_preparedStatement.setDouble(2, dailyRate);
+            history_preparedStatement.setInt(3, first_acc_no);
+            history_preparedStatement.setInt(4, last_acc_no);
+            history_preparedStatement.executeUpdate();
+        }
+        try (PreparedStatement interest_preparedStatement = conn.prepareStatement(ACCRUE_INTEREST_QUERY)) {
+            interest_preparedStatement.setDouble(1, dailyRate);
+            interest_preparedStatement.setInt(2, first_acc_no);
+            interest_preparedStatement.setInt(3, last_acc_no);
+            return interest_preparedStatement.executeUpdate();
+        }
+    }
+}
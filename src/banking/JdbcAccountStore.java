@@ -0,0 +1,62 @@
+package banking;
+
+import java.sql.*;
+
+// ============ ACCOUNT STORE ON THE DATABASE ===========
+// The AccountStore operations as the teller runs them: through BankService, so they keep the balance cache, the
+// journal, the transaction history and the velocity limits. The pool (and the database) belong to the caller.
+
+public class JdbcAccountStore implements AccountStore {
+
+    private final BankService service;
+
+    public JdbcAccountStore(BankService service) {
+        this.service = service;
+    }
+
+    @Override
+    public int createAccount(String cust_name, String phone_no, String email_id, double balance)
+            throws SQLException, SimpleBankingSystem.InvalidPhoneNumberException, SimpleBankingSystem.InvalidEmailException,
+            SimpleBankingSystem.InvalidInitialBalanceException {
+        return service.createAccount(cust_name, phone_no, email_id, balance);
+    }
+
+    @Override
+    public double getBalance(int acct_num) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        return service.getBalance(acct_num);
+    }
+
+    @Override
+    public double credit(int acct_num, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InvalidDepositFundsException {
+        return service.deposit(acct_num, funds);
+    }
+
+    @Override
+    public double debit(int acct_num, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException, SimpleBankingSystem.VelocityLimitExceededException {
+        return service.withdraw(acct_num, funds);
+    }
+
+    @Override
+    public double[] transfer(int debit_acc_no, int credit_acc_no, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException, SimpleBankingSystem.VelocityLimitExceededException {
+        return service.transfer(debit_acc_no, credit_acc_no, funds);
+    }
+
+    @Override
+    public void deleteAccount(int acct_num) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        service.deleteAccount(acct_num);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "JdbcAccountStore[pool=" + service.getPool() + "]";
+    }
+}
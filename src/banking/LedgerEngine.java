@@ -0,0 +1,758 @@
+package banking;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ============ IN-MEMORY SHARDED LEDGER ENGINE ===========
+// Optional mode in which balances live in process memory and the customers table is updated behind them.
+// Accounts are spread over shards by a hash of acc_no. Each shard is a primitive open-addressing table
+// (acc_no -> balance in cents) guarded by its own lock, so operations on different shards never contend and
+// a deposit or withdrawal costs one lock and a few array accesses instead of a database round trip. A transfer
+// takes both accounts' shard locks in ascending shard order (one lock when they share a shard), so two transfers
+// in opposite directions can't deadlock.
+//
+// Write-behind: every change adds to the account's pending delta and queues a history row. A flusher thread
+// periodically takes the pending deltas and rows and applies them in one transaction: UPDATE balance =
+// balance + delta per account, in acc_no order, plus one batched history insert. Because deltas are flushed
+// rather than absolute balances, a change made directly in the database (an end-of-day job, a bulk ingest) is
+// not overwritten, but the engine doesn't see it either until it is restarted. A failed flush puts the deltas
+// and rows back for the next one. When a delta would take the balance in the table below zero (the engine let a
+// withdrawal through against money another process had already debited), the whole flush is rolled back and written
+// again without the account's newest debits, as many as it takes for the rest to fit. A dropped transfer is dropped
+// with both legs. Dropped operations are reported, and the accounts they touched are reloaded from the table.
+//
+// Operations only take their own shards' locks. The flusher collects the pending work holding every shard lock,
+// taken in ascending shard order like a transfer's, so each flush is a consistent cut that never carries one leg
+// of a transfer without the other, and there is no lock or counter that every operation has to touch.
+// When unflushed rows pile up past maxBacklog, callers are held back until the next flush completes, so a database
+// that can't keep up slows the callers down instead of exhausting memory.
+//
+// The engine is not the durable copy between flushes: callers journal every operation before acknowledging it
+// (as the BankService does), and replaying the journal restores what a crash lost from the table.
+//
+// start() loads every balance with one streaming scan of customers. Accounts created by another process
+// afterwards are loaded on first use.
+
+public class LedgerEngine implements AutoCloseable {
+
+    private static final String LOAD_QUERY = "SELECT acc_no, balance FROM customers WHERE closed_at IS NULL";
+    private static final String BALANCE_QUERY = "SELECT balance FROM customers WHERE acc_no = ? AND closed_at IS NULL";
+    // Unlike DEPOSIT_QUERY this also applies to closed accounts: the deltas were acknowledged before the close.
+    // No row is updated when the delta would overdraw the account.
+    private static final String FLUSH_QUERY = "UPDATE customers SET balance = balance + ? WHERE acc_no = ? AND balance + ? >= 0";
+    private static final String ROW_BALANCE_QUERY = "SELECT balance FROM customers WHERE acc_no = ?";
+    private static final int LOAD_FETCH_SIZE = 10_000;
+    private static final int INITIAL_SHARD_CAPACITY = 1 << 10;
+
+    // One history row waiting to be flushed
+    private static final class PendingEntry {
+        final int accNo;
+        final String type;
+        final long amountCents;
+        final long balanceAfterCents;
+        final int counterparty;
+        // The other leg of a transfer, which is flushed or dropped together with this one
+        PendingEntry otherLeg;
+
+        PendingEntry(int accNo, String type, long amountCents, long balanceAfterCents, int counterparty) {
+            this.accNo = accNo;
+            this.type = type;
+            this.amountCents = amountCents;
+            this.balanceAfterCents = balanceAfterCents;
+            this.counterparty = counterparty;
+        }
+    }
+
+    // Linear-probing table with backward-shift deletion, as in BalanceCache, plus a per-account pending delta
+    private static final class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        int mask = INITIAL_SHARD_CAPACITY - 1;
+        int[] keys = new int[INITIAL_SHARD_CAPACITY];
+        long[] cents = new long[INITIAL_SHARD_CAPACITY];
+        long[] pending = new long[INITIAL_SHARD_CAPACITY];
+        boolean[] used = new boolean[INITIAL_SHARD_CAPACITY];
+        boolean[] dirty = new boolean[INITIAL_SHARD_CAPACITY];
+        int size = 0;
+        // Accounts with a pending delta, each listed once
+        int[] dirtyAccounts = new int[64];
+        int dirtyCount = 0;
+        List<PendingEntry> history = new ArrayList<>();
+        // Unflushed deltas of accounts removed since the last flush
+        Map<Integer, Long> removedDeltas = new HashMap<>();
+
+        int find(int acc_no) {
+            int i = slot(acc_no, mask);
+            while (used[i]) {
+                if (keys[i] == acc_no) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        // Returns the slot, inserting the account with the given balance when it is absent
+        int insert(int acc_no, long balanceCents) {
+            int i = find(acc_no);
+            if (i >= 0) {
+                return i;
+            }
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            i = slot(acc_no, mask);
+            while (used[i]) {
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = acc_no;
+            cents[i] = balanceCents;
+            pending[i] = 0;
+            dirty[i] = false;
+            size++;
+            return i;
+        }
+
+        void add(int i, long deltaCents) {
+            cents[i] += deltaCents;
+            pending[i] += deltaCents;
+            if (!dirty[i]) {
+                dirty[i] = true;
+                if (dirtyCount == dirtyAccounts.length) {
+                    dirtyAccounts = Arrays.copyOf(dirtyAccounts, dirtyCount * 2);
+                }
+                dirtyAccounts[dirtyCount++] = keys[i];
+            }
+        }
+
+        void remove(int acc_no) {
+            int i = find(acc_no);
+            if (i < 0) {
+                return;
+            }
+            used[i] = false;
+            dirty[i] = false;
+            size--;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (!used[j]) {
+                    return;
+                }
+                int k = slot(keys[j], mask);
+                boolean inPlace = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+                if (!inPlace) {
+                    keys[i] = keys[j];
+                    cents[i] = cents[j];
+                    pending[i] = pending[j];
+                    dirty[i] = dirty[j];
+                    used[i] = true;
+                    used[j] = false;
+                    dirty[j] = false;
+                    i = j;
+                }
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            long[] oldCents = cents;
+            long[] oldPending = pending;
+            boolean[] oldUsed = used;
+            boolean[] oldDirty = dirty;
+            int capacity = oldKeys.length * 2;
+            mask = capacity - 1;
+            keys = new int[capacity];
+            cents = new long[capacity];
+            pending = new long[capacity];
+            used = new boolean[capacity];
+            dirty = new boolean[capacity];
+            for (int o = 0; o < oldKeys.length; o++) {
+                if (oldUsed[o]) {
+                    int i = slot(oldKeys[o], mask);
+                    while (used[i]) {
+                        i = (i + 1) & mask;
+                    }
+                    used[i] = true;
+                    keys[i] = oldKeys[o];
+                    cents[i] = oldCents[o];
+                    pending[i] = oldPending[o];
+                    dirty[i] = oldDirty[o];
+                }
+            }
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final Shard[] shards;
+    private final int shardMask;
+    private final long flushIntervalMillis;
+    private final int maxShardBacklog;
+    private final Thread flusher;
+    private volatile boolean running = false;
+
+    // Flusher wake-ups and completed flush count, guarded by flushSignal
+    private final Object flushSignal = new Object();
+    private boolean flushWanted = false;
+    private long flushGeneration = 0;
+
+    // Metrics, updated by the flusher only
+    private volatile long flushes, flushedAccounts, flushedEntries, failedFlushes, droppedOperations;
+
+    public LedgerEngine(ConnectionPool pool, int shardCount, long flushIntervalMillis, int maxBacklog) {
+        if (shardCount <= 0 || flushIntervalMillis <= 0 || maxBacklog <= 0) {
+            throw new IllegalArgumentException("shardCount, flushIntervalMillis and maxBacklog must be positive");
+        }
+        int count = Integer.highestOneBit(shardCount * 2 - 1);
+        this.pool = pool;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+        this.shardMask = count - 1;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxShardBacklog = Math.max(1, maxBacklog / count);
+        this.flusher = new Thread(this::flushLoop, "ledger-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    // Loads all balances and starts the write-behind flusher
+    public void start() throws SQLException {
+        long loaded = 0;
+        try (Connection conn = pool.borrow();
+             PreparedStatement load_preparedStatement = conn.prepareStatement(LOAD_QUERY)) {
+            load_preparedStatement.setFetchSize(LOAD_FETCH_SIZE);
+            try (ResultSet resultSet = load_preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    int acc_no = resultSet.getInt("acc_no");
+                    Shard shard = shardOf(acc_no);
+                    lock(shard);
+                    try {
+                        shard.insert(acc_no, BalanceCache.toCents(resultSet.getDouble("balance")));
+                    } finally {
+                        unlock(shard);
+                    }
+                    loaded++;
+                }
+            }
+        }
+        System.out.println("Ledger engine loaded " + loaded + " accounts into " + shards.length + " shards.");
+        running = true;
+        flusher.start();
+    }
+
+    // Adds an account the caller has just inserted into customers
+    public void open(int acc_no, double balance) {
+        Shard shard = shardOf(acc_no);
+        lock(shard);
+        try {
+            shard.insert(acc_no, BalanceCache.toCents(balance));
+        } finally {
+            unlock(shard);
+        }
+    }
+
+    // Forgets an account the caller has closed; its unflushed delta is still written by the next flush
+    public void remove(int acc_no) {
+        Shard shard = shardOf(acc_no);
+        lock(shard);
+        try {
+            int i = shard.find(acc_no);
+            if (i >= 0 && shard.dirty[i] && shard.pending[i] != 0) {
+                shard.removedDeltas.merge(acc_no, shard.pending[i], Long::sum);
+            }
+            shard.remove(acc_no);
+        } finally {
+            unlock(shard);
+        }
+    }
+
+    public double balance(int acc_no) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        Shard shard = shardOf(acc_no);
+        ensureLoaded(shard, acc_no);
+        lock(shard);
+        try {
+            int i = shard.find(acc_no);
+            if (i < 0) {
+                throw new SimpleBankingSystem.InvalidAccountNumberException();
+            }
+            return BalanceCache.fromCents(shard.cents[i]);
+        } finally {
+            unlock(shard);
+        }
+    }
+
+    // Returns the updated balance
+    public double deposit(int acc_no, double funds) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        long amount = BalanceCache.toCents(funds);
+        Shard shard = shardOf(acc_no);
+        ensureLoaded(shard, acc_no);
+        long balanceAfter;
+        boolean backlogged;
+        lock(shard);
+        try {
+            int i = shard.find(acc_no);
+            if (i < 0) {
+                throw new SimpleBankingSystem.InvalidAccountNumberException();
+            }
+            shard.add(i, amount);
+            balanceAfter = shard.cents[i];
+            shard.history.add(new PendingEntry(acc_no, TransactionHistory.DEPOSIT, amount, balanceAfter, 0));
+            backlogged = shard.history.size() >= maxShardBacklog;
+        } finally {
+            unlock(shard);
+        }
+        if (backlogged) {
+            awaitFlush();
+        }
+        return BalanceCache.fromCents(balanceAfter);
+    }
+
+    // Returns the updated balance
+    public double withdraw(int acc_no, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException {
+        long amount = BalanceCache.toCents(funds);
+        Shard shard = shardOf(acc_no);
+        ensureLoaded(shard, acc_no);
+        long balanceAfter;
+        boolean backlogged;
+        lock(shard);
+        try {
+            int i = shard.find(acc_no);
+            if (i < 0) {
+                throw new SimpleBankingSystem.InvalidAccountNumberException();
+            }
+            if (shard.cents[i] < amount) {
+                throw new SimpleBankingSystem.InsufficientFundsException();
+            }
+            shard.add(i, -amount);
+            balanceAfter = shard.cents[i];
+            shard.history.add(new PendingEntry(acc_no, TransactionHistory.WITHDRAW, amount, balanceAfter, 0));
+            backlogged = shard.history.size() >= maxShardBacklog;
+        } finally {
+            unlock(shard);
+        }
+        if (backlogged) {
+            awaitFlush();
+        }
+        return BalanceCache.fromCents(balanceAfter);
+    }
+
+    // Returns {debit balance, credit balance}
+    public double[] transfer(int debit_acc_no, int credit_acc_no, double funds)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException {
+        if (debit_acc_no == credit_acc_no) {
+            throw new IllegalArgumentException("Cannot transfer to the same account");
+        }
+        long amount = BalanceCache.toCents(funds);
+        Shard debit = shardOf(debit_acc_no);
+        Shard credit = shardOf(credit_acc_no);
+        ensureLoaded(debit, debit_acc_no);
+        ensureLoaded(credit, credit_acc_no);
+
+        // Fixed order: lower shard index first
+        Shard first = shardIndex(debit_acc_no) <= shardIndex(credit_acc_no) ? debit : credit;
+        Shard second = first == debit ? credit : debit;
+        double[] updatedBalances;
+        boolean backlogged;
+        first.lock.lock();
+        if (second != first) {
+            second.lock.lock();
+        }
+        try {
+            int d = debit.find(debit_acc_no);
+            int c = credit.find(credit_acc_no);
+            if (d < 0 || c < 0) {
+                throw new SimpleBankingSystem.InvalidAccountNumberException();
+            }
+            if (debit.cents[d] < amount) {
+                throw new SimpleBankingSystem.InsufficientFundsException();
+            }
+            debit.add(d, -amount);
+            credit.add(c, amount);
+            // Each leg on its own account's shard, which keeps every account's rows in the order they happened
+            PendingEntry out = new PendingEntry(debit_acc_no, TransactionHistory.TRANSFER_OUT, amount, debit.cents[d], credit_acc_no);
+            PendingEntry in = new PendingEntry(credit_acc_no, TransactionHistory.TRANSFER_IN, amount, credit.cents[c], debit_acc_no);
+            out.otherLeg = in;
+            in.otherLeg = out;
+            debit.history.add(out);
+            credit.history.add(in);
+            updatedBalances = new double[]{BalanceCache.fromCents(debit.cents[d]), BalanceCache.fromCents(credit.cents[c])};
+            backlogged = debit.history.size() >= maxShardBacklog || credit.history.size() >= maxShardBacklog;
+        } finally {
+            if (second != first) {
+                second.lock.unlock();
+            }
+            first.lock.unlock();
+        }
+        if (backlogged) {
+            awaitFlush();
+        }
+        return updatedBalances;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            lock(shard);
+            try {
+                size += shard.size;
+            } finally {
+                unlock(shard);
+            }
+        }
+        return size;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes;
+    }
+
+    public long getDroppedOperations() {
+        return droppedOperations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LedgerEngine[accounts=%d, shards=%d, flushes=%d, flushedAccounts=%d, flushedEntries=%d, failedFlushes=%d, "
+                        + "droppedOperations=%d]",
+                size(), shards.length, flushes, flushedAccounts, flushedEntries, failedFlushes, droppedOperations);
+    }
+
+    // Stops the flusher after a final flush
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        synchronized (flushSignal) {
+            running = false;
+            flushSignal.notifyAll();
+        }
+        try {
+            flusher.join(60_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void lock(Shard shard) {
+        shard.lock.lock();
+    }
+
+    private static void unlock(Shard shard) {
+        shard.lock.unlock();
+    }
+
+    // Every shard, in the transfers' order, so no operation is half way through while the flusher holds them
+    private void lockAll() {
+        for (Shard shard : shards) {
+            shard.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = shards.length - 1; i >= 0; i--) {
+            shards[i].lock.unlock();
+        }
+    }
+
+    // An account not seen at start() (created by another process since) is read once from the database
+    private void ensureLoaded(Shard shard, int acc_no) throws SQLException {
+        lock(shard);
+        try {
+            if (shard.find(acc_no) >= 0) {
+                return;
+            }
+        } finally {
+            unlock(shard);
+        }
+        try (Connection conn = pool.borrow();
+             PreparedStatement balance_preparedStatement = conn.prepareStatement(BALANCE_QUERY)) {
+            balance_preparedStatement.setInt(1, acc_no);
+            try (ResultSet resultSet = balance_preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    open(acc_no, resultSet.getDouble("balance"));
+                }
+            }
+        }
+    }
+
+    // Holds a caller back until the flusher has completed a flush (asking it to start one now)
+    private void awaitFlush() {
+        synchronized (flushSignal) {
+            long target = flushGeneration + 1;
+            flushWanted = true;
+            flushSignal.notifyAll();
+            while (running && flushGeneration < target) {
+                try {
+                    flushSignal.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (flushSignal) {
+                if (running && !flushWanted) {
+                    try {
+                        flushSignal.wait(flushIntervalMillis);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                flushWanted = false;
+            }
+            boolean last = !running;
+            flush();
+            synchronized (flushSignal) {
+                flushGeneration++;
+                flushSignal.notifyAll();
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    // Takes everything pending, writes it in one transaction, and hands it back if that fails
+    void flush() {
+        TreeMap<Integer, Long> deltas = new TreeMap<>();
+        List<PendingEntry> entries = new ArrayList<>();
+        lockAll();
+        try {
+            for (Shard shard : shards) {
+                for (int n = 0; n < shard.dirtyCount; n++) {
+                    int acc_no = shard.dirtyAccounts[n];
+                    int i = shard.find(acc_no);
+                    if (i >= 0 && shard.dirty[i]) {
+                        if (shard.pending[i] != 0) {
+                            deltas.put(acc_no, shard.pending[i]);
+                        }
+                        shard.pending[i] = 0;
+                        shard.dirty[i] = false;
+                    }
+                }
+                shard.dirtyCount = 0;
+                shard.removedDeltas.forEach((acc_no, delta) -> deltas.merge(acc_no, delta, Long::sum));
+                shard.removedDeltas.clear();
+                entries.addAll(shard.history);
+                shard.history = new ArrayList<>();
+            }
+        } finally {
+            unlockAll();
+        }
+        if (deltas.isEmpty() && entries.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (Connection conn = pool.borrow()) {
+            // Copies, so a failed flush hands back the cut as it was taken
+            TreeMap<Integer, Long> written = new TreeMap<>(deltas);
+            List<PendingEntry> writtenEntries = new ArrayList<>(entries);
+            List<PendingEntry> dropped = new ArrayList<>();
+            conn.setAutoCommit(false);
+            try {
+                Set<Integer> rejected;
+                while (!(rejected = write(conn, written, writtenEntries)).isEmpty()) {
+                    conn.rollback();
+                    for (int acc_no : rejected) {
+                        drop(conn, acc_no, written, writtenEntries, dropped);
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            flushes++;
+            flushedAccounts += written.size();
+            flushedEntries += writtenEntries.size();
+            SimpleBankingSystem.metrics.record(BankMetrics.Operation.LEDGER_FLUSH, start);
+            Set<Integer> touched = new TreeSet<>();
+            for (PendingEntry entry : dropped) {
+                droppedOperations++;
+                System.out.println("Ledger flush dropped " + entry.type + " of " + BalanceCache.fromCents(entry.amountCents)
+                        + " on acc_no " + entry.accNo + (entry.otherLeg != null ? " to acc_no " + entry.counterparty : "")
+                        + ": the balance in the table can't cover it. It was acknowledged and journaled; settle it by hand.");
+                touched.add(entry.accNo);
+                if (entry.otherLeg != null) {
+                    touched.add(entry.counterparty);
+                }
+            }
+            for (int acc_no : touched) {
+                reload(conn, acc_no);
+            }
+        } catch (SQLException e) {
+            failedFlushes++;
+            SimpleBankingSystem.metrics.sqlError();
+            System.out.println("Ledger flush failed, will retry: " + e.getMessage());
+            restore(deltas, entries);
+        }
+    }
+
+    // Returns the accounts whose delta was rejected; the caller rolls back when there are any
+    private static Set<Integer> write(Connection conn, TreeMap<Integer, Long> deltas, List<PendingEntry> entries) throws SQLException {
+        Set<Integer> rejected = new HashSet<>();
+        if (!deltas.isEmpty()) {
+            // acc_no order, the same lock order as the TransferEngine and the DepositCoalescer
+            try (PreparedStatement deposit_preparedStatement = conn.prepareStatement(FLUSH_QUERY)) {
+                for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                    double amount = BalanceCache.fromCents(delta.getValue());
+                    deposit_preparedStatement.setDouble(1, amount);
+                    deposit_preparedStatement.setInt(2, delta.getKey());
+                    deposit_preparedStatement.setDouble(3, amount);
+                    deposit_preparedStatement.addBatch();
+                }
+                int[] counts = deposit_preparedStatement.executeBatch();
+                int n = 0;
+                for (int acc_no : deltas.keySet()) {
+                    if (counts[n++] == 0) {
+                        rejected.add(acc_no);
+                    }
+                }
+            }
+        }
+        if (!rejected.isEmpty()) {
+            return rejected;
+        }
+        if (!entries.isEmpty()) {
+            try (PreparedStatement history_preparedStatement = conn.prepareStatement(TransactionHistory.INSERT_TRANSACTION_QUERY)) {
+                for (PendingEntry entry : entries) {
+                    TransactionHistory.bind(history_preparedStatement, entry.accNo, entry.type, BalanceCache.fromCents(entry.amountCents),
+                            BalanceCache.fromCents(entry.balanceAfterCents), entry.counterparty);
+                    history_preparedStatement.addBatch();
+                }
+                history_preparedStatement.executeBatch();
+            }
+        }
+        return rejected;
+    }
+
+    // Takes the account's debits out of the cut, newest first, until its delta fits the balance in the table. A transfer
+    // goes with both legs, which can leave its credit account short in turn; the next write() finds that.
+    private static void drop(Connection conn, int acc_no, TreeMap<Integer, Long> deltas, List<PendingEntry> entries,
+                             List<PendingEntry> dropped) throws SQLException {
+        Long tableCents = null;
+        try (PreparedStatement balance_preparedStatement = conn.prepareStatement(ROW_BALANCE_QUERY)) {
+            balance_preparedStatement.setInt(1, acc_no);
+            try (ResultSet resultSet = balance_preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    tableCents = BalanceCache.toCents(resultSet.getDouble("balance"));
+                }
+            }
+        }
+        if (tableCents == null) {
+            // Gone from the table, so there is no balance to update; its rows are still written
+            deltas.remove(acc_no);
+            return;
+        }
+        Set<PendingEntry> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int n = entries.size() - 1; n >= 0 && tableCents + deltas.getOrDefault(acc_no, 0L) < 0; n--) {
+            PendingEntry entry = entries.get(n);
+            if (entry.accNo != acc_no || removed.contains(entry)
+                    || !(entry.type.equals(TransactionHistory.WITHDRAW) || entry.type.equals(TransactionHistory.TRANSFER_OUT))) {
+                continue;
+            }
+            removed.add(entry);
+            dropped.add(entry);
+            deltas.merge(acc_no, entry.amountCents, Long::sum);
+            if (entry.otherLeg != null) {
+                removed.add(entry.otherLeg);
+                deltas.merge(entry.counterparty, -entry.otherLeg.amountCents, Long::sum);
+            }
+        }
+        if (tableCents + deltas.getOrDefault(acc_no, 0L) < 0) {
+            // Even without its debits it doesn't fit: the table is already short, which the engine can't fix
+            throw new SQLException("Balance of acc_no " + acc_no + " in the table is below what the engine can flush");
+        }
+        entries.removeIf(removed::contains);
+    }
+
+    // Replaces the engine's balance with the table's plus whatever the account has pending since the flush
+    private void reload(Connection conn, int acc_no) throws SQLException {
+        Long tableCents = null;
+        try (PreparedStatement balance_preparedStatement = conn.prepareStatement(BALANCE_QUERY)) {
+            balance_preparedStatement.setInt(1, acc_no);
+            try (ResultSet resultSet = balance_preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    tableCents = BalanceCache.toCents(resultSet.getDouble("balance"));
+                }
+            }
+        }
+        Shard shard = shardOf(acc_no);
+        lock(shard);
+        try {
+            int i = shard.find(acc_no);
+            if (i < 0) {
+                return;
+            }
+            if (tableCents == null) {
+                // Closed or gone from the table; as in remove(), its newer delta still goes to the next flush
+                if (shard.dirty[i] && shard.pending[i] != 0) {
+                    shard.removedDeltas.merge(acc_no, shard.pending[i], Long::sum);
+                }
+                shard.remove(acc_no);
+            } else {
+                shard.cents[i] = tableCents + shard.pending[i];
+            }
+        } finally {
+            unlock(shard);
+        }
+    }
+
+    private void restore(TreeMap<Integer, Long> deltas, List<PendingEntry> entries) {
+        lockAll();
+        try {
+            for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                Shard shard = shardOf(delta.getKey());
+                int i = shard.find(delta.getKey());
+                if (i >= 0) {
+                    // add() moves the balance too; the balance already includes this delta
+                    shard.add(i, delta.getValue());
+                    shard.cents[i] -= delta.getValue();
+                } else {
+                    shard.removedDeltas.merge(delta.getKey(), delta.getValue(), Long::sum);
+                }
+            }
+            // Back on their accounts' shards, ahead of anything queued since, so rows stay in the order they happened
+            Map<Shard, List<PendingEntry>> byShard = new HashMap<>();
+            for (PendingEntry entry : entries) {
+                byShard.computeIfAbsent(shardOf(entry.accNo), shard -> new ArrayList<>()).add(entry);
+            }
+            byShard.forEach((shard, failed) -> {
+                failed.addAll(shard.history);
+                shard.history = failed;
+            });
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private Shard shardOf(int acc_no) {
+        return shards[shardIndex(acc_no)];
+    }
+
+    private int shardIndex(int acc_no) {
+        int h = acc_no * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & shardMask;
+    }
+
+    private static int slot(int acc_no, int mask) {
+        // Different bits from the shard index, so accounts of one shard still spread over its table
+        int h = acc_no * 0x85EBCA6B;
+        return (h ^ (h >>> 13)) & mask;
+    }
+}
@@ -0,0 +1,276 @@
+package banking;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ============ INCREMENTAL LEDGER RECONCILIATION ===========
+// Proves that the balances in the customers table are exactly what the committed operations say they should be,
+// without scanning the whole table on every audit.
+//
+// The acc_no space is cut into ranges of rangeSize accounts. For every range the reconciler keeps the expected
+// sum of balances (cents) and an order-independent digest: the sum (mod 2^64) of a 64-bit hash of each
+// (acc_no, balance cents) pair, the leaf of a two-level Merkle-style tree whose root is the sum of the leaves.
+// baseline() computes them with one streaming scan. After that the write paths report every committed change
+// (record(), after commit), which moves the range's sum by the delta and its digest by
+// hash(acc_no, new) - hash(acc_no, old). Both are plain additions, so concurrent updates need no lock and may
+// arrive in any order.
+//
+// audit() only reads the ranges that changed since they were last verified. Each one is summed and hashed from
+// the table and compared with the expectation; a range is only reported when it still differs after a settle
+// delay with no change reported in between, so operations that have committed but not yet called record() are
+// not mistaken for errors. The range is then corrected to what the table holds, and later audits check it from there.
+// A transfer moves two balances and no money, so a transfer path that loses or duplicates a leg shows up as a
+// mismatch. The report also gives the conservation check: the audited total of all balances against the baseline
+// total plus the net deposits and withdrawals since; the two differ by exactly the unexplained mismatches.
+//
+// Changes made by other processes (eod, ingest) to ranges nobody touched here are not seen by an incremental
+// audit; audit(pool, true) re-reads every range.
+
+public class LedgerReconciler {
+
+    private static final String SCAN_QUERY = "SELECT acc_no, balance FROM customers WHERE closed_at IS NULL ORDER BY acc_no";
+    private static final String RANGE_QUERY = "SELECT acc_no, balance FROM customers WHERE acc_no BETWEEN ? AND ? "
+            + "AND closed_at IS NULL";
+    private static final int SCAN_FETCH_SIZE = 10_000;
+    private static final int MAX_SETTLE_ATTEMPTS = 3;
+    private static final long SETTLE_DELAY_MILLIS = 20;
+
+    private static final class Range {
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong digest = new AtomicLong();
+        // Count of changes reported; the range is clean while it equals verifiedChanges
+        final AtomicLong changes = new AtomicLong();
+        volatile long verifiedChanges = 0;
+        // Set for a change whose amount is unknown (e.g. a deletion): the next audit re-reads the range as the truth
+        volatile boolean rebaseline = false;
+    }
+
+    public static class Report {
+        public final int rangesChecked;
+        public final int rangesSkipped;
+        public final List<String> mismatches;
+        public final int rangesRebaselined;
+        // Baseline total plus net deposits and withdrawals, and the total the audited ranges add up to
+        public final long expectedTotalCents;
+        public final long auditedTotalCents;
+        public final long elapsedNanos;
+
+        Report(int rangesChecked, int rangesSkipped, List<String> mismatches, int rangesRebaselined,
+               long expectedTotalCents, long auditedTotalCents, long elapsedNanos) {
+            this.rangesChecked = rangesChecked;
+            this.rangesSkipped = rangesSkipped;
+            this.mismatches = mismatches;
+            this.rangesRebaselined = rangesRebaselined;
+            this.expectedTotalCents = expectedTotalCents;
+            this.auditedTotalCents = auditedTotalCents;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isClean() {
+            return mismatches.isEmpty() && expectedTotalCents == auditedTotalCents;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(
+                    "Reconciliation %s: %d ranges checked, %d unchanged ranges skipped, %d rebaselined, "
+                            + "expected total %.2f, audited total %.2f, %.3f s",
+                    isClean() ? "clean" : "FAILED", rangesChecked, rangesSkipped, rangesRebaselined,
+                    BalanceCache.fromCents(expectedTotalCents), BalanceCache.fromCents(auditedTotalCents), elapsedNanos / 1e9));
+            for (String mismatch : mismatches) {
+                sb.append("\n  ").append(mismatch);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final int rangeSize;
+    private final ConcurrentHashMap<Integer, Range> ranges = new ConcurrentHashMap<>();
+    private final AtomicLong baselineTotal = new AtomicLong();
+    // Money that entered (deposits, new accounts) or left (withdrawals, closed accounts) since the baseline
+    private final AtomicLong netExternal = new AtomicLong();
+    // Differences no reported change explains, as corrected by audits
+    private final AtomicLong unexplained = new AtomicLong();
+
+    public LedgerReconciler(int rangeSize) {
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("rangeSize must be positive");
+        }
+        this.rangeSize = rangeSize;
+    }
+
+    // One streaming scan of the customers table; every range starts out verified
+    public void baseline(ConnectionPool pool) throws SQLException {
+        ranges.clear();
+        long total = 0;
+        try (Connection conn = pool.borrow();
+             PreparedStatement scan_preparedStatement = conn.prepareStatement(SCAN_QUERY)) {
+            scan_preparedStatement.setFetchSize(SCAN_FETCH_SIZE);
+            try (ResultSet resultSet = scan_preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    int acc_no = resultSet.getInt("acc_no");
+                    long cents = BalanceCache.toCents(resultSet.getDouble("balance"));
+                    Range range = range(acc_no);
+                    range.sum.addAndGet(cents);
+                    range.digest.addAndGet(hash(acc_no, cents));
+                    total += cents;
+                }
+            }
+        }
+        baselineTotal.set(total);
+        netExternal.set(0);
+        unexplained.set(0);
+    }
+
+    // A committed balance change. external is true when money entered or left the bank (deposit, withdrawal),
+    // false for one leg of a transfer.
+    public void record(int acc_no, double balanceAfter, double delta, boolean external) {
+        long after = BalanceCache.toCents(balanceAfter);
+        long change = BalanceCache.toCents(delta);
+        Range range = range(acc_no);
+        range.sum.addAndGet(change);
+        range.digest.addAndGet(hash(acc_no, after) - hash(acc_no, after - change));
+        range.changes.incrementAndGet();
+        if (external) {
+            netExternal.addAndGet(change);
+        }
+    }
+
+    // A new account with its opening balance
+    public void opened(int acc_no, double balance) {
+        long cents = BalanceCache.toCents(balance);
+        Range range = range(acc_no);
+        range.sum.addAndGet(cents);
+        range.digest.addAndGet(hash(acc_no, cents));
+        range.changes.incrementAndGet();
+        netExternal.addAndGet(cents);
+    }
+
+    // A change whose amounts aren't known here (a deletion, a batch job): the next audit takes the table as the truth
+    public void touched(int acc_no) {
+        Range range = range(acc_no);
+        range.rebaseline = true;
+        range.changes.incrementAndGet();
+    }
+
+    // Root of the tree: changes whenever any account's balance does
+    public long rootDigest() {
+        long root = 0;
+        for (Range range : ranges.values()) {
+            root += range.digest.get();
+        }
+        return root;
+    }
+
+    public Report audit(ConnectionPool pool, boolean full) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        int checked = 0;
+        int skipped = 0;
+        int rebaselined = 0;
+        List<String> mismatches = new ArrayList<>();
+
+        for (Integer index : new TreeSet<>(ranges.keySet())) {
+            Range range = ranges.get(index);
+            if (!full && range.changes.get() == range.verifiedChanges) {
+                skipped++;
+                continue;
+            }
+            checked++;
+            boolean rebaseline = range.rebaseline;
+            range.rebaseline = false;
+            String mismatch = verify(pool, index, range, rebaseline);
+            if (rebaseline) {
+                rebaselined++;
+            } else if (mismatch != null) {
+                mismatches.add(mismatch);
+            }
+        }
+        // Ranges that only appeared since the keySet copy are picked up by the next audit
+
+        long audited = 0;
+        for (Range range : ranges.values()) {
+            audited += range.sum.get();
+        }
+        return new Report(checked, skipped, mismatches, rebaselined, baselineTotal.get() + netExternal.get(), audited,
+                System.nanoTime() - start);
+    }
+
+    // Compares one range with the table; returns a description of the difference, or null when it matches
+    private String verify(ConnectionPool pool, int index, Range range, boolean rebaseline) throws SQLException, InterruptedException {
+        int first = index * rangeSize;
+        int last = first + rangeSize - 1;
+        for (int attempt = 1; ; attempt++) {
+            long changesBefore = range.changes.get();
+            long expectedSum = range.sum.get();
+            long expectedDigest = range.digest.get();
+            long[] observed = scanRange(pool, first, last);
+            if (range.changes.get() != changesBefore) {
+                // Moved while it was being read; try again, or leave it for the next audit
+                if (attempt >= MAX_SETTLE_ATTEMPTS) {
+                    return null;
+                }
+                continue;
+            }
+            if (observed[0] == expectedSum && observed[1] == expectedDigest) {
+                range.verifiedChanges = changesBefore;
+                return null;
+            }
+            if (!rebaseline && attempt < MAX_SETTLE_ATTEMPTS) {
+                // A change may be committed but not reported yet
+                Thread.sleep(SETTLE_DELAY_MILLIS);
+                continue;
+            }
+            // Adding the difference (rather than setting) keeps any change reported meanwhile
+            range.sum.addAndGet(observed[0] - expectedSum);
+            range.digest.addAndGet(observed[1] - expectedDigest);
+            range.verifiedChanges = changesBefore;
+            if (rebaseline) {
+                netExternal.addAndGet(observed[0] - expectedSum);
+                return null;
+            }
+            unexplained.addAndGet(observed[0] - expectedSum);
+            return String.format("acc_no %d-%d: table sum %.2f, expected %.2f (digest %016x, expected %016x)",
+                    first, last, BalanceCache.fromCents(observed[0]), BalanceCache.fromCents(expectedSum),
+                    observed[1], expectedDigest);
+        }
+    }
+
+    // {sum of balance cents, digest} of one range as the table has it
+    private static long[] scanRange(ConnectionPool pool, int first, int last) throws SQLException {
+        long sum = 0;
+        long digest = 0;
+        try (Connection conn = pool.borrow();
+             PreparedStatement range_preparedStatement = conn.prepareStatement(RANGE_QUERY)) {
+            range_preparedStatement.setInt(1, first);
+            range_preparedStatement.setInt(2, last);
+            try (ResultSet resultSet = range_preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    long cents = BalanceCache.toCents(resultSet.getDouble("balance"));
+                    sum += cents;
+                    digest += hash(resultSet.getInt("acc_no"), cents);
+                }
+            }
+        }
+        return new long[]{sum, digest};
+    }
+
+    private Range range(int acc_no) {
+        return ranges.computeIfAbsent(Math.floorDiv(acc_no, rangeSize), index -> new Range());
+    }
+
+    // SplitMix64 finaliser over the pair, so a single cent on a single account changes the digest
+    static long hash(int acc_no, long cents) {
+        long z = ((long) acc_no << 32) ^ (cents * 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LedgerReconciler[ranges=%d, rangeSize=%d, root=%016x, unexplained=%.2f]", ranges.size(), rangeSize,
+                rootDigest(), BalanceCache.fromCents(unexplained.get()));
+    }
+}
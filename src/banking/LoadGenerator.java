@@ -0,0 +1,400 @@
+package banking;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// ============ LOAD GENERATOR ===========
+// Drives the BankService with a synthetic workload so the system can be sized. It pre-creates the accounts,
+// then runs a weighted mix of balance checks, deposits, withdrawals and transfers for a fixed duration.
+//
+// Closed loop (default): --concurrency workers each issue the next operation as soon as the last one finishes.
+// Open loop (--rate=N): operations are scheduled N per second regardless of how fast they complete, spread over
+// --concurrency workers. Latency is measured from the scheduled start, so time spent queued behind a slow
+// operation is counted instead of hidden (no coordinated omission).
+//
+// Async (--async=shards): --concurrency operations are kept in flight through the AsyncBankService, each slot
+// issuing its next operation from the completion of the last one, so no thread waits on a round trip and the
+// pool only needs a connection per shard. Closed loop only.
+//
+// Accounts are picked with a Zipfian distribution (--skew=0 is uniform, ~1 means a few accounts take most of
+// the traffic), which is what produces the lock contention and insufficient-funds rejections seen in production.
+//
+// By default it runs against an in-memory H2 database in MySQL mode:
+//      java -jar target/simple-banking-system.jar loadgen --accounts=10000 --concurrency=32 --mix=balance:50,deposit:20,withdraw:15,transfer:15
+
+public class LoadGenerator {
+
+    private static final double INITIAL_BALANCE = 1_000;
+    private static final int SETUP_BATCH_SIZE = 1_000;
+    private static final int DEFAULT_ASYNC_SHARDS = 8;
+
+    enum Kind {
+        BALANCE, DEPOSIT, WITHDRAW, TRANSFER
+    }
+
+    // Zipfian account picker over ranks 0..n-1, rank 0 the hottest. Sampling is a binary search of the CDF.
+    static final class Zipf {
+        private final double[] cdf;
+
+        Zipf(int n, double skew) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, skew);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        int next(ThreadLocalRandom random) {
+            int i = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+        }
+    }
+
+    private final BankService service;
+    private final int accounts;
+    private final Kind[] mix;
+    private final Zipf zipf;
+    private final int concurrency;
+    private final double rate;
+    private final long durationMillis;
+    private final double maxAmount;
+
+    private int[] accNos;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LatencyHistogram[] latenciesByKind = new LatencyHistogram[Kind.values().length];
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder insufficientFunds = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private long elapsedNanos;
+    private long roundTripsBefore;
+    // Set by runLoadAsync
+    private AsyncBankService async;
+
+    public LoadGenerator(BankService service, int accounts, Map<Kind, Integer> weights, double skew, int concurrency,
+                         double rate, long durationMillis, double maxAmount) {
+        this.service = service;
+        this.accounts = accounts;
+        this.mix = expand(weights);
+        this.zipf = new Zipf(accounts, skew);
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.durationMillis = durationMillis;
+        this.maxAmount = maxAmount;
+        for (int i = 0; i < latenciesByKind.length; i++) {
+            latenciesByKind[i] = new LatencyHistogram();
+        }
+    }
+
+    // Command line entry: loadgen [--url=jdbc:...] [--user=] [--password=] [--accounts=N] [--concurrency=N] [--rate=ops/sec]
+    //                             [--duration=seconds] [--mix=balance:W,deposit:W,withdraw:W,transfer:W] [--skew=0.99]
+    //                             [--max-amount=N] [--coalesce-deposits=millis] [--ledger-engine=flush millis] [--reconcile]
+    //                             [--async=shards]
+    public static void run(String[] args) {
+        Map<String, String> options = CliOptions.parse(args);
+        String url = options.getOrDefault("url", BankSchema.embeddedUrl("loadgen"));
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "10000"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "30")) * 1000;
+        double skew = Double.parseDouble(options.getOrDefault("skew", "0.99"));
+        double maxAmount = Double.parseDouble(options.getOrDefault("max-amount", "200"));
+        Map<Kind, Integer> weights = parseMix(options.getOrDefault("mix", "balance:50,deposit:20,withdraw:15,transfer:15"));
+        String asyncOption = options.get("async");
+        int shards = asyncOption == null ? 0
+                : "true".equals(asyncOption) ? DEFAULT_ASYNC_SHARDS : Integer.parseInt(asyncOption);
+        if (shards > 0 && rate > 0) {
+            throw new IllegalArgumentException("--async runs a closed loop; it can't be combined with --rate");
+        }
+
+        try (ConnectionPool pool = new ConnectionPool(url, options.getOrDefault("user", ""), options.getOrDefault("password", ""),
+                (shards > 0 ? shards : concurrency) + 1, 1, 30_000, 10 * 60_000, 0, 32)) {
+            SimpleBankingSystem.metrics.attachPool(pool);
+            DepositCoalescer coalescer = options.containsKey("coalesce-deposits")
+                    ? new DepositCoalescer(pool, 1_000, BankServer.parseWindow(options.get("coalesce-deposits"))) : null;
+            // The engine is created up front but loads the balances after setUp has inserted the accounts
+            LedgerEngine engine = BankServer.newEngine(pool, options);
+            BankService service = new BankService(pool, coalescer, engine);
+            LoadGenerator generator = new LoadGenerator(service, accounts, weights, skew, concurrency, rate, duration, maxAmount);
+            generator.setUp(pool);
+            if (engine != null) {
+                engine.start();
+            }
+            // Checks after the run that every balance is what the committed operations add up to
+            LedgerReconciler reconciler = null;
+            if (options.containsKey("reconcile") && engine == null) {
+                reconciler = new LedgerReconciler(1_000);
+                reconciler.baseline(pool);
+                SimpleBankingSystem.reconciler = reconciler;
+            }
+            if (shards > 0) {
+                try (AsyncBankService async = new AsyncBankService(service, shards)) {
+                    generator.runLoadAsync(async);
+                    System.out.println(generator.report());
+                    System.out.println(async);
+                }
+            } else {
+                generator.runLoad();
+                System.out.println(generator.report());
+            }
+            if (coalescer != null) {
+                coalescer.close();
+                System.out.println(coalescer);
+            }
+            if (engine != null) {
+                engine.close();
+                System.out.println(engine);
+            }
+            if (reconciler != null) {
+                System.out.println(reconciler.audit(pool, false));
+                SimpleBankingSystem.reconciler = null;
+            }
+        } catch (SQLException | InterruptedException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    static Map<Kind, Integer> parseMix(String mix) {
+        Map<Kind, Integer> weights = new EnumMap<>(Kind.class);
+        for (String part : mix.split(",")) {
+            String[] kv = part.split(":");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            weights.put(Kind.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(kv[1].trim()));
+        }
+        return weights;
+    }
+
+    // Weights as a 100-slot (or so) lookup table, so picking an operation is one random index
+    private static Kind[] expand(Map<Kind, Integer> weights) {
+        List<Kind> slots = new ArrayList<>();
+        weights.forEach((kind, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                slots.add(kind);
+            }
+        });
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("The operation mix has no weight.");
+        }
+        return slots.toArray(new Kind[0]);
+    }
+
+    // Creates the schema and the accounts in batches. Ranks map to shuffled account numbers so the hot
+    // accounts are spread over the table rather than sitting next to each other.
+    public void setUp(ConnectionPool pool) throws SQLException {
+        accNos = new int[accounts];
+        long start = System.nanoTime();
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert_preparedStatement = conn.prepareStatement(SimpleBankingSystem.INSERT_CUSTOMER_QUERY,
+                    Statement.RETURN_GENERATED_KEYS)) {
+                int created = 0;
+                long phoneBase = 6_000_000_000L + ThreadLocalRandom.current().nextLong(1_000_000_000L);
+                while (created < accounts) {
+                    int n = Math.min(SETUP_BATCH_SIZE, accounts - created);
+                    for (int i = 0; i < n; i++) {
+                        long phone = phoneBase + created + i;
+                        insert_preparedStatement.setString(1, "Load " + (created + i));
+                        insert_preparedStatement.setString(2, String.valueOf(phone));
+                        insert_preparedStatement.setString(3, "load" + (created + i) + "@example.com");
+                        insert_preparedStatement.setDouble(4, INITIAL_BALANCE);
+                        insert_preparedStatement.addBatch();
+                    }
+                    insert_preparedStatement.executeBatch();
+                    try (ResultSet keys = insert_preparedStatement.getGeneratedKeys()) {
+                        while (keys.next() && created < accounts) {
+                            accNos[created++] = keys.getInt(1);
+                        }
+                    }
+                    conn.commit();
+                }
+            }
+        }
+        shuffle(accNos);
+        System.out.printf("Created %d accounts in %.1f s%n", accounts, (System.nanoTime() - start) / 1_000_000_000.0);
+    }
+
+    private static void shuffle(int[] values) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    public void runLoad() throws InterruptedException {
+        long intervalNanos = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+        AtomicLong schedule = new AtomicLong();
+        roundTripsBefore = SimpleBankingSystem.metrics.getJdbcRoundTrips();
+        long start = System.nanoTime();
+        long deadline = start + durationMillis * 1_000_000;
+
+        Thread[] workers = new Thread[concurrency];
+        for (int t = 0; t < concurrency; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (true) {
+                    long intended;
+                    if (intervalNanos > 0) {
+                        intended = start + schedule.getAndIncrement() * intervalNanos;
+                        if (intended >= deadline) {
+                            return;
+                        }
+                        long wait = intended - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    } else {
+                        intended = System.nanoTime();
+                        if (intended >= deadline) {
+                            return;
+                        }
+                    }
+                    Kind kind = mix[random.nextInt(mix.length)];
+                    execute(kind, random);
+                    long latency = System.nanoTime() - intended;
+                    latencies.record(latency);
+                    latenciesByKind[kind.ordinal()].record(latency);
+                    operations.increment();
+                }
+            }, "loadgen-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    // Closed loop with concurrency operations in flight and no worker threads: each completion starts its slot's next operation
+    public void runLoadAsync(AsyncBankService async) throws InterruptedException {
+        this.async = async;
+        roundTripsBefore = SimpleBankingSystem.metrics.getJdbcRoundTrips();
+        long start = System.nanoTime();
+        long deadline = start + durationMillis * 1_000_000;
+        CountDownLatch slotsDone = new CountDownLatch(concurrency);
+        for (int slot = 0; slot < concurrency; slot++) {
+            issueAsync(deadline, slotsDone);
+        }
+        slotsDone.await();
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private void issueAsync(long deadline, CountDownLatch slotsDone) {
+        long begin = System.nanoTime();
+        if (begin >= deadline) {
+            slotsDone.countDown();
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Kind kind = mix[random.nextInt(mix.length)];
+        executeAsync(kind, random).whenComplete((value, failure) -> {
+            if (failure != null) {
+                countFailure(failure instanceof CompletionException ? failure.getCause() : failure);
+            }
+            long latency = System.nanoTime() - begin;
+            latencies.record(latency);
+            latenciesByKind[kind.ordinal()].record(latency);
+            operations.increment();
+            issueAsync(deadline, slotsDone);
+        });
+    }
+
+    private CompletableFuture<?> executeAsync(Kind kind, ThreadLocalRandom random) {
+        int acc_no = accNos[zipf.next(random)];
+        double amount = Math.round(random.nextDouble(1, maxAmount) * 100) / 100.0;
+        switch (kind) {
+            case BALANCE:
+                return async.getBalance(acc_no);
+            case DEPOSIT:
+                return async.deposit(acc_no, amount);
+            case WITHDRAW:
+                return async.withdraw(acc_no, amount);
+            default:
+                return async.transfer(acc_no, pickCredit(acc_no, random), amount);
+        }
+    }
+
+    private int pickCredit(int acc_no, ThreadLocalRandom random) {
+        int credit = accNos[zipf.next(random)];
+        while (credit == acc_no && accounts > 1) {
+            credit = accNos[zipf.next(random)];
+        }
+        return credit;
+    }
+
+    private void execute(Kind kind, ThreadLocalRandom random) {
+        int acc_no = accNos[zipf.next(random)];
+        double amount = Math.round(random.nextDouble(1, maxAmount) * 100) / 100.0;
+        try {
+            switch (kind) {
+                case BALANCE:
+                    service.getBalance(acc_no);
+                    break;
+                case DEPOSIT:
+                    service.deposit(acc_no, amount);
+                    break;
+                case WITHDRAW:
+                    service.withdraw(acc_no, amount);
+                    break;
+                case TRANSFER:
+                    service.transfer(acc_no, pickCredit(acc_no, random), amount);
+                    break;
+            }
+        } catch (Exception e) {
+            countFailure(e);
+        }
+    }
+
+    private void countFailure(Throwable e) {
+        if (e instanceof SimpleBankingSystem.InsufficientFundsException) {
+            insufficientFunds.increment();
+        } else if (e instanceof SQLException && TransferEngine.isRetryable((SQLException) e)) {
+            deadlocks.increment();
+        } else {
+            errors.increment();
+        }
+    }
+
+    public String report() {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        long ops = operations.sum();
+        StringBuilder sb = new StringBuilder("\n================== LOAD TEST REPORT ==================\n");
+        sb.append(String.format(Locale.ROOT, "Mode: %s, accounts=%d, workers=%d, duration=%.1f s%n",
+                rate > 0 ? "open loop at " + rate + " ops/s" : async != null ? "closed loop, async" : "closed loop", accounts,
+                concurrency, seconds));
+        sb.append(String.format(Locale.ROOT, "Throughput: %.1f ops/s (%d operations)%n", seconds == 0 ? 0 : ops / seconds, ops));
+        sb.append(String.format(Locale.ROOT, "Latency: p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+                latencies.getPercentileMicros(50), latencies.getPercentileMicros(99),
+                latencies.getPercentileMicros(99.9), latencies.getMaxMicros()));
+        for (Kind kind : Kind.values()) {
+            LatencyHistogram histogram = latenciesByKind[kind.ordinal()];
+            if (histogram.getCount() > 0) {
+                sb.append(String.format(Locale.ROOT, "  %-9s %s%n", kind, histogram));
+            }
+        }
+        sb.append(String.format(Locale.ROOT, "Insufficient funds: %d (%.2f%%), deadlocks/lock timeouts: %d (%.3f%%), other errors: %d%n",
+                insufficientFunds.sum(), percent(insufficientFunds.sum(), ops),
+                deadlocks.sum(), percent(deadlocks.sum(), ops), errors.sum()));
+        long roundTrips = SimpleBankingSystem.metrics.getJdbcRoundTrips() - roundTripsBefore;
+        sb.append(String.format(Locale.ROOT, "JDBC round trips: %d (%.1f per operation)", roundTrips,
+                ops == 0 ? 0 : (double) roundTrips / ops));
+        return sb.toString();
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+}
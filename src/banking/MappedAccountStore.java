@@ -0,0 +1,322 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+// ============ EMBEDDED ACCOUNT STORE IN A MEMORY-MAPPED FILE ===========
+// An AccountStore that needs no database server: every account is a fixed-size record in a memory-mapped file,
+// so an operation is a few loads and stores under a lock instead of a network round trip and a transaction.
+// It keeps balances and customer details only; there is no transaction history, journal or velocity limits.
+//
+// Layout: a HEADER_SIZE header  magic(4) | format(4) | accounts issued(4), with the transfer intent slots at
+// INTENT_OFFSET, followed by RECORD_SIZE records in acc_no order (acc_no 1 is the first record):
+//   state(1) | padding(7) | balance cents(8) | name(1 + 100) | phone(1 + 10) | email(1 + 100), strings as length + UTF-8.
+// The file is mapped in segments of SEGMENT_RECORDS records, and grows by a segment at a time.
+//
+// Accounts are locked in stripes by acc_no; a transfer takes both stripes in ascending order. Before changing the two
+// balances it writes both new balances to the intent slot of its first stripe, and clears the slot afterwards, so a
+// process killed between the two writes is repaired when the store is next opened. Writes reach the OS page cache
+// at once; sync() (also done by close()) forces them to disk.
+
+public class MappedAccountStore implements AccountStore {
+
+    public static final int HEADER_SIZE = 4_096;
+    public static final int RECORD_SIZE = 256;
+
+    private static final int MAGIC = 0x42414353; // "BACS"
+    private static final int FORMAT = 1;
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_RECORDS = 1 << SEGMENT_SHIFT;
+    static final int STRIPES = 64;
+
+    static final int INTENT_OFFSET = 64;
+    static final int INTENT_SIZE = 32;
+
+    private static final byte FREE = 0;
+    private static final byte OPEN = 1;
+    private static final byte CLOSED = 2;
+
+    static final int BALANCE = 8;
+    private static final int NAME = 16;
+    private static final int NAME_LENGTH = 100;
+    private static final int PHONE = NAME + 1 + NAME_LENGTH;
+    private static final int PHONE_LENGTH = 10;
+    private static final int EMAIL = PHONE + 1 + PHONE_LENGTH;
+    private static final int EMAIL_LENGTH = 100;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private volatile MappedByteBuffer[] segments;
+    private volatile int accounts;
+    private final Object[] stripes = new Object[STRIPES];
+    // Every phone number in the store, of open and closed accounts; guarded by createLock
+    private final Map<String, Integer> phones = new HashMap<>();
+    private final Object createLock = new Object();
+
+    private MappedAccountStore(Path file, FileChannel channel, MappedByteBuffer header) {
+        this.file = file;
+        this.channel = channel;
+        this.header = header;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    // Opens the store in file, creating it when it doesn't exist
+    public static MappedAccountStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean created = channel.size() == 0;
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (created) {
+                header.putInt(0, MAGIC).putInt(4, FORMAT).putInt(8, 0);
+                header.force();
+            } else if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT) {
+                throw new IOException("Not an account store: " + file);
+            }
+            MappedAccountStore store = new MappedAccountStore(file, channel, header);
+            store.load();
+            return store;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Maps the existing records, finishes any interrupted transfer and collects the phone numbers
+    private void load() throws IOException {
+        int issued = header.getInt(8);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[0];
+        while ((long) mapped.length * SEGMENT_RECORDS < issued) {
+            mapped = withSegment(mapped);
+        }
+        segments = mapped;
+        accounts = issued;
+
+        for (int slot = 0; slot < STRIPES; slot++) {
+            int at = INTENT_OFFSET + slot * INTENT_SIZE;
+            if (header.getInt(at + 24) != 0) {
+                setBalance(header.getInt(at), header.getLong(at + 8));
+                setBalance(header.getInt(at + 4), header.getLong(at + 16));
+                header.putInt(at + 24, 0);
+            }
+        }
+
+        for (int acc_no = 1; acc_no <= issued; acc_no++) {
+            MappedByteBuffer segment = segmentOf(acc_no);
+            int record = offsetOf(acc_no);
+            if (segment.get(record) != FREE) {
+                phones.put(readString(segment, record + PHONE), acc_no);
+            }
+        }
+    }
+
+    private MappedByteBuffer[] withSegment(MappedByteBuffer[] mapped) throws IOException {
+        MappedByteBuffer[] grown = Arrays.copyOf(mapped, mapped.length + 1);
+        grown[mapped.length] = channel.map(FileChannel.MapMode.READ_WRITE,
+                HEADER_SIZE + (long) mapped.length * SEGMENT_RECORDS * RECORD_SIZE, (long) SEGMENT_RECORDS * RECORD_SIZE);
+        return grown;
+    }
+
+    @Override
+    public int createAccount(String cust_name, String phone_no, String email_id, double balance)
+            throws SQLException, SimpleBankingSystem.InvalidPhoneNumberException, SimpleBankingSystem.InvalidEmailException,
+            SimpleBankingSystem.InvalidInitialBalanceException {
+
+        SimpleBankingSystem.checkPhoneNumber(phone_no);
+        SimpleBankingSystem.checkEmail(email_id);
+        SimpleBankingSystem.checkBalance(balance);
+        byte[] name = encode(cust_name, NAME_LENGTH, "name");
+        byte[] phone = encode(phone_no, PHONE_LENGTH, "phone");
+        byte[] email = encode(email_id, EMAIL_LENGTH, "email");
+
+        synchronized (createLock) {
+            if (phones.containsKey(phone_no)) {
+                throw new SQLIntegrityConstraintViolationException("Duplicate phone number: " + phone_no);
+            }
+            int acc_no = accounts + 1;
+            if ((long) segments.length * SEGMENT_RECORDS < acc_no) {
+                try {
+                    segments = withSegment(segments);
+                } catch (IOException e) {
+                    throw new SQLException("Account store could not grow: " + e.getMessage(), e);
+                }
+            }
+            MappedByteBuffer segment = segmentOf(acc_no);
+            int record = offsetOf(acc_no);
+            segment.putLong(record + BALANCE, BalanceCache.toCents(balance));
+            writeString(segment, record + NAME, name);
+            writeString(segment, record + PHONE, phone);
+            writeString(segment, record + EMAIL, email);
+            segment.put(record, OPEN);
+            header.putInt(8, acc_no);
+            phones.put(phone_no, acc_no);
+            // Publishes the record to the other operations
+            accounts = acc_no;
+            return acc_no;
+        }
+    }
+
+    @Override
+    public double getBalance(int acct_num) throws SimpleBankingSystem.InvalidAccountNumberException {
+        synchronized (stripeOf(acct_num)) {
+            return BalanceCache.fromCents(balanceOf(acct_num));
+        }
+    }
+
+    @Override
+    public double credit(int acct_num, double funds)
+            throws SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InvalidDepositFundsException {
+        SimpleBankingSystem.checkDepositFundAmt(funds);
+        long cents = BalanceCache.toCents(funds);
+        synchronized (stripeOf(acct_num)) {
+            long updated = balanceOf(acct_num) + cents;
+            setBalance(acct_num, updated);
+            return BalanceCache.fromCents(updated);
+        }
+    }
+
+    @Override
+    public double debit(int acct_num, double funds)
+            throws SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException {
+        SimpleBankingSystem.checkDepositFundAmt(funds);
+        long cents = BalanceCache.toCents(funds);
+        synchronized (stripeOf(acct_num)) {
+            long balance = balanceOf(acct_num);
+            if (balance < cents) {
+                throw new SimpleBankingSystem.InsufficientFundsException();
+            }
+            setBalance(acct_num, balance - cents);
+            return BalanceCache.fromCents(balance - cents);
+        }
+    }
+
+    @Override
+    public double[] transfer(int debit_acc_no, int credit_acc_no, double funds)
+            throws SimpleBankingSystem.InvalidAccountNumberException, SimpleBankingSystem.InsufficientFundsException,
+            SimpleBankingSystem.InvalidDepositFundsException {
+        SimpleBankingSystem.checkDepositFundAmt(funds);
+        long cents = BalanceCache.toCents(funds);
+        int first = Math.min(stripeIndex(debit_acc_no), stripeIndex(credit_acc_no));
+        int second = Math.max(stripeIndex(debit_acc_no), stripeIndex(credit_acc_no));
+        synchronized (stripes[first]) {
+            synchronized (stripes[second]) {
+                long debitBalance = balanceOf(debit_acc_no);
+                long creditBalance = balanceOf(credit_acc_no);
+                if (debitBalance < cents) {
+                    throw new SimpleBankingSystem.InsufficientFundsException();
+                }
+                if (debit_acc_no == credit_acc_no) {
+                    return new double[]{BalanceCache.fromCents(debitBalance), BalanceCache.fromCents(creditBalance)};
+                }
+                long debitAfter = debitBalance - cents;
+                long creditAfter = creditBalance + cents;
+                int intent = INTENT_OFFSET + first * INTENT_SIZE;
+                header.putInt(intent, debit_acc_no).putInt(intent + 4, credit_acc_no)
+                        .putLong(intent + 8, debitAfter).putLong(intent + 16, creditAfter);
+                header.putInt(intent + 24, 1);
+                setBalance(debit_acc_no, debitAfter);
+                setBalance(credit_acc_no, creditAfter);
+                header.putInt(intent + 24, 0);
+                return new double[]{BalanceCache.fromCents(debitAfter), BalanceCache.fromCents(creditAfter)};
+            }
+        }
+    }
+
+    @Override
+    public void deleteAccount(int acct_num) throws SimpleBankingSystem.InvalidAccountNumberException {
+        synchronized (stripeOf(acct_num)) {
+            balanceOf(acct_num);
+            segmentOf(acct_num).put(offsetOf(acct_num), CLOSED);
+        }
+    }
+
+    // Balance in cents of an open account; the caller holds its stripe
+    private long balanceOf(int acc_no) throws SimpleBankingSystem.InvalidAccountNumberException {
+        if (acc_no < 1 || acc_no > accounts) {
+            throw new SimpleBankingSystem.InvalidAccountNumberException();
+        }
+        MappedByteBuffer segment = segmentOf(acc_no);
+        int record = offsetOf(acc_no);
+        if (segment.get(record) != OPEN) {
+            throw new SimpleBankingSystem.InvalidAccountNumberException();
+        }
+        return segment.getLong(record + BALANCE);
+    }
+
+    private void setBalance(int acc_no, long cents) {
+        segmentOf(acc_no).putLong(offsetOf(acc_no) + BALANCE, cents);
+    }
+
+    private MappedByteBuffer segmentOf(int acc_no) {
+        return segments[(acc_no - 1) >>> SEGMENT_SHIFT];
+    }
+
+    private static int offsetOf(int acc_no) {
+        return ((acc_no - 1) & (SEGMENT_RECORDS - 1)) * RECORD_SIZE;
+    }
+
+    private Object stripeOf(int acc_no) {
+        return stripes[stripeIndex(acc_no)];
+    }
+
+    private static int stripeIndex(int acc_no) {
+        return acc_no & (STRIPES - 1);
+    }
+
+    // Same limit as the customers column; longer values are refused as the database would refuse them
+    private static byte[] encode(String value, int maxBytes, String column) throws SQLDataException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            throw new SQLDataException("Data too long for column '" + column + "'");
+        }
+        return bytes;
+    }
+
+    private static void writeString(MappedByteBuffer segment, int at, byte[] bytes) {
+        segment.put(at, (byte) bytes.length);
+        segment.put(at + 1, bytes);
+    }
+
+    private static String readString(MappedByteBuffer segment, int at) {
+        byte[] bytes = new byte[segment.get(at) & 0xFF];
+        segment.get(at + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    // Forces every change to disk
+    public void sync() {
+        synchronized (createLock) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            header.force();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        sync();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedAccountStore[file=" + file + ", accounts=" + accounts + ", segments=" + segments.length + "]";
+    }
+}
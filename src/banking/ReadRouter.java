@@ -0,0 +1,251 @@
+package banking;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// ============ READ/WRITE SPLIT OVER READ REPLICAS ===========
+// Routes pure balance reads to read-only replicas so they don't compete with money movement for the primary.
+// Each read says how stale an answer it accepts; a replica is used only when it is known to be at least that fresh,
+// otherwise the read goes to the primary.
+//
+// Freshness is measured with a heartbeat: every heartbeatMillis the router writes the current time to the
+// replica_heartbeat table on the primary and reads it back from every replica. A replica that returns beat time B
+// has applied everything the primary committed before B, so its answers are at most (now - B) old. Replication
+// applies commits in order, which is all this relies on.
+//
+// Read-your-writes: the write paths report the accounts they changed (wrote()). A read of such an account only goes
+// to a replica whose heartbeat is newer than the write, so a session never reads back a balance older than its own
+// change, and falls back to the primary until the replica has caught up. Staleness is capped at MAX_STALENESS_MILLIS,
+// so writes older than that can be forgotten and the map stays small.
+
+public class ReadRouter implements AutoCloseable {
+
+    public static final long MAX_STALENESS_MILLIS = 60_000;
+
+    private static final String BEAT_QUERY = "UPDATE replica_heartbeat SET beat_millis = ? WHERE id = 1";
+    private static final String INSERT_BEAT_QUERY = "INSERT INTO replica_heartbeat(id, beat_millis) VALUES(1, ?)";
+    private static final String READ_BEAT_QUERY = "SELECT beat_millis FROM replica_heartbeat WHERE id = 1";
+
+    private static final class Replica {
+        final ConnectionPool pool;
+        // Heartbeat last read from this replica, 0 while it is unreachable
+        volatile long beatMillis = 0;
+
+        Replica(ConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    private final ConnectionPool primary;
+    private final Replica[] replicas;
+    private final long heartbeatMillis;
+    private final ScheduledExecutorService heartbeat;
+    private final AtomicInteger next = new AtomicInteger();
+    // acc_no -> time of this process's last committed write to it
+    private final ConcurrentHashMap<Integer, Long> lastWrites = new ConcurrentHashMap<>();
+
+    // Metrics
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder staleFallbacks = new LongAdder();
+    private final LongAdder ownWriteFallbacks = new LongAdder();
+    private final LongAdder replicaErrors = new LongAdder();
+
+    public ReadRouter(ConnectionPool primary, List<ConnectionPool> replicaPools, long heartbeatMillis) {
+        if (replicaPools.isEmpty() || heartbeatMillis <= 0) {
+            throw new IllegalArgumentException("At least one replica and a positive heartbeatMillis are needed");
+        }
+        this.primary = primary;
+        this.replicas = new Replica[replicaPools.size()];
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = new Replica(replicaPools.get(i));
+        }
+        this.heartbeatMillis = heartbeatMillis;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        heartbeat.scheduleWithFixedDelay(this::beat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Called by the write paths after commit
+    public void wrote(int acc_no) {
+        lastWrites.put(acc_no, System.currentTimeMillis());
+    }
+
+    // Balance of an open account read from a replica no more than maxStalenessMillis behind, or NaN when the read
+    // has to go to the primary (no replica fresh enough, or the replica failed)
+    public double replicaBalance(int acc_no, long maxStalenessMillis)
+            throws SimpleBankingSystem.InvalidAccountNumberException {
+        Replica replica = route(acc_no, maxStalenessMillis);
+        if (replica == null) {
+            return Double.NaN;
+        }
+        try (Connection conn = replica.pool.borrow()) {
+            double balance = readBalance(conn, acc_no);
+            replicaReads.increment();
+            return balance;
+        } catch (SQLException e) {
+            replicaError(replica);
+            return Double.NaN;
+        }
+    }
+
+    // Whether the account exists according to a fresh enough replica, or null when the primary has to be asked
+    public Boolean replicaAccountExists(int acc_no, long maxStalenessMillis) {
+        Replica replica = route(acc_no, maxStalenessMillis);
+        if (replica == null) {
+            return null;
+        }
+        try (Connection conn = replica.pool.borrow()) {
+            boolean exists = exists(conn, acc_no);
+            replicaReads.increment();
+            return exists;
+        } catch (SQLException e) {
+            replicaError(replica);
+            return null;
+        }
+    }
+
+    // A replica fresh enough for this read, or null for the primary. Replicas are taken in turn to spread the load.
+    private Replica route(int acc_no, long maxStalenessMillis) {
+        if (maxStalenessMillis <= 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        long oldestBeat = now - Math.min(maxStalenessMillis, MAX_STALENESS_MILLIS);
+        Long lastWrite = lastWrites.get(acc_no);
+        boolean ownWriteBlocked = false;
+        int start = Math.floorMod(next.getAndIncrement(), replicas.length);
+        for (int n = 0; n < replicas.length; n++) {
+            Replica replica = replicas[(start + n) % replicas.length];
+            long beat = replica.beatMillis;
+            if (beat == 0 || beat < oldestBeat) {
+                continue;
+            }
+            if (lastWrite != null && beat <= lastWrite) {
+                ownWriteBlocked = true;
+                continue;
+            }
+            return replica;
+        }
+        if (ownWriteBlocked) {
+            ownWriteFallbacks.increment();
+        } else {
+            staleFallbacks.increment();
+        }
+        return null;
+    }
+
+    private void replicaError(Replica replica) {
+        replica.beatMillis = 0;
+        replicaErrors.increment();
+        SimpleBankingSystem.metrics.sqlError();
+    }
+
+    // Unlike SimpleBankingSystem.accountExists this lets a failure through, so the caller can fall back
+    private static boolean exists(Connection conn, int acc_no) throws SQLException {
+        String acct_query = "SELECT acc_no FROM customers WHERE acc_no = ? AND closed_at IS NULL";
+        try (PreparedStatement acct_preparedStatement = conn.prepareStatement(acct_query)) {
+            acct_preparedStatement.setInt(1, acc_no);
+            try (ResultSet resultSet = acct_preparedStatement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private static double readBalance(Connection conn, int acc_no) throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        String check_balance_query = "select balance from customers where acc_no = ? and closed_at is null";
+        try (PreparedStatement check_bal_preparedStatement = conn.prepareStatement(check_balance_query)) {
+            check_bal_preparedStatement.setInt(1, acc_no);
+            try (ResultSet resultSet = check_bal_preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SimpleBankingSystem.InvalidAccountNumberException();
+                }
+                return resultSet.getDouble("balance");
+            }
+        }
+    }
+
+    // Writes the heartbeat to the primary, reads it back from the replicas and forgets writes every replica may show
+    private void beat() {
+        long now = System.currentTimeMillis();
+        try (Connection conn = primary.borrow();
+             PreparedStatement beat_preparedStatement = conn.prepareStatement(BEAT_QUERY)) {
+            beat_preparedStatement.setLong(1, now);
+            if (beat_preparedStatement.executeUpdate() == 0) {
+                try (PreparedStatement insert_preparedStatement = conn.prepareStatement(INSERT_BEAT_QUERY)) {
+                    insert_preparedStatement.setLong(1, now);
+                    insert_preparedStatement.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Replica heartbeat not written: " + e.getMessage());
+        }
+
+        for (Replica replica : replicas) {
+            try (Connection conn = replica.pool.borrow();
+                 PreparedStatement read_preparedStatement = conn.prepareStatement(READ_BEAT_QUERY);
+                 ResultSet resultSet = read_preparedStatement.executeQuery()) {
+                replica.beatMillis = resultSet.next() ? resultSet.getLong("beat_millis") : 0;
+            } catch (SQLException e) {
+                replica.beatMillis = 0;
+            }
+        }
+
+        long forgetBefore = now - MAX_STALENESS_MILLIS;
+        lastWrites.values().removeIf(written -> written < forgetBefore);
+    }
+
+    // How far behind each replica is, -1 when it is unreachable
+    public long[] getLagMillis() {
+        long now = System.currentTimeMillis();
+        long[] lag = new long[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            long beat = replicas[i].beatMillis;
+            lag[i] = beat == 0 ? -1 : Math.max(0, now - beat);
+        }
+        return lag;
+    }
+
+    public long getReplicaReads() {
+        return replicaReads.sum();
+    }
+
+    public long getStaleFallbacks() {
+        return staleFallbacks.sum();
+    }
+
+    public long getOwnWriteFallbacks() {
+        return ownWriteFallbacks.sum();
+    }
+
+    public long getReplicaErrors() {
+        return replicaErrors.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ReadRouter[replicas=%d, lag=%s ms, replicaReads=%d, staleFallbacks=%d, ownWriteFallbacks=%d, "
+                        + "replicaErrors=%d, trackedWrites=%d]", replicas.length, Arrays.toString(getLagMillis()),
+                replicaReads.sum(), staleFallbacks.sum(), ownWriteFallbacks.sum(), replicaErrors.sum(), lastWrites.size());
+    }
+
+    // Stops the heartbeat and closes the replica pools; the primary pool belongs to the caller
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+}
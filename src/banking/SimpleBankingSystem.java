@@ -0,0 +1,1091 @@
+package banking;
+
+import java.util.*;
+import java.sql.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// ============ SIMPLE BANKING SYSTEM USING JDBC AND MySQL ===========
+
+public class SimpleBankingSystem {
+
+    // Used across the entire Project. Set with the bank.db.url / bank.db.user / bank.db.password system properties or
+    // the BANK_DB_URL / BANK_DB_USER / BANK_DB_PASSWORD environment variables; the defaults are for a local MySQL.
+    private static final String url = setting("bank.db.url", "BANK_DB_URL", "jdbc:mysql://localhost:3306/simplebankingsystem");
+    private static final String username = setting("bank.db.user", "BANK_DB_USER", "root");
+    private static final String password = setting("bank.db.password", "BANK_DB_PASSWORD", "");
+
+    // Connection Pool settings
+    private static final int POOL_MAX_SIZE = 10;
+    private static final int POOL_MIN_IDLE = 1;
+    private static final long POOL_BORROW_TIMEOUT_MILLIS = 5_000;
+    private static final long POOL_IDLE_TIMEOUT_MILLIS = 10 * 60_000;
+    private static final long POOL_LEAK_THRESHOLD_MILLIS = 5 * 60_000;
+    private static final int POOL_STATEMENT_CACHE_SIZE = 32;
+
+    // SQL shared by the teller operations, the TransferEngine and the bulk commands
+    static final String DEPOSIT_QUERY = "UPDATE customers SET balance = balance + ? WHERE acc_no = ? AND closed_at IS NULL";
+    static final String INSERT_CUSTOMER_QUERY = "INSERT into customers(name,phone,email,balance) VALUES(?,?,?,?)";
+    static final String GUARDED_WITHDRAW_QUERY = "UPDATE customers SET balance = balance - ? WHERE acc_no = ? AND balance >= ? "
+            + "AND closed_at IS NULL";
+
+    // Balance Cache settings
+    private static final int BALANCE_CACHE_MAX_ENTRIES = 100_000;
+    private static final long BALANCE_CACHE_MAX_STALENESS_MILLIS = 2_000;
+
+    // Balances are cached on read and refreshed by the write paths after commit
+    static final BalanceCache balanceCache = new BalanceCache(BALANCE_CACHE_MAX_ENTRIES,
+            BalanceCache.Consistency.READ_YOUR_WRITES, BALANCE_CACHE_MAX_STALENESS_MILLIS);
+
+    // Idempotency key settings: how many recently used keys are answered from memory, and for how long
+    private static final int IDEMPOTENCY_CACHE_MAX_ENTRIES = 100_000;
+    private static final long IDEMPOTENCY_CACHE_TTL_MILLIS = 10 * 60_000;
+
+    // Keys older than the TTL are still found through the idempotency_keys table
+    static final IdempotencyKeys idempotencyKeys = new IdempotencyKeys(IDEMPOTENCY_CACHE_MAX_ENTRIES,
+            IDEMPOTENCY_CACHE_TTL_MILLIS);
+
+    // Balance snapshot used to warm the cache at startup (written by the "snapshot" command or serve --snapshot-every)
+    static final String SNAPSHOT_FILE = "balances.snap";
+
+    // Transaction Journal settings
+    private static final String JOURNAL_DIR = "journal";
+    private static final int JOURNAL_SEGMENT_SIZE = TransactionJournal.RECORD_SIZE * 1_000_000;
+
+    // Opened by main for the commands that write; null when nothing is journaled (bench, loadgen, tests)
+    static TransactionJournal journal;
+    // First journal failure; set means committed operations are missing from the journal (see journalFailed)
+    static volatile IOException journalFailure;
+
+    // Read replicas for balance reads (also --replica=url,url); the heartbeat measures how far behind they are.
+    // The teller menu accepts balances up to REPLICA_MAX_STALENESS_MILLIS old.
+    private static final String[] REPLICA_URLS = {};
+    private static final long REPLICA_HEARTBEAT_MILLIS = 250;
+    static final long REPLICA_MAX_STALENESS_MILLIS = 1_000;
+
+    // Opened by main when replicas are configured; null otherwise
+    static volatile ReadRouter readRouter;
+
+    // Customer search by phone, name and email; built by the menu and the server at startup, null until then
+    static volatile CustomerIndex customerIndex;
+    private static final int CUSTOMER_SEARCH_LIMIT = 20;
+
+    // Velocity limits on withdrawals and outgoing transfers, per account tier (customers.tier):
+    // debits per minute, amount per minute, debits per day, amount per day
+    private static final Map<String, VelocityLimits.Limits> VELOCITY_TIERS = Map.of(
+            "STANDARD", new VelocityLimits.Limits(10, 50_000, 100, 200_000),
+            "PREMIUM", new VelocityLimits.Limits(30, 500_000, 500, 2_000_000),
+            "CORPORATE", new VelocityLimits.Limits(600, 10_000_000, 50_000, 100_000_000));
+
+    // Rebuilt from the last day of history by the menu and the server at startup; null (no limits) until then
+    static volatile VelocityLimits velocityLimits;
+
+    // Set by the commands that audit the ledger (serve --reconcile-every, loadgen --reconcile); null otherwise
+    static volatile LedgerReconciler reconciler;
+
+    // Per-operation latencies and JDBC counters, exposed over JMX (0 = no periodic dump to the console)
+    private static final long METRICS_DUMP_SECONDS = 0;
+    static final BankMetrics metrics = new BankMetrics();
+
+    // Exception for Invalid Account Number
+    public static class InvalidAccountNumberException extends Exception {
+        public InvalidAccountNumberException() {
+            super("Account Number does not exist.");
+        }
+    }
+
+    // Exception for Insufficient Funds in Account
+    public static class InsufficientFundsException extends Exception {
+        public InsufficientFundsException() {
+            super("Insufficient funds in the account.");
+        }
+    }
+
+    // Exception for Invalid Amount of Funds to be deposited
+    public static class InvalidDepositFundsException extends Exception {
+        public InvalidDepositFundsException() {
+            super("Invalid Deposit Funds Amount");
+        }
+    }
+
+    // Exception for Invalid Phone Number
+    public static class InvalidPhoneNumberException extends Exception {
+
+        public InvalidPhoneNumberException() {
+            super("Invalid Phone Number");
+        }
+    }
+
+    // Exception for Invalid Email
+    public static class InvalidEmailException extends Exception{
+        public InvalidEmailException()
+        {
+            super("Invalid Email Id. Please retry.");
+        }
+    }
+
+    // Exception for Invalid Initial Balance in an Account at the time of Account Creation
+    public static class InvalidInitialBalanceException extends Exception {
+        public InvalidInitialBalanceException() {
+            super("Invalid Initial balance");
+        }
+    }
+
+    // Exception for a Withdrawal or Transfer over the account's velocity limits
+    public static class VelocityLimitExceededException extends Exception {
+        public VelocityLimitExceededException(String limit) {
+            super("Velocity limit exceeded: " + limit + ". Please retry later.");
+        }
+    }
+
+
+    // A system property, else an environment variable, else the default
+    private static String setting(String property, String variable, String defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            value = System.getenv(variable);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    // Checks Initial Balance in Account
+    public static double checkBalance(double init_balance) throws InvalidInitialBalanceException {
+        if (init_balance > 0)
+            return init_balance;
+        else {
+            throw new InvalidInitialBalanceException();
+        }
+
+    }
+
+    // Checks if the amount of money to be deposited is positive
+    public static double checkDepositFundAmt(Double funds) throws InvalidDepositFundsException {
+        if (funds > 0) {
+            return funds;
+        } else {
+            throw new InvalidDepositFundsException();
+        }
+    }
+
+    // Checks if the Account has sufficient balance before withdrawing or transferring funds
+    public static double checkWithdrawFundAmt(Connection conn, int acct_num, Double funds) throws InsufficientFundsException {
+
+        double curr_bal = getUpdatedBalance(conn, acct_num);
+        if (curr_bal >= funds) {
+            return funds;
+        } else {
+            System.out.println("\nCurrent Account Balance is: " + curr_bal + ".");
+            throw new InsufficientFundsException();
+        }
+
+    }
+
+    // Hand-written equivalent of ^[6-9][0-9]{9}$, so validation never compiles a regex or allocates
+    public static boolean isValidPhone(CharSequence phone) {
+        if (phone.length() != 10 || phone.charAt(0) < '6' || phone.charAt(0) > '9') {
+            return false;
+        }
+        for (int i = 1; i < 10; i++) {
+            char c = phone.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hand-written equivalent of ^[\w.-]+@[\w.-]+\.[a-zA-Z]{2,6}$
+    public static boolean isValidEmail(CharSequence email) {
+        int length = email.length();
+        int at = -1;
+        int lastDot = -1;
+        for (int i = 0; i < length; i++) {
+            char c = email.charAt(i);
+            if (c == '@') {
+                if (at >= 0) {
+                    return false;
+                }
+                at = i;
+            } else if (c == '.') {
+                if (at >= 0) {
+                    lastDot = i;
+                }
+            } else if (!isWordChar(c) && c != '-') {
+                return false;
+            }
+        }
+        // Non-empty local part, non-empty domain before the last dot, 2-6 letter top-level domain
+        if (at < 1 || lastDot < at + 2) {
+            return false;
+        }
+        int tldLength = length - lastDot - 1;
+        if (tldLength < 2 || tldLength > 6) {
+            return false;
+        }
+        for (int i = lastDot + 1; i < length; i++) {
+            char c = email.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    // Checks Validity of Phone Number
+    public static String checkPhoneNumber(String phone) throws InvalidPhoneNumberException {
+        if (isValidPhone(phone)) {
+            return phone;
+        } else {
+            throw new InvalidPhoneNumberException();
+        }
+    }
+
+    // Checks validity of Email Id
+    public static String checkEmail(String email) throws InvalidEmailException
+    {
+        if(isValidEmail(email))
+        {
+            return email;
+        }
+        else {
+            throw new InvalidEmailException();
+        }
+    }
+
+    // Checks whether a user provided Account Number exists
+    public static int accountExists(Connection conn, int acct_num) {
+
+        String acct_query = "SELECT acc_no FROM customers WHERE acc_no = ? AND closed_at IS NULL";
+        try (PreparedStatement preparedStatement = conn.prepareStatement(acct_query)) {
+            preparedStatement.setInt(1, acct_num);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+
+                    return acct_num;
+                }
+            }
+
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        }
+
+        return 0;
+    }
+
+    // Returns the updated Balance of an Account after performing any banking operation
+    public static double getUpdatedBalance(Connection conn, int acct_num) {
+        long cached = balanceCache.get(acct_num);
+        if (cached != BalanceCache.MISSING) {
+            return BalanceCache.fromCents(cached);
+        }
+
+        double updatedBalance = 0;
+        long start = System.nanoTime();
+        long readVersion = balanceCache.nextVersion();
+        String check_balance_query = "select balance from customers where acc_no = ? and closed_at is null";
+        try (PreparedStatement check_bal_preparedStatement = conn.prepareStatement(check_balance_query)) {
+            check_bal_preparedStatement.setInt(1, acct_num);
+            try (ResultSet resultSet = check_bal_preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    updatedBalance = resultSet.getDouble("balance");
+                    balanceCache.fill(acct_num, BalanceCache.toCents(updatedBalance), readVersion);
+                } else {
+                    System.out.println("Data not updated successfully.");
+                }
+            }
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        }
+        metrics.record(BankMetrics.Operation.BALANCE, start);
+        return updatedBalance;
+    }
+
+    // Records a committed operation in the journal and waits until it is durable. When that fails the operation is
+    // committed but can't be replayed: the caller gets an SQLException saying so, and the process stops taking writes.
+    static void journalRecord(byte type, int acct_num, int other_acct_num, double funds) throws SQLException {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.record(type, acct_num, other_acct_num, BalanceCache.toCents(funds));
+        } catch (IOException e) {
+            throw journalFailed(e);
+        }
+    }
+
+    // Marks the process non-durable after a journal write failed, and returns the exception for the callers whose
+    // committed operations are not in the journal
+    static SQLException journalFailed(IOException e) {
+        if (journalFailure == null) {
+            journalFailure = e;
+            System.out.println("Journal write failed, writes are refused from now on: " + e.getMessage());
+        }
+        metrics.journalFailure();
+        return new SQLException("Committed, but not journaled: " + e.getMessage(), e);
+    }
+
+    // Called by every write path before it changes anything: once the journal has failed, a commit could not be
+    // replayed, so writes are refused
+    static void requireJournal() throws SQLException {
+        IOException failure = journalFailure;
+        if (failure != null) {
+            throw new SQLException("Writes are refused: the transaction journal failed (" + failure.getMessage() + ").", failure);
+        }
+    }
+
+    // Counts a debit against the account's velocity limits, on every withdraw and transfer path; 0 when no limits are loaded
+    static long reserveVelocity(int acct_num, double funds) throws VelocityLimitExceededException {
+        VelocityLimits limits = velocityLimits;
+        return limits == null ? 0 : limits.reserve(acct_num, BalanceCache.toCents(funds));
+    }
+
+    // Hands back a reservation whose debit failed, rolled back or turned out to be a replay
+    static void releaseVelocity(int acct_num, double funds, long reservedAt) {
+        VelocityLimits limits = velocityLimits;
+        if (limits != null && reservedAt != 0) {
+            limits.release(acct_num, BalanceCache.toCents(funds), reservedAt);
+        }
+    }
+
+    // Tells the reconciler about a committed deposit (positive delta) or withdrawal (negative delta)
+    static void reconcileRecord(int acct_num, double balanceAfter, double delta) {
+        LedgerReconciler current = reconciler;
+        if (current != null) {
+            current.record(acct_num, balanceAfter, delta, true);
+        }
+    }
+
+    // Tells the reconciler about a committed transfer; balances are {debit balance, credit balance}
+    static void reconcileTransfer(int debit_acc_no, int credit_acc_no, double funds, double[] balances) {
+        LedgerReconciler current = reconciler;
+        if (current != null) {
+            current.record(debit_acc_no, balances[0], -funds, false);
+            current.record(credit_acc_no, balances[1], funds, false);
+        }
+    }
+
+    // Tells the read router these accounts just changed, so this process reads them from the primary until the
+    // replicas have the change
+    static void routeAfterWrite(int... acct_nums) {
+        ReadRouter current = readRouter;
+        if (current != null) {
+            for (int acct_num : acct_nums) {
+                current.wrote(acct_num);
+            }
+        }
+    }
+
+    // Inserts a new customer and returns the new Account Number (0 if the account was not created)
+    public static int openAccount(Connection conn, String cust_name, String phone_no, String email_id, double balance) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement preparedStatement = conn.prepareStatement(INSERT_CUSTOMER_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+            preparedStatement.setString(1, cust_name);
+            preparedStatement.setString(2, phone_no);
+            preparedStatement.setString(3, email_id);
+            preparedStatement.setDouble(4, balance);
+
+
+            int rowsInserted = preparedStatement.executeUpdate();
+
+            // The new acc_no comes back with the INSERT, no second lookup by phone
+            try (ResultSet keys = preparedStatement.getGeneratedKeys()) {
+                if (rowsInserted > 0 && keys.next()) {
+                    return keys.getInt(1);
+                }
+            }
+        } finally {
+            metrics.record(BankMetrics.Operation.OPEN_ACCOUNT, start);
+        }
+        return 0;
+    }
+
+    // Case 1: Customer Account Creation
+    public static void createNewAccount(BankService service, Scanner sc) {
+        try {
+
+            System.out.print("\nEnter Customer Name: ");
+            String cust_name = sc.nextLine();
+
+            String phone_no = "";
+            while (true) {
+                try {
+                    System.out.print("\nEnter Customer Phone Number: ");
+                    phone_no = checkPhoneNumber(sc.nextLine());
+                    break;
+                } catch (InvalidPhoneNumberException e) {
+                    System.out.println("Please enter valid Phone Number");
+                }
+
+            }
+
+            String email_id = "";
+            while (true){
+                try {
+                    System.out.print("\nEnter Customer Email Id: ");
+                    email_id = checkEmail(sc.nextLine());
+                    break;
+                } catch (InvalidEmailException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+
+            double balance = 0;
+            while (true) {
+                try {
+                    System.out.print("\nEnter your starting balance: ");
+                    balance = checkBalance(sc.nextDouble());
+                    sc.nextLine();
+                    break;
+                } catch (InvalidInitialBalanceException e) {
+                    System.out.println("Initial Balance must be more than Rs.0. Please retry.");
+                }
+            }
+
+
+            int acc_no = service.createAccount(cust_name, phone_no, email_id, balance);
+            System.out.println("New Customer Account " + acc_no + " created successfully!");
+        } catch (SQLIntegrityConstraintViolationException e) {
+            System.out.println("Phone Number Already Exists! Please Retry.");
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        } catch (InvalidPhoneNumberException | InvalidEmailException | InvalidInitialBalanceException e) {
+            // Already validated by the prompts above
+            System.out.println(e.getMessage());
+        }
+
+    }
+
+    // Case 2: View Account Balance
+    public static void viewBalance(BankService service, Scanner sc) {
+        while (true) {
+            try {
+                System.out.print("\nEnter the Account Number to view Balance: ");
+                int acct_input = sc.nextInt();
+                sc.nextLine();
+
+                System.out.println("Customer Balance is: " + service.getBalance(acct_input, REPLICA_MAX_STALENESS_MILLIS));
+                break;
+            } catch (SQLException e) {
+                metrics.sqlError();
+                System.out.println(e.getMessage());
+            } catch (InvalidAccountNumberException f) {
+                System.out.println(f.getMessage());
+            }
+        }
+    }
+
+    // Prompts until the teller enters an Account Number that exists
+    private static int promptAccount(BankService service, Scanner sc, String prompt) throws SQLException {
+        while (true) {
+            try {
+                System.out.print(prompt);
+                int acct_num = sc.nextInt();
+                sc.nextLine();
+                if (service.accountExists(acct_num, REPLICA_MAX_STALENESS_MILLIS)) {
+                    return acct_num;
+                } else {
+                    throw new InvalidAccountNumberException();
+                }
+            } catch (InvalidAccountNumberException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    // Case 5: Overloaded depositFunds Method for Crediting to Account (during Funds Transfer)
+    // Joins the caller's transaction, or runs its own when the connection is in auto-commit mode
+    public static void depositFunds(Connection conn, int acct_num, double funds) {
+
+        long start = System.nanoTime();
+        String deposit_query = DEPOSIT_QUERY;
+        try (PreparedStatement deposit_preparedStatement = conn.prepareStatement(deposit_query)) {
+            boolean ownTransaction = conn.getAutoCommit();
+            if (ownTransaction) {
+                conn.setAutoCommit(false);
+            }
+            try {
+                deposit_preparedStatement.setDouble(1, funds);
+                deposit_preparedStatement.setInt(2, acct_num);
+
+                int rowsAffected = deposit_preparedStatement.executeUpdate();
+                if (rowsAffected > 0) {
+                    double updatedBalance = readBalances(conn, acct_num, acct_num)[0];
+                    TransactionHistory.record(conn, acct_num, TransactionHistory.DEPOSIT, funds, updatedBalance, 0);
+                }
+                if (ownTransaction) {
+                    conn.commit();
+                }
+            } catch (SQLException e) {
+                if (ownTransaction) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    conn.setAutoCommit(true);
+                }
+            }
+
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        }
+        metrics.record(BankMetrics.Operation.DEPOSIT, start);
+
+    }
+
+    //Case 3: Deposit Funds to an Account
+    public static void depositFunds(BankService service, Scanner sc) {
+
+        try {
+            int acct_num = promptAccount(service, sc, "\nEnter the Account Number for depositing funds: ");
+
+            while (true) {
+                try {
+                    System.out.print("\nEnter the deposit amount: ");
+                    double funds = sc.nextDouble();
+                    sc.nextLine();
+
+                    double updatedBalance = service.deposit(acct_num, funds);
+                    System.out.println("Funds deposited successfully. Updated Balance: " + updatedBalance);
+                    break;
+                } catch (InvalidDepositFundsException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+
+        } catch (InvalidAccountNumberException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Funds not deposited successfully.");
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        }
+
+    }
+
+    // Case 5: Overloaded withdrawFunds Method for Depositing from Account (during Transfer Funds)
+    public static void withdrawFunds(Connection conn, int acct_num, double funds) {
+
+        String withdraw_query = "UPDATE customers SET balance = balance - ? WHERE acc_no = ? AND closed_at IS NULL";
+        try (PreparedStatement withdraw_preparedStatement = conn.prepareStatement(withdraw_query)) {
+
+            withdraw_preparedStatement.setDouble(1, funds);
+            withdraw_preparedStatement.setInt(2, acct_num);
+
+            int rowsAffected = withdraw_preparedStatement.executeUpdate();
+
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        }
+
+    }
+
+    // Guarded Withdraw: the debit only applies if the account exists and holds enough funds, so no separate
+    // existence or balance check is needed before it. Returns the new balance, read inside the caller's transaction.
+    public static double withdrawGuarded(Connection conn, int acct_num, double funds)
+            throws SQLException, InvalidAccountNumberException, InsufficientFundsException {
+
+        long start = System.nanoTime();
+        String guarded_withdraw_query = GUARDED_WITHDRAW_QUERY;
+        try (PreparedStatement withdraw_preparedStatement = conn.prepareStatement(guarded_withdraw_query)) {
+            withdraw_preparedStatement.setDouble(1, funds);
+            withdraw_preparedStatement.setInt(2, acct_num);
+            withdraw_preparedStatement.setDouble(3, funds);
+
+            if (withdraw_preparedStatement.executeUpdate() == 0) {
+                rejectDebit(conn, acct_num);
+            }
+            double updatedBalance = readBalances(conn, acct_num, acct_num)[0];
+            TransactionHistory.record(conn, acct_num, TransactionHistory.WITHDRAW, funds, updatedBalance, 0);
+            return updatedBalance;
+        } finally {
+            metrics.record(BankMetrics.Operation.WITHDRAW, start);
+        }
+    }
+
+    // Guarded Transfer: guarded debit followed by the credit, both inside the caller's transaction.
+    // Returns {debit balance, credit balance}; on any exception the caller must roll back.
+    public static double[] transferGuarded(Connection conn, int debit_acc_no, int credit_acc_no, double funds)
+            throws SQLException, InvalidAccountNumberException, InsufficientFundsException {
+
+        long start = System.nanoTime();
+        try {
+            return debitThenCredit(conn, debit_acc_no, credit_acc_no, funds);
+        } finally {
+            metrics.record(BankMetrics.Operation.TRANSFER, start);
+        }
+    }
+
+    private static double[] debitThenCredit(Connection conn, int debit_acc_no, int credit_acc_no, double funds)
+            throws SQLException, InvalidAccountNumberException, InsufficientFundsException {
+
+        String guarded_withdraw_query = GUARDED_WITHDRAW_QUERY;
+        try (PreparedStatement withdraw_preparedStatement = conn.prepareStatement(guarded_withdraw_query)) {
+            withdraw_preparedStatement.setDouble(1, funds);
+            withdraw_preparedStatement.setInt(2, debit_acc_no);
+            withdraw_preparedStatement.setDouble(3, funds);
+
+            if (withdraw_preparedStatement.executeUpdate() == 0) {
+                rejectDebit(conn, debit_acc_no);
+            }
+        }
+
+        String deposit_query = DEPOSIT_QUERY;
+        try (PreparedStatement deposit_preparedStatement = conn.prepareStatement(deposit_query)) {
+            deposit_preparedStatement.setDouble(1, funds);
+            deposit_preparedStatement.setInt(2, credit_acc_no);
+
+            if (deposit_preparedStatement.executeUpdate() == 0) {
+                throw new InvalidAccountNumberException();
+            }
+        }
+        double[] updatedBalances = readBalances(conn, debit_acc_no, credit_acc_no);
+        TransactionHistory.recordTransfer(conn, debit_acc_no, credit_acc_no, funds, updatedBalances[0], updatedBalances[1]);
+        return updatedBalances;
+    }
+
+    // A guarded debit that matched no row failed either because the account is missing or because it is short of funds.
+    // Only this rejection path pays for the lookup that tells the two apart.
+    private static void rejectDebit(Connection conn, int acct_num) throws InvalidAccountNumberException, InsufficientFundsException {
+        if (accountExists(conn, acct_num) == 0) {
+            throw new InvalidAccountNumberException();
+        }
+        metrics.insufficientFunds();
+        throw new InsufficientFundsException();
+    }
+
+    // Reads the balances of up to two accounts in a single query
+    static double[] readBalances(Connection conn, int first_acc_no, int second_acc_no) throws SQLException {
+        double[] balances = new double[2];
+        String balances_query = "SELECT acc_no, balance FROM customers WHERE acc_no IN (?, ?)";
+        try (PreparedStatement balances_preparedStatement = conn.prepareStatement(balances_query)) {
+            balances_preparedStatement.setInt(1, first_acc_no);
+            balances_preparedStatement.setInt(2, second_acc_no);
+            try (ResultSet resultSet = balances_preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    int acc_no = resultSet.getInt("acc_no");
+                    double balance = resultSet.getDouble("balance");
+                    if (acc_no == first_acc_no) {
+                        balances[0] = balance;
+                    }
+                    if (acc_no == second_acc_no) {
+                        balances[1] = balance;
+                    }
+                }
+            }
+        }
+        return balances;
+    }
+
+    // Case 4: Withdraw Funds from an Account
+    public static void withdrawFunds(BankService service, Scanner sc) {
+
+        try {
+            int acct_num = promptAccount(service, sc, "\nEnter the Account Number for withdrawing funds: ");
+
+            while (true) {
+                try {
+                    System.out.print("\nEnter the withdraw amount: ");
+                    double funds = sc.nextDouble();
+                    sc.nextLine();
+
+                    double updatedBalance = service.withdraw(acct_num, funds);
+                    System.out.println("Funds withdrawn successfully. Updated Balance: " + updatedBalance);
+                    break;
+                } catch (InsufficientFundsException e) {
+                    System.out.println("\nCurrent Account Balance is: " + service.getBalance(acct_num) + ".");
+                    System.out.println(e.getMessage());
+                } catch (InvalidDepositFundsException e) {
+                    System.out.println(e.getMessage());
+                } catch (VelocityLimitExceededException e) {
+                    // Another amount won't help with a count limit, so back to the menu
+                    System.out.println(e.getMessage());
+                    break;
+                }
+            }
+
+        } catch (InvalidAccountNumberException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Funds not withdrawn successfully.");
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        }
+
+    }
+
+
+    // Case 5: Transfer Funds (withdrawFunds + depositFunds) ==> Used Method Overloading
+    public static void transferFunds(BankService service, Scanner sc) {
+
+        try {
+            int debit_acc_no = promptAccount(service, sc, "\nEnter the Account Number from where funds will be debited: ");
+            int credit_acc_no = promptAccount(service, sc, "\nEnter the Account Number where funds will be credited: ");
+
+            while (true) {
+                try {
+                    System.out.print("\nEnter the amount of funds to be transferred: ");
+                    double funds = sc.nextDouble();
+                    sc.nextLine();
+
+                    double[] updatedBalances = service.transfer(debit_acc_no, credit_acc_no, funds);
+                    System.out.println("\nTransaction is successful.");
+                    System.out.println("Updated Balance in Debit Account: " + updatedBalances[0]);
+                    System.out.println("Updated Balance in Credit Account: " + updatedBalances[1]);
+
+                    break;
+                } catch (InsufficientFundsException e) {
+                    System.out.println("\nCurrent Account Balance is: " + service.getBalance(debit_acc_no) + ".");
+                    System.out.println(e.getMessage());
+                } catch (InvalidDepositFundsException e) {
+                    System.out.println(e.getMessage());
+                } catch (VelocityLimitExceededException e) {
+                    // Another amount won't help with a count limit, so back to the menu
+                    System.out.println(e.getMessage());
+                    break;
+                }
+            }
+
+        } catch (InvalidAccountNumberException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Transaction not successful.");
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        }
+    }
+
+    // Case 6: Customer Account Deletion
+    public static void deleteCustAccount(BankService service, Scanner sc) {
+        try {
+            int del_acct_num = promptAccount(service, sc, "\nEnter Customer Account Number to be deleted: ");
+
+            service.deleteAccount(del_acct_num);
+            System.out.println("Customer Account deleted successfully.");
+        } catch (InvalidAccountNumberException e) {
+            System.out.println("Customer Account not deleted successfully.");
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println(e.getMessage());
+        }
+
+    }
+
+    // Case 7: Search for a Customer by phone number, name or email
+    public static void searchCustomers(BankService service, Scanner sc) {
+        System.out.print("\nEnter Phone Number, the start of a Name, or the start of an Email Id: ");
+        String query = sc.nextLine();
+        try {
+            List<CustomerIndex.Customer> found = service.searchCustomers(query, CUSTOMER_SEARCH_LIMIT);
+            if (found.isEmpty()) {
+                System.out.println("No matching customer found.");
+                return;
+            }
+            System.out.println("\nAccount No  Name  Phone  Email Id");
+            for (CustomerIndex.Customer customer : found) {
+                System.out.println(customer);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    // Opens the journal in --journal=dir (JOURNAL_DIR by default). Without it committed operations could not be
+    // replayed, so a process that can't open it, e.g. because another process holds it, doesn't start.
+    private static boolean openJournal(String[] args) {
+        Path dir = Path.of(CliOptions.parse(args).getOrDefault("journal", JOURNAL_DIR));
+        try {
+            journal = new TransactionJournal(dir, JOURNAL_SEGMENT_SIZE);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Transaction journal not opened: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Fills the balance cache from the snapshot file, if there is a usable one; it is checked in the background
+    static void warmBalanceCache(ConnectionPool pool) {
+        Path file = Path.of(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            BalanceSnapshot snapshot = BalanceSnapshot.open(file);
+            int loaded = snapshot.warm(balanceCache, pool);
+            System.out.printf("Balance cache warmed with %d balances from %s in %.1f ms.%n", loaded, file,
+                    (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            System.out.println("Balance snapshot not used: " + e.getMessage());
+        }
+    }
+
+    // Loads every open account into the customer search index
+    static void buildCustomerIndex(ConnectionPool pool) {
+        try {
+            long start = System.nanoTime();
+            customerIndex = CustomerIndex.build(pool);
+            System.out.printf("Customer index built with %d customers in %.1f ms.%n", customerIndex.size(),
+                    (System.nanoTime() - start) / 1e6);
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println("Customer search disabled: " + e.getMessage());
+        }
+    }
+
+    // Replays the last day of withdrawals and transfers into the velocity limit windows
+    static void buildVelocityLimits(ConnectionPool pool) {
+        try {
+            long start = System.nanoTime();
+            VelocityLimits limits = new VelocityLimits(VELOCITY_TIERS);
+            limits.rebuild(pool);
+            velocityLimits = limits;
+            System.out.printf("Velocity limits rebuilt in %.1f ms: %s%n", (System.nanoTime() - start) / 1e6, limits);
+        } catch (SQLException e) {
+            metrics.sqlError();
+            System.out.println("Velocity limits disabled: " + e.getMessage());
+        }
+    }
+
+    private static void shutdown(ConnectionPool pool) {
+        metrics.stopDump();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        ReadRouter router = readRouter;
+        if (router != null) {
+            readRouter = null;
+            router.close();
+        }
+        pool.close();
+    }
+
+    // Starts routing balance reads to the replicas in REPLICA_URLS, or in --replica=url[,url] when given
+    private static void openReadRouter(ConnectionPool pool, String[] args) {
+        String option = CliOptions.parse(args).get("replica");
+        String[] urls = option != null ? option.split(",") : REPLICA_URLS;
+        if (urls.length == 0) {
+            return;
+        }
+        List<ConnectionPool> replicas = new ArrayList<>();
+        for (String replica_url : urls) {
+            replicas.add(new ConnectionPool(replica_url.trim(), username, password, POOL_MAX_SIZE, POOL_MIN_IDLE,
+                    POOL_BORROW_TIMEOUT_MILLIS, POOL_IDLE_TIMEOUT_MILLIS, POOL_LEAK_THRESHOLD_MILLIS, POOL_STATEMENT_CACHE_SIZE));
+        }
+        readRouter = new ReadRouter(pool, replicas, REPLICA_HEARTBEAT_MILLIS);
+        readRouter.start();
+    }
+
+    public static void main(String[] args) {
+
+        // Load JDBC Driver
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            System.out.println(e.getMessage());
+        }
+
+        // Connections are borrowed from the pool by each operation and returned when it completes
+        ConnectionPool pool = new ConnectionPool(url, username, password, POOL_MAX_SIZE, POOL_MIN_IDLE,
+                POOL_BORROW_TIMEOUT_MILLIS, POOL_IDLE_TIMEOUT_MILLIS, POOL_LEAK_THRESHOLD_MILLIS, POOL_STATEMENT_CACHE_SIZE);
+        pool.setLeakTrace(CliOptions.parse(args).containsKey("pool-leak-trace"));
+        metrics.attachPool(pool);
+        metrics.registerMBean();
+        metrics.startDump(METRICS_DUMP_SECONDS);
+        openReadRouter(pool, args);
+
+        // Non-interactive commands
+        if (args.length > 0) {
+            switch (args[0]) {
+                case "ingest":
+                    if (openJournal(args)) {
+                        BulkIngest.run(pool, args);
+                    }
+                    break;
+                case "onboard":
+                    if (openJournal(args)) {
+                        CustomerOnboarding.run(pool, args);
+                    }
+                    break;
+                case "replay-journal":
+                    TransactionJournal.run(pool, args);
+                    break;
+                case "bench":
+                    BankingBenchmark.run(args);
+                    break;
+                case "loadgen":
+                    LoadGenerator.run(args);
+                    break;
+                case "snapshot":
+                    try {
+                        Path file = Path.of(args.length > 1 ? args[1] : SNAPSHOT_FILE);
+                        System.out.println("Wrote " + BalanceSnapshot.write(pool, file) + " balances to " + file + ".");
+                    } catch (SQLException | IOException e) {
+                        System.out.println(e.getMessage());
+                    }
+                    break;
+                case "statement":
+                    TransactionHistory.run(pool, args);
+                    break;
+                case "eod":
+                    if (openJournal(args)) {
+                        BatchRunner.run(pool, args);
+                    }
+                    break;
+                case "purge":
+                    AccountPurger.run(pool, args);
+                    break;
+                case "serve":
+                    if (!openJournal(args)) {
+                        break;
+                    }
+                    warmBalanceCache(pool);
+                    buildCustomerIndex(pool);
+                    buildVelocityLimits(pool);
+                    BankServer.run(pool, args);
+                    break;
+                default:
+                    System.out.println("Unknown command: " + args[0]);
+            }
+            shutdown(pool);
+            return;
+        }
+
+        if (!openJournal(args)) {
+            shutdown(pool);
+            return;
+        }
+        warmBalanceCache(pool);
+        buildCustomerIndex(pool);
+        buildVelocityLimits(pool);
+
+        Scanner sc = new Scanner(System.in);
+        BankService service = new BankService(pool);
+
+        // Loop to implement multiple banking operations
+        while (true) {
+            System.out.println("\n================== WELCOME TO ABC BANK ==========================");
+            System.out.println("=================== TELLER POINT OF VIEW ==========================");
+            System.out.println("\nPress 1 for Account Creation.\nPress 2 to Check Balance.\nPress 3 to Deposit Funds.\nPress 4 to Withdraw Funds.\nPress 5 to Transfer Funds.\nPress 6 to Delete a Customer Account.\nPress 7 to Search for a Customer.\nPress 8 to Exit.");
+            System.out.print("\nSelect an option: ");
+            int option = sc.nextInt();
+            sc.nextLine();
+
+            switch (option) {
+                case 1:
+                    //================= CREATE NEW BANK ACCOUNT FOR NEW CUSTOMER ====================
+                    while (true) {
+                        createNewAccount(service, sc);
+                        System.out.print("\nAdd another account (Y/N): ");
+                        String choice = sc.nextLine();
+                        if (choice.toUpperCase().equals("N")) {
+                            break;
+                        }
+                    }
+                    // ============================================================================
+                    break;
+                case 2:
+                    // ========================== VIEW ACCOUNT BALANCE ==============================
+
+                    while (true) {
+                        viewBalance(service, sc);
+                        System.out.print("\nDo you want to check another balance(Y/N): ");
+                        String choice = sc.nextLine();
+                        if (choice.toUpperCase().equals(("N"))) {
+                            break;
+                        }
+
+                    }
+                    // ==============================================================================
+                    break;
+                case 3:
+                    // ========================= DEPOSIT FUNDS ===========================
+                    while (true) {
+                        depositFunds(service, sc);
+                        System.out.print("\nDo you want to add more funds(Y/N): ");
+                        String choice = sc.nextLine();
+                        if (choice.toUpperCase().equals(("N"))) {
+                            break;
+                        }
+                    }
+                    // ===================================================================
+                    break;
+                case 4:
+                    // ========================= WITHDRAWAL OF FUNDS ===========================
+                    while (true) {
+                        withdrawFunds(service, sc);
+                        System.out.print("\nDo you want to withdraw more funds(Y/N): ");
+                        String choice = sc.nextLine();
+                        if (choice.toUpperCase().equals(("N"))) {
+                            break;
+                        }
+                    }
+                    // ===================================================================
+                    break;
+                case 5:
+                    // ======================== TRANSFER FUNDS =============================
+                    while (true) {
+                        transferFunds(service, sc);
+                        System.out.print("\nDo you want to transfer more funds(Y/N): ");
+                        String choice = sc.nextLine();
+                        if (choice.toUpperCase().equals(("N"))) {
+                            break;
+                        }
+                    }
+                    // =====================================================================
+                    break;
+                case 6:
+                    // ======================== DELETE CUSTOMER ACCOUNT =============================
+                    while (true) {
+                        deleteCustAccount(service, sc);
+                        System.out.print("\nDo you want to delete another Customer Account(Y/N): ");
+                        String choice = sc.nextLine();
+                        if (choice.toUpperCase().equals(("N"))) {
+                            break;
+                        }
+                    }
+                    // ========================================================================
+                    break;
+                case 7:
+                    // ======================== SEARCH FOR A CUSTOMER =============================
+                    while (true) {
+                        searchCustomers(service, sc);
+                        System.out.print("\nDo you want to search again(Y/N): ");
+                        String choice = sc.nextLine();
+                        if (choice.toUpperCase().equals(("N"))) {
+                            break;
+                        }
+                    }
+                    // ==============================================================================
+                    break;
+                case 8:
+                    shutdown(pool);
+                    System.out.println("\n============ \uD83D\uDE0A THANK YOU AND HAVE A GREAT DAY! \uD83D\uDE0A ================");
+                    System.exit(0);
+                default:
+                    System.out.println("Please select from provided options.");
+
+
+            }
+
+
+        }
+
+
+    }
+
+}
@@ -0,0 +1,206 @@
+package banking;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// ============ PER-CONNECTION PREPARED STATEMENT CACHE ===========
+
+public class StatementCache {
+
+    // Hit/Miss counters shared by every cache of one pool
+    public static class Stats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private final AtomicLong bypasses = new AtomicLong();
+        private final LongAdder executions = new LongAdder();
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        // Statements prepared outside the cache because the cached one was still open
+        public long getBypasses() {
+            return bypasses.get();
+        }
+
+        // Statement executions, each one a round trip to the database
+        public long getExecutions() {
+            return executions.sum();
+        }
+
+        public double getHitRate() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("StatementCache[hits=%d, misses=%d, hitRate=%.2f%%, evictions=%d, bypasses=%d]",
+                    getHits(), getMisses(), getHitRate() * 100, getEvictions(), getBypasses());
+        }
+    }
+
+    private final Connection physical;
+    private final int capacity;
+    private final Stats stats;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    public StatementCache(Connection physical, int capacity, Stats stats) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.stats = stats;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= StatementCache.this.capacity) {
+                    return false;
+                }
+                stats.evictions.incrementAndGet();
+                CachedStatement cs = eldest.getValue();
+                if (cs.inUse) {
+                    // Closed for real once the borrower is done with it
+                    cs.evicted = true;
+                } else {
+                    closeQuietly(cs.statement);
+                }
+                return true;
+            }
+        };
+    }
+
+    // Returns the cached statement for this SQL text, preparing it on the first request.
+    // The returned statement's close() hands it back to the cache instead of closing it.
+    public synchronized PreparedStatement prepare(Connection owner, String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "#keys:" + sql : sql;
+        CachedStatement cs = statements.get(key);
+
+        if (cs != null && cs.inUse) {
+            // Same SQL already open on this connection (e.g. nested use), give the caller a private statement
+            stats.bypasses.incrementAndGet();
+            CachedStatement uncached = new CachedStatement(physical.prepareStatement(sql, autoGeneratedKeys));
+            uncached.evicted = true;
+            uncached.inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new Handle(uncached, owner));
+        }
+
+        if (cs == null) {
+            stats.misses.incrementAndGet();
+            cs = new CachedStatement(physical.prepareStatement(sql, autoGeneratedKeys));
+            statements.put(key, cs);
+        } else {
+            stats.hits.incrementAndGet();
+        }
+
+        cs.inUse = true;
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new Handle(cs, owner));
+    }
+
+    private synchronized void giveBack(CachedStatement cs) {
+        cs.inUse = false;
+        if (cs.evicted) {
+            closeQuietly(cs.statement);
+            return;
+        }
+        try {
+            cs.statement.clearParameters();
+            cs.statement.clearBatch();
+        } catch (SQLException e) {
+            statements.values().remove(cs);
+            closeQuietly(cs.statement);
+        }
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    // Closes every cached statement, called when the physical connection is closed
+    public synchronized void closeAll() {
+        for (CachedStatement cs : statements.values()) {
+            closeQuietly(cs.statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static final class CachedStatement {
+        final PreparedStatement statement;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    // Proxy handler that turns close() into a return to the cache
+    private final class Handle implements InvocationHandler {
+        private final CachedStatement cs;
+        private final Connection owner;
+        private boolean returned = false;
+
+        Handle(CachedStatement cs, Connection owner) {
+            this.cs = cs;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(cs);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || cs.statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cs.statement + "]";
+                default:
+                    if (returned) {
+                        throw new SQLException("Statement has already been closed.");
+                    }
+                    if (method.getName().startsWith("execute")) {
+                        stats.executions.increment();
+                    }
+                    try {
+                        return method.invoke(cs.statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
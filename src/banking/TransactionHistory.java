@@ -0,0 +1,216 @@
+package banking;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+// ============ TRANSACTION HISTORY (LEDGER TABLE) ===========
+// Every deposit, withdrawal, transfer and interest credit adds rows to the transactions table inside the same
+// transaction that moves the money, so the history and the balances always commit (or roll back) together.
+//
+// Statements are read with keyset pagination (WHERE txn_id > last seen ORDER BY txn_id LIMIT n) rather than
+// OFFSET, so every page costs the same no matter how deep into the history it is, and each page is streamed
+// from the server with a bounded fetch size. Memory stays constant whether an account has ten entries or ten million.
+
+public class TransactionHistory {
+
+    public static final String DEPOSIT = "DEPOSIT";
+    public static final String WITHDRAW = "WITHDRAW";
+    public static final String TRANSFER_OUT = "TRANSFER_OUT";
+    public static final String TRANSFER_IN = "TRANSFER_IN";
+    public static final String INTEREST = "INTEREST";
+
+    static final String INSERT_TRANSACTION_QUERY = "INSERT INTO transactions(acc_no, type, amount, balance_after, counterparty) "
+            + "VALUES(?,?,?,?,?)";
+
+    private static final int MAX_FETCH_SIZE = 1_000;
+
+    public static class Entry {
+        public final long txnId;
+        public final int accNo;
+        public final String type;
+        public final double amount;
+        // NaN when the operation was applied in a batch that doesn't read balances back (bulk ingest)
+        public final double balanceAfter;
+        // 0 when there is no other account
+        public final int counterparty;
+        public final Timestamp createdAt;
+
+        Entry(long txnId, int accNo, String type, double amount, double balanceAfter, int counterparty, Timestamp createdAt) {
+            this.txnId = txnId;
+            this.accNo = accNo;
+            this.type = type;
+            this.amount = amount;
+            this.balanceAfter = balanceAfter;
+            this.counterparty = counterparty;
+            this.createdAt = createdAt;
+        }
+
+        String toCsv() {
+            return txnId + "," + createdAt + "," + accNo + "," + type + "," + amount + ","
+                    + (Double.isNaN(balanceAfter) ? "" : String.valueOf(balanceAfter)) + ","
+                    + (counterparty == 0 ? "" : String.valueOf(counterparty));
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"txn_id\": %d, \"created_at\": \"%s\", \"acc_no\": %d, \"type\": \"%s\", "
+                            + "\"amount\": %.2f, \"balance_after\": %s, \"counterparty\": %s}",
+                    txnId, createdAt, accNo, type, amount,
+                    Double.isNaN(balanceAfter) ? "null" : String.format(Locale.ROOT, "%.2f", balanceAfter),
+                    counterparty == 0 ? "null" : String.valueOf(counterparty));
+        }
+    }
+
+    // Adds one history row in the caller's transaction. Pass Double.NaN when the balance after is not known.
+    public static void record(Connection conn, int acc_no, String type, double amount, double balanceAfter, int counterparty)
+            throws SQLException {
+        try (PreparedStatement history_preparedStatement = conn.prepareStatement(INSERT_TRANSACTION_QUERY)) {
+            bind(history_preparedStatement, acc_no, type, amount, balanceAfter, counterparty);
+            history_preparedStatement.executeUpdate();
+        }
+    }
+
+    // Both legs of a transfer in one batched round trip
+    public static void recordTransfer(Connection conn, int debit_acc_no, int credit_acc_no, double funds,
+                                      double debitBalance, double creditBalance) throws SQLException {
+        try (PreparedStatement history_preparedStatement = conn.prepareStatement(INSERT_TRANSACTION_QUERY)) {
+            bind(history_preparedStatement, debit_acc_no, TRANSFER_OUT, funds, debitBalance, credit_acc_no);
+            history_preparedStatement.addBatch();
+            bind(history_preparedStatement, credit_acc_no, TRANSFER_IN, funds, creditBalance, debit_acc_no);
+            history_preparedStatement.addBatch();
+            history_preparedStatement.executeBatch();
+        }
+    }
+
+    static void bind(PreparedStatement history_preparedStatement, int acc_no, String type, double amount, double balanceAfter,
+                     int counterparty) throws SQLException {
+        history_preparedStatement.setInt(1, acc_no);
+        history_preparedStatement.setString(2, type);
+        history_preparedStatement.setDouble(3, amount);
+        if (Double.isNaN(balanceAfter)) {
+            history_preparedStatement.setNull(4, Types.DOUBLE);
+        } else {
+            history_preparedStatement.setDouble(4, balanceAfter);
+        }
+        if (counterparty == 0) {
+            history_preparedStatement.setNull(5, Types.INTEGER);
+        } else {
+            history_preparedStatement.setInt(5, counterparty);
+        }
+    }
+
+    // Reads up to limit entries with txn_id > afterTxnId, for one account (acc_no != 0) or the whole bank,
+    // oldest first. Returns the txn_id to pass as afterTxnId for the next page (unchanged when there are no more).
+    public static long page(Connection conn, int acc_no, long afterTxnId, int limit, Consumer<Entry> consumer) throws SQLException {
+        String page_query = "SELECT txn_id, acc_no, type, amount, balance_after, counterparty, created_at FROM transactions "
+                + (acc_no != 0 ? "WHERE acc_no = ? AND txn_id > ? " : "WHERE txn_id > ? ")
+                + "ORDER BY txn_id LIMIT ?";
+        long last = afterTxnId;
+        try (PreparedStatement page_preparedStatement = conn.prepareStatement(page_query)) {
+            int i = 1;
+            if (acc_no != 0) {
+                page_preparedStatement.setInt(i++, acc_no);
+            }
+            page_preparedStatement.setLong(i++, afterTxnId);
+            page_preparedStatement.setInt(i, limit);
+            page_preparedStatement.setFetchSize(Math.min(limit, MAX_FETCH_SIZE));
+            try (ResultSet resultSet = page_preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    double balanceAfter = resultSet.getDouble("balance_after");
+                    if (resultSet.wasNull()) {
+                        balanceAfter = Double.NaN;
+                    }
+                    last = resultSet.getLong("txn_id");
+                    consumer.accept(new Entry(last, resultSet.getInt("acc_no"), resultSet.getString("type"),
+                            resultSet.getDouble("amount"), balanceAfter, resultSet.getInt("counterparty"),
+                            resultSet.getTimestamp("created_at")));
+                }
+            }
+        }
+        return last;
+    }
+
+    // Streams the whole history (of one account, or all when acc_no is 0) as CSV, one page per borrowed
+    // connection so an export never pins a connection or a snapshot for its whole duration.
+    public static long export(ConnectionPool pool, int acc_no, long afterTxnId, int pageSize, Writer out)
+            throws SQLException, IOException {
+        // An empty page would end nothing: the cursor only moves on a full one
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        out.write("txn_id,created_at,acc_no,type,amount,balance_after,counterparty\n");
+        long exported = 0;
+        long cursor = afterTxnId;
+        long[] count = new long[1];
+        IOException[] failure = new IOException[1];
+        while (true) {
+            count[0] = 0;
+            long next;
+            try (Connection conn = pool.borrow()) {
+                next = page(conn, acc_no, cursor, pageSize, entry -> {
+                    count[0]++;
+                    if (failure[0] == null) {
+                        try {
+                            out.write(entry.toCsv());
+                            out.write('\n');
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    }
+                });
+            }
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            exported += count[0];
+            if (count[0] < pageSize) {
+                return exported;
+            }
+            cursor = next;
+        }
+    }
+
+    // Command line entry: statement <acc_no|all> [--after=txn_id] [--page-size=N] [--out=file]
+    public static void run(ConnectionPool pool, String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java -jar simple-banking-system.jar statement <acc_no|all> [--after=txn_id] [--page-size=N] [--out=file]");
+            return;
+        }
+        Map<String, String> options = CliOptions.parse(args);
+        int acc_no = args[1].equals("all") ? 0 : Integer.parseInt(args[1]);
+        long after = Long.parseLong(options.getOrDefault("after", "0"));
+        int pageSize = Integer.parseInt(options.getOrDefault("page-size", "10000"));
+        if (pageSize < 1) {
+            System.out.println("--page-size must be at least 1.");
+            return;
+        }
+
+        Writer out = null;
+        try {
+            // Without --out the statement goes to the console, which must stay open afterwards
+            out = options.containsKey("out")
+                    ? Files.newBufferedWriter(Path.of(options.get("out")), StandardCharsets.UTF_8)
+                    : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            long exported = export(pool, acc_no, after, pageSize, out);
+            out.flush();
+            System.err.println(exported + " transactions exported.");
+        } catch (SQLException | IOException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            if (out != null && options.containsKey("out")) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// ============ APPEND-ONLY TRANSACTION JOURNAL ===========
+// Binary journal of every committed operation, written through memory-mapped segment files.
+// Committers append their record and then wait for it to be durable; a single flusher thread forces
+// everything appended so far with one fsync, so concurrent committers share the cost (group commit).
+//
+// Segment files are named journal-<first lsn>.log and pre-sized to segmentSize bytes. Every record is
+// RECORD_SIZE bytes:  lsn(8) | timestamp millis(8) | type(1) + padding(3) | acc_no(4) | other acc_no(4) |
+// amount cents(8) | crc32 of the preceding 36 bytes(4). Readers stop at the first zero lsn or bad checksum.
+//
+// One process at a time: the journal holds an exclusive lock on LOCK_FILE in its directory while it is open, and
+// a second process (or a restore) pointed at the same directory is refused instead of appending over its records.
+
+public class TransactionJournal implements AutoCloseable {
+
+    public static final byte CREATE = 1;
+    public static final byte DEPOSIT = 2;
+    public static final byte WITHDRAW = 3;
+    public static final byte TRANSFER = 4;
+    public static final byte DELETE = 5;
+
+    public static final int RECORD_SIZE = 40;
+    public static final String LOCK_FILE = "journal.lock";
+    private static final int CRC_OFFSET = 36;
+
+    public static class Record {
+        public final long lsn;
+        public final long timestamp;
+        public final byte type;
+        public final int accNo;
+        public final int otherAccNo;
+        public final long amountCents;
+
+        Record(long lsn, long timestamp, byte type, int accNo, int otherAccNo, long amountCents) {
+            this.lsn = lsn;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.accNo = accNo;
+            this.otherAccNo = otherAccNo;
+            this.amountCents = amountCents;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + lsn + " " + typeName(type) + " acc_no=" + accNo
+                    + (type == TRANSFER ? " -> " + otherAccNo : "") + " amount=" + BalanceCache.fromCents(amountCents);
+        }
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final FileLock dirLock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int position;
+    private long lastLsn;
+    private long durableLsn;
+    private long syncCount;
+    private IOException flushFailure;
+    private boolean closed = false;
+
+    public TransactionJournal(Path dir, int segmentSize) throws IOException {
+        if (segmentSize < RECORD_SIZE || segmentSize % RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("segmentSize must be a positive multiple of " + RECORD_SIZE);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.dirLock = lock(dir);
+
+        try {
+            // Continue after the last valid record of the newest segment
+            List<Path> segments = segments(dir);
+            if (segments.isEmpty()) {
+                openSegment(1);
+            } else {
+                Path newest = segments.get(segments.size() - 1);
+                channel = FileChannel.open(newest, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+                lastLsn = firstLsn(newest) - 1;
+                position = 0;
+                while (position + RECORD_SIZE <= segmentSize) {
+                    Record record = decode(segment, position);
+                    if (record == null) {
+                        break;
+                    }
+                    lastLsn = record.lsn;
+                    position += RECORD_SIZE;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            dirLock.channel().close();
+            throw e;
+        }
+        durableLsn = lastLsn;
+
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Appends a record and waits until it is on disk
+    public long record(byte type, int acc_no, int other_acc_no, long amountCents) throws IOException {
+        long lsn = append(type, acc_no, other_acc_no, amountCents);
+        awaitDurable(lsn);
+        return lsn;
+    }
+
+    // Appends a record without waiting; pair with awaitDurable() to acknowledge a group of records at once
+    public long append(byte type, int acc_no, int other_acc_no, long amountCents) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Journal is closed.");
+            }
+            if (flushFailure != null) {
+                throw new IOException("Journal flush failed.", flushFailure);
+            }
+            if (position + RECORD_SIZE > segmentSize) {
+                rollOver();
+            }
+            long lsn = ++lastLsn;
+            encode(segment, position, lsn, System.currentTimeMillis(), type, acc_no, other_acc_no, amountCents);
+            position += RECORD_SIZE;
+            appended.signal();
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks until every record up to lsn has been forced to disk
+    public void awaitDurable(long lsn) throws IOException {
+        lock.lock();
+        try {
+            while (durableLsn < lsn) {
+                if (flushFailure != null) {
+                    throw new IOException("Journal flush failed.", flushFailure);
+                }
+                if (closed) {
+                    throw new IOException("Journal closed before record " + lsn + " was durable.");
+                }
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLastLsn() {
+        lock.lock();
+        try {
+            return lastLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Number of fsyncs issued; compare with getLastLsn() to see how well commits are grouped
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            MappedByteBuffer toForce;
+            lock.lock();
+            try {
+                while (durableLsn == lastLsn && !closed) {
+                    appended.awaitUninterruptibly();
+                }
+                if (closed && durableLsn == lastLsn) {
+                    return;
+                }
+                target = lastLsn;
+                toForce = segment;
+            } finally {
+                lock.unlock();
+            }
+
+            // Force outside the lock so committers can keep appending meanwhile
+            IOException failure = null;
+            try {
+                toForce.force();
+            } catch (RuntimeException e) {
+                failure = new IOException(e.getMessage(), e);
+            }
+
+            lock.lock();
+            try {
+                if (failure != null) {
+                    flushFailure = failure;
+                } else {
+                    durableLsn = Math.max(durableLsn, target);
+                    syncCount++;
+                }
+                flushed.signalAll();
+                if (failure != null) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Called with the lock held: seals the full segment and starts the next one
+    private void rollOver() throws IOException {
+        segment.force();
+        channel.close();
+        openSegment(lastLsn + 1);
+    }
+
+    private void openSegment(long firstLsn) throws IOException {
+        Path file = dir.resolve(String.format("journal-%020d.log", firstLsn));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            segment.force();
+            channel.close();
+        } finally {
+            lock.unlock();
+            // Closing the channel releases the lock
+            dirLock.channel().close();
+        }
+    }
+
+    // Takes the exclusive lock on the journal directory, creating the directory when needed. The lock is held until
+    // the returned lock's channel is closed; it fails when another process, or this one, already holds it.
+    public static FileLock lock(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock dirLock;
+        try {
+            dirLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            dirLock = null;
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (dirLock == null) {
+            lockChannel.close();
+            throw new IOException("Journal " + dir + " is in use by another process.");
+        }
+        return dirLock;
+    }
+
+    // ======================== READING AND REPLAY ========================
+
+    // Reads every valid record of every segment, oldest first
+    public static void read(Path dir, Consumer<Record> consumer) throws IOException {
+        for (Path file : segments(dir)) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                for (int pos = 0; pos + RECORD_SIZE <= buffer.capacity(); pos += RECORD_SIZE) {
+                    Record record = decode(buffer, pos);
+                    if (record == null) {
+                        break;
+                    }
+                    consumer.accept(record);
+                }
+            }
+        }
+    }
+
+    // Reads the journals of several processes (the server's, an eod run's) as one: records are merged by timestamp,
+    // and each directory's records keep their own order
+    public static void read(List<Path> dirs, Consumer<Record> consumer) throws IOException {
+        List<List<Record>> journals = new ArrayList<>();
+        for (Path dir : dirs) {
+            List<Record> records = new ArrayList<>();
+            read(dir, records::add);
+            journals.add(records);
+        }
+        int[] next = new int[journals.size()];
+        while (true) {
+            int oldest = -1;
+            for (int i = 0; i < journals.size(); i++) {
+                if (next[i] < journals.get(i).size() && (oldest < 0
+                        || journals.get(i).get(next[i]).timestamp < journals.get(oldest).get(next[oldest]).timestamp)) {
+                    oldest = i;
+                }
+            }
+            if (oldest < 0) {
+                return;
+            }
+            consumer.accept(journals.get(oldest).get(next[oldest]++));
+        }
+    }
+
+    // Rebuilds balances (in cents) of every account whose creation is in the journal
+    public static Map<Integer, Long> replay(Path dir) throws IOException {
+        return replay(List.of(dir));
+    }
+
+    public static Map<Integer, Long> replay(List<Path> dirs) throws IOException {
+        Map<Integer, Long> balances = new HashMap<>();
+        read(dirs, record -> {
+            switch (record.type) {
+                case CREATE:
+                    balances.put(record.accNo, record.amountCents);
+                    break;
+                case DEPOSIT:
+                    balances.computeIfPresent(record.accNo, (k, v) -> v + record.amountCents);
+                    break;
+                case WITHDRAW:
+                    balances.computeIfPresent(record.accNo, (k, v) -> v - record.amountCents);
+                    break;
+                case TRANSFER:
+                    balances.computeIfPresent(record.accNo, (k, v) -> v - record.amountCents);
+                    balances.computeIfPresent(record.otherAccNo, (k, v) -> v + record.amountCents);
+                    break;
+                case DELETE:
+                    balances.remove(record.accNo);
+                    break;
+                default:
+            }
+        });
+        return balances;
+    }
+
+    // Writes replayed balances back to the customers table in one transaction; returns rows updated
+    public static int restore(Connection conn, Map<Integer, Long> balances) throws SQLException {
+        String restore_query = "UPDATE customers SET balance = ? WHERE acc_no = ?";
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement restore_preparedStatement = conn.prepareStatement(restore_query)) {
+            int pending = 0;
+            int restored = 0;
+            for (Map.Entry<Integer, Long> entry : balances.entrySet()) {
+                restore_preparedStatement.setDouble(1, BalanceCache.fromCents(entry.getValue()));
+                restore_preparedStatement.setInt(2, entry.getKey());
+                restore_preparedStatement.addBatch();
+                if (++pending == 1000) {
+                    restored += sum(restore_preparedStatement.executeBatch());
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                restored += sum(restore_preparedStatement.executeBatch());
+            }
+            conn.commit();
+            return restored;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Command line entry: replay-journal <dir>[,<dir>...] [--apply]
+    public static void run(ConnectionPool pool, String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java -jar simple-banking-system.jar replay-journal <dir>[,<dir>...] [--apply]");
+            return;
+        }
+        List<Path> dirs = new ArrayList<>();
+        for (String dir : args[1].split(",")) {
+            dirs.add(Path.of(dir));
+        }
+        try {
+            Map<Integer, Long> balances = replay(dirs);
+            System.out.println("Replayed balances for " + balances.size() + " accounts.");
+            if (args.length > 2 && args[2].equals("--apply")) {
+                // Not while a running process is still appending to one of the journals
+                List<FileChannel> lockChannels = new ArrayList<>();
+                try {
+                    for (Path dir : dirs) {
+                        lockChannels.add(lock(dir).channel());
+                    }
+                    try (Connection conn = pool.borrow()) {
+                        System.out.println("Restored " + restore(conn, balances) + " customer balances.");
+                    }
+                } finally {
+                    for (FileChannel lockChannel : lockChannels) {
+                        lockChannel.close();
+                    }
+                }
+                SimpleBankingSystem.balanceCache.clear();
+            } else {
+                for (Map.Entry<Integer, Long> entry : new TreeMap<>(balances).entrySet()) {
+                    System.out.println(entry.getKey() + "\t" + BalanceCache.fromCents(entry.getValue()));
+                }
+            }
+        } catch (IOException | SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public static String typeName(byte type) {
+        switch (type) {
+            case CREATE:
+                return "CREATE";
+            case DEPOSIT:
+                return "DEPOSIT";
+            case WITHDRAW:
+                return "WITHDRAW";
+            case TRANSFER:
+                return "TRANSFER";
+            case DELETE:
+                return "DELETE";
+            default:
+                return "UNKNOWN(" + type + ")";
+        }
+    }
+
+    private static int sum(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return total;
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "journal-*.log")) {
+            for (Path file : stream) {
+                segments.add(file);
+            }
+        }
+        segments.sort(Comparator.comparing(Path::toString));
+        return segments;
+    }
+
+    private static long firstLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    private static void encode(ByteBuffer buffer, int pos, long lsn, long timestamp, byte type,
+                               int acc_no, int other_acc_no, long amountCents) {
+        buffer.putLong(pos, lsn);
+        buffer.putLong(pos + 8, timestamp);
+        buffer.put(pos + 16, type);
+        buffer.put(pos + 17, (byte) 0);
+        buffer.putShort(pos + 18, (short) 0);
+        buffer.putInt(pos + 20, acc_no);
+        buffer.putInt(pos + 24, other_acc_no);
+        buffer.putLong(pos + 28, amountCents);
+        buffer.putInt(pos + CRC_OFFSET, crc(buffer, pos));
+    }
+
+    private static Record decode(ByteBuffer buffer, int pos) {
+        long lsn = buffer.getLong(pos);
+        if (lsn == 0 || buffer.getInt(pos + CRC_OFFSET) != crc(buffer, pos)) {
+            return null;
+        }
+        return new Record(lsn, buffer.getLong(pos + 8), buffer.get(pos + 16),
+                buffer.getInt(pos + 20), buffer.getInt(pos + 24), buffer.getLong(pos + 28));
+    }
+
+    private static int crc(ByteBuffer buffer, int pos) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(pos, CRC_OFFSET));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,318 @@
+package banking;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// ============ CONCURRENT TRANSFER ENGINE ===========
+// Runs transfers in parallel on a worker pool. Each transfer locks both rows in ascending acc_no order
+// before moving money, so two opposite transfers can never deadlock each other, and retries with backoff
+// when the database still reports a deadlock or serialization failure.
+
+public class TransferEngine implements AutoCloseable {
+
+    // MySQL error codes for a deadlock and a lock wait timeout
+    private static final int ER_LOCK_DEADLOCK = 1213;
+    private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+
+    public static class TransferRequest {
+        public final int debitAccNo;
+        public final int creditAccNo;
+        public final double funds;
+
+        public TransferRequest(int debitAccNo, int creditAccNo, double funds) {
+            this.debitAccNo = debitAccNo;
+            this.creditAccNo = creditAccNo;
+            this.funds = funds;
+        }
+
+        @Override
+        public String toString() {
+            return debitAccNo + " -> " + creditAccNo + " : " + funds;
+        }
+    }
+
+    public static class TransferResult {
+        public final TransferRequest request;
+        public final boolean success;
+        public final String failure;
+        public final double debitBalance;
+        public final double creditBalance;
+        public final int attempts;
+
+        private TransferResult(TransferRequest request, boolean success, String failure,
+                               double debitBalance, double creditBalance, int attempts) {
+            this.request = request;
+            this.success = success;
+            this.failure = failure;
+            this.debitBalance = debitBalance;
+            this.creditBalance = creditBalance;
+            this.attempts = attempts;
+        }
+
+        @Override
+        public String toString() {
+            return success
+                    ? "Transfer " + request + " successful. Debit balance: " + debitBalance + ", Credit balance: " + creditBalance
+                    : "Transfer " + request + " not successful: " + failure;
+        }
+    }
+
+    public static class Report {
+        public final long submitted;
+        public final long succeeded;
+        public final long failed;
+        public final long retries;
+        public final long elapsedNanos;
+
+        private Report(long submitted, long succeeded, long failed, long retries, long elapsedNanos) {
+            this.submitted = submitted;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.retries = retries;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        // Completed transfers (successful or rejected) per second
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : (succeeded + failed) * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Transfers: %d submitted, %d succeeded, %d failed, %d retries in %.1f ms (%.1f transfers/sec)",
+                    submitted, succeeded, failed, retries, elapsedNanos / 1_000_000.0, getThroughput());
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final ExecutorService workers;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    public TransferEngine(ConnectionPool pool, int workerCount, int maxAttempts, long baseBackoffMillis) {
+        if (workerCount <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("workerCount and maxAttempts must be positive");
+        }
+        this.pool = pool;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = Math.max(baseBackoffMillis, 1_000);
+        this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "transfer-worker-" + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    // Queues a transfer on the worker pool
+    public CompletableFuture<TransferResult> submit(int debit_acc_no, int credit_acc_no, double funds) {
+        TransferRequest request = new TransferRequest(debit_acc_no, credit_acc_no, funds);
+        submitted.increment();
+        return CompletableFuture.supplyAsync(() -> execute(request), workers);
+    }
+
+    // Runs every transfer in parallel and waits for all of them to finish
+    public Report runAll(List<TransferRequest> requests) {
+        long start = System.nanoTime();
+        long succeededBefore = succeeded.sum();
+        long failedBefore = failed.sum();
+        long retriesBefore = retries.sum();
+
+        List<CompletableFuture<TransferResult>> futures = new ArrayList<>(requests.size());
+        for (TransferRequest request : requests) {
+            futures.add(submit(request.debitAccNo, request.creditAccNo, request.funds));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        return new Report(requests.size(), succeeded.sum() - succeededBefore, failed.sum() - failedBefore,
+                retries.sum() - retriesBefore, System.nanoTime() - start);
+    }
+
+    // Totals since the engine was created
+    public Report getTotals(long elapsedNanos) {
+        return new Report(submitted.sum(), succeeded.sum(), failed.sum(), retries.sum(), elapsedNanos);
+    }
+
+    private TransferResult execute(TransferRequest request) {
+        try {
+            SimpleBankingSystem.checkDepositFundAmt(request.funds);
+        } catch (SimpleBankingSystem.InvalidDepositFundsException e) {
+            return failed(request, e.getMessage(), 0);
+        }
+
+        try {
+            SimpleBankingSystem.requireJournal();
+        } catch (SQLException e) {
+            return failed(request, e.getMessage(), 0);
+        }
+
+        // Counted once for all attempts, and handed back if the transfer doesn't commit
+        long reservedAt;
+        try {
+            reservedAt = SimpleBankingSystem.reserveVelocity(request.debitAccNo, request.funds);
+        } catch (SimpleBankingSystem.VelocityLimitExceededException e) {
+            return failed(request, e.getMessage(), 0);
+        }
+
+        // Includes lock waits, retries and backoff, i.e. the latency the submitter sees
+        long start = System.nanoTime();
+        try {
+            return attempt(request, reservedAt);
+        } finally {
+            SimpleBankingSystem.metrics.record(BankMetrics.Operation.TRANSFER_ENGINE, start);
+        }
+    }
+
+    private TransferResult attempt(TransferRequest request, long reservedAt) {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = pool.borrow()) {
+                conn.setAutoCommit(false);
+                try {
+                    lockInOrder(conn, request.debitAccNo, request.creditAccNo);
+                    double[] balances = SimpleBankingSystem.transferGuarded(conn, request.debitAccNo, request.creditAccNo, request.funds);
+                    // Taken while both rows are locked, so cache updates follow the commit order
+                    long version = SimpleBankingSystem.balanceCache.nextVersion();
+                    conn.commit();
+                    SimpleBankingSystem.balanceCache.put(request.debitAccNo, BalanceCache.toCents(balances[0]), version);
+                    SimpleBankingSystem.balanceCache.put(request.creditAccNo, BalanceCache.toCents(balances[1]), version);
+                    SimpleBankingSystem.reconcileTransfer(request.debitAccNo, request.creditAccNo, request.funds, balances);
+                    return journaled(request, balances, attempt);
+                } catch (SimpleBankingSystem.InvalidAccountNumberException | SimpleBankingSystem.InsufficientFundsException e) {
+                    conn.rollback();
+                    invalidate(request);
+                    return notDebited(request, reservedAt, e.getMessage(), attempt);
+                } catch (SQLException e) {
+                    SimpleBankingSystem.metrics.sqlError();
+                    rollbackQuietly(conn);
+                    invalidate(request);
+                    throw e;
+                }
+            } catch (SQLException e) {
+                if (!isRetryable(e) || attempt >= maxAttempts) {
+                    return notDebited(request, reservedAt, e.getMessage(), attempt);
+                }
+                retries.increment();
+                if (!backOff(attempt)) {
+                    return notDebited(request, reservedAt, "Interrupted while retrying.", attempt);
+                }
+            }
+        }
+    }
+
+    // Locks both account rows, lowest acc_no first
+    static void lockInOrder(Connection conn, int debit_acc_no, int credit_acc_no)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        int first = Math.min(debit_acc_no, credit_acc_no);
+        int second = Math.max(debit_acc_no, credit_acc_no);
+
+        String lock_query = "SELECT acc_no FROM customers WHERE acc_no = ? AND closed_at IS NULL FOR UPDATE";
+        try (PreparedStatement lock_preparedStatement = conn.prepareStatement(lock_query)) {
+            lockRow(lock_preparedStatement, first);
+            if (second != first) {
+                lockRow(lock_preparedStatement, second);
+            }
+        }
+    }
+
+    private static void lockRow(PreparedStatement lock_preparedStatement, int acc_no)
+            throws SQLException, SimpleBankingSystem.InvalidAccountNumberException {
+        lock_preparedStatement.setInt(1, acc_no);
+        try (ResultSet resultSet = lock_preparedStatement.executeQuery()) {
+            if (!resultSet.next()) {
+                throw new SimpleBankingSystem.InvalidAccountNumberException();
+            }
+        }
+    }
+
+    // Deadlocks, serialization failures and lock wait timeouts are worth another attempt
+    static boolean isRetryable(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransactionRollbackException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                SQLException sqlEx = (SQLException) t;
+                if ("40001".equals(sqlEx.getSQLState())
+                        || sqlEx.getErrorCode() == ER_LOCK_DEADLOCK
+                        || sqlEx.getErrorCode() == ER_LOCK_WAIT_TIMEOUT) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Exponential backoff with full jitter so colliding transfers don't retry in lockstep
+    private boolean backOff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void invalidate(TransferRequest request) {
+        SimpleBankingSystem.balanceCache.invalidate(request.debitAccNo);
+        SimpleBankingSystem.balanceCache.invalidate(request.creditAccNo);
+    }
+
+    // A committed transfer is only reported successful once it is journaled; if that fails it is reported as failed,
+    // with a message saying it was committed, and must not be retried
+    private TransferResult journaled(TransferRequest request, double[] balances, int attempts) {
+        try {
+            SimpleBankingSystem.journalRecord(TransactionJournal.TRANSFER, request.debitAccNo, request.creditAccNo, request.funds);
+        } catch (SQLException e) {
+            return failed(request, e.getMessage(), attempts);
+        }
+        succeeded.increment();
+        return new TransferResult(request, true, null, balances[0], balances[1], attempts);
+    }
+
+    // A transfer that didn't commit gives its velocity reservation back
+    private TransferResult notDebited(TransferRequest request, long reservedAt, String failure, int attempts) {
+        SimpleBankingSystem.releaseVelocity(request.debitAccNo, request.funds, reservedAt);
+        return failed(request, failure, attempts);
+    }
+
+    private TransferResult failed(TransferRequest request, String failure, int attempts) {
+        failed.increment();
+        return new TransferResult(request, false, failure, 0, 0, attempts);
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package banking;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// ============ PER-ACCOUNT VELOCITY LIMITS ===========
+// Caps how many withdrawals and outgoing transfers an account can make, and how much money they can take out,
+// per minute and per day, with limits set per account tier. Checking them in SQL would mean an aggregate over the
+// account's history on every withdrawal; here every account has two sliding windows in memory instead.
+//
+// A window is a ring of buckets (60 one-second buckets for the minute, 96 fifteen-minute buckets for the day), each
+// holding a count and an amount in cents, plus running totals of the whole ring. Moving the window forward zeroes
+// the buckets that fell out and subtracts them from the totals, so a check is a comparison against the totals:
+// O(1) amortised, with no allocation once the account has its windows. The day window slides in 15 minute steps.
+//
+// reserve() checks and counts a debit in one step under the account's shard lock, so concurrent debits can't
+// both slip under a limit; a debit that then fails (insufficient funds, rollback) is handed back with release().
+// rebuild() replays the last day of WITHDRAW and TRANSFER_OUT history at startup, so a restart doesn't reset them.
+
+public class VelocityLimits {
+
+    public static final String DEFAULT_TIER = "STANDARD";
+
+    private static final int SHARDS = 64;
+    private static final int MINUTE_BUCKETS = 60;
+    private static final long MINUTE_BUCKET_MILLIS = 1_000;
+    private static final int DAY_BUCKETS = 96;
+    private static final long DAY_BUCKET_MILLIS = 15 * 60_000;
+    private static final long DAY_MILLIS = DAY_BUCKETS * DAY_BUCKET_MILLIS;
+    private static final int SCAN_FETCH_SIZE = 10_000;
+
+    private static final String TIER_QUERY = "SELECT acc_no, tier FROM customers WHERE closed_at IS NULL AND tier <> ?";
+    private static final String HISTORY_QUERY = "SELECT acc_no, amount, created_at FROM transactions "
+            + "WHERE created_at >= ? AND type IN ('" + TransactionHistory.WITHDRAW + "', '" + TransactionHistory.TRANSFER_OUT + "') "
+            + "ORDER BY created_at";
+
+    // Limits of one tier; amounts in rupees
+    public static final class Limits {
+        final int perMinuteCount;
+        final long perMinuteCents;
+        final int perDayCount;
+        final long perDayCents;
+
+        public Limits(int perMinuteCount, double perMinuteAmount, int perDayCount, double perDayAmount) {
+            if (perMinuteCount <= 0 || perMinuteAmount <= 0 || perDayCount <= 0 || perDayAmount <= 0) {
+                throw new IllegalArgumentException("Velocity limits must be positive");
+            }
+            this.perMinuteCount = perMinuteCount;
+            this.perMinuteCents = BalanceCache.toCents(perMinuteAmount);
+            this.perDayCount = perDayCount;
+            this.perDayCents = BalanceCache.toCents(perDayAmount);
+        }
+    }
+
+    // Ring of buckets; epoch is time / bucket length
+    private static final class Window {
+        final long bucketMillis;
+        final long[] counts;
+        final long[] cents;
+        long head = Long.MIN_VALUE;
+        long count;
+        long total;
+
+        Window(int buckets, long bucketMillis) {
+            this.bucketMillis = bucketMillis;
+            this.counts = new long[buckets];
+            this.cents = new long[buckets];
+        }
+
+        // Drops the buckets older than the window ending at nowMillis
+        void advance(long nowMillis) {
+            long epoch = nowMillis / bucketMillis;
+            if (epoch <= head) {
+                return;
+            }
+            int buckets = counts.length;
+            if (head == Long.MIN_VALUE || epoch - head >= buckets) {
+                Arrays.fill(counts, 0);
+                Arrays.fill(cents, 0);
+                count = 0;
+                total = 0;
+            } else {
+                for (long e = head + 1; e <= epoch; e++) {
+                    int slot = (int) (e % buckets);
+                    count -= counts[slot];
+                    total -= cents[slot];
+                    counts[slot] = 0;
+                    cents[slot] = 0;
+                }
+            }
+            head = epoch;
+        }
+
+        void add(long atMillis, long amountCents, int sign) {
+            long epoch = atMillis / bucketMillis;
+            if (epoch > head || epoch <= head - counts.length) {
+                return;
+            }
+            int slot = (int) (epoch % counts.length);
+            counts[slot] += sign;
+            cents[slot] += sign * amountCents;
+            count += sign;
+            total += sign * amountCents;
+        }
+    }
+
+    private static final class Account {
+        final Window minute = new Window(MINUTE_BUCKETS, MINUTE_BUCKET_MILLIS);
+        final Window day = new Window(DAY_BUCKETS, DAY_BUCKET_MILLIS);
+        Limits limits;
+
+        Account(Limits limits) {
+            this.limits = limits;
+        }
+    }
+
+    // Open addressing on acc_no (acc_no 0 never exists, so it marks a free slot), backward-shift deletion
+    private static final class Shard {
+        int[] keys = new int[64];
+        Account[] accounts = new Account[64];
+        int size = 0;
+
+        int find(int acc_no) {
+            int mask = keys.length - 1;
+            int i = slot(acc_no, mask);
+            while (keys[i] != 0) {
+                if (keys[i] == acc_no) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        Account getOrCreate(int acc_no, Limits limits) {
+            int i = find(acc_no);
+            if (i >= 0) {
+                return accounts[i];
+            }
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            i = slot(acc_no, mask);
+            while (keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = acc_no;
+            accounts[i] = new Account(limits);
+            size++;
+            return accounts[i];
+        }
+
+        void remove(int acc_no) {
+            int i = find(acc_no);
+            if (i < 0) {
+                return;
+            }
+            int mask = keys.length - 1;
+            keys[i] = 0;
+            accounts[i] = null;
+            size--;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == 0) {
+                    return;
+                }
+                int k = slot(keys[j], mask);
+                boolean inPlace = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+                if (!inPlace) {
+                    keys[i] = keys[j];
+                    accounts[i] = accounts[j];
+                    keys[j] = 0;
+                    accounts[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            Account[] oldAccounts = accounts;
+            keys = new int[oldKeys.length * 2];
+            accounts = new Account[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int n = 0; n < oldKeys.length; n++) {
+                if (oldKeys[n] != 0) {
+                    int i = slot(oldKeys[n], mask);
+                    while (keys[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[n];
+                    accounts[i] = oldAccounts[n];
+                }
+            }
+        }
+    }
+
+    private final Map<String, Limits> tiers;
+    private final Limits defaultLimits;
+    private final LongSupplier clock;
+    private final Shard[] shards = new Shard[SHARDS];
+    // Accounts not in the default tier; read only when an account gets its windows
+    private final Map<Integer, String> tierOf = new HashMap<>();
+
+    // Metrics
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public VelocityLimits(Map<String, Limits> tiers) {
+        this(tiers, System::currentTimeMillis);
+    }
+
+    // clock gives the current time in milliseconds
+    VelocityLimits(Map<String, Limits> tiers, LongSupplier clock) {
+        if (!tiers.containsKey(DEFAULT_TIER)) {
+            throw new IllegalArgumentException("Velocity limits need a " + DEFAULT_TIER + " tier");
+        }
+        this.tiers = new HashMap<>(tiers);
+        this.defaultLimits = tiers.get(DEFAULT_TIER);
+        this.clock = clock;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    // Counts a debit of amountCents against the account's windows, or throws when it would exceed a limit.
+    // Returns the time it was counted at, which release() needs.
+    public long reserve(int acc_no, long amountCents) throws SimpleBankingSystem.VelocityLimitExceededException {
+        long now = clock.getAsLong();
+        Shard shard = shardOf(acc_no);
+        synchronized (shard) {
+            checks.increment();
+            Account account = shard.getOrCreate(acc_no, limitsOf(acc_no));
+            account.minute.advance(now);
+            account.day.advance(now);
+            Limits limits = account.limits;
+            String exceeded = null;
+            if (account.minute.count + 1 > limits.perMinuteCount) {
+                exceeded = "at most " + limits.perMinuteCount + " debits per minute";
+            } else if (account.minute.total + amountCents > limits.perMinuteCents) {
+                exceeded = "at most " + BalanceCache.fromCents(limits.perMinuteCents) + " per minute";
+            } else if (account.day.count + 1 > limits.perDayCount) {
+                exceeded = "at most " + limits.perDayCount + " debits per day";
+            } else if (account.day.total + amountCents > limits.perDayCents) {
+                exceeded = "at most " + BalanceCache.fromCents(limits.perDayCents) + " per day";
+            }
+            if (exceeded != null) {
+                rejections.increment();
+                throw new SimpleBankingSystem.VelocityLimitExceededException(exceeded);
+            }
+            account.minute.add(now, amountCents, 1);
+            account.day.add(now, amountCents, 1);
+            return now;
+        }
+    }
+
+    // Takes back a reservation whose debit didn't happen
+    public void release(int acc_no, long amountCents, long reservedAt) {
+        Shard shard = shardOf(acc_no);
+        synchronized (shard) {
+            int i = shard.find(acc_no);
+            if (i >= 0) {
+                Account account = shard.accounts[i];
+                account.minute.add(reservedAt, amountCents, -1);
+                account.day.add(reservedAt, amountCents, -1);
+            }
+        }
+    }
+
+    // A debit that has already happened (history replay); counted even if it goes over the limits
+    void record(int acc_no, long amountCents, long atMillis) {
+        Shard shard = shardOf(acc_no);
+        synchronized (shard) {
+            Account account = shard.getOrCreate(acc_no, limitsOf(acc_no));
+            account.minute.advance(atMillis);
+            account.day.advance(atMillis);
+            account.minute.add(atMillis, amountCents, 1);
+            account.day.add(atMillis, amountCents, 1);
+        }
+    }
+
+    public void setTier(int acc_no, String tier) {
+        Limits limits = tiers.get(tier);
+        if (limits == null) {
+            throw new IllegalArgumentException("Unknown tier: " + tier);
+        }
+        synchronized (tierOf) {
+            if (tier.equals(DEFAULT_TIER)) {
+                tierOf.remove(acc_no);
+            } else {
+                tierOf.put(acc_no, tier);
+            }
+        }
+        Shard shard = shardOf(acc_no);
+        synchronized (shard) {
+            int i = shard.find(acc_no);
+            if (i >= 0) {
+                shard.accounts[i].limits = limits;
+            }
+        }
+    }
+
+    // Drops a closed account's windows
+    public void forget(int acc_no) {
+        Shard shard = shardOf(acc_no);
+        synchronized (shard) {
+            shard.remove(acc_no);
+        }
+        synchronized (tierOf) {
+            tierOf.remove(acc_no);
+        }
+    }
+
+    // Loads the account tiers and replays the last day of debits, with one streaming scan of each
+    public void rebuild(ConnectionPool pool) throws SQLException {
+        try (Connection conn = pool.borrow()) {
+            try (PreparedStatement tier_preparedStatement = conn.prepareStatement(TIER_QUERY)) {
+                tier_preparedStatement.setString(1, DEFAULT_TIER);
+                tier_preparedStatement.setFetchSize(SCAN_FETCH_SIZE);
+                try (ResultSet resultSet = tier_preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String tier = resultSet.getString("tier");
+                        if (tiers.containsKey(tier)) {
+                            setTier(resultSet.getInt("acc_no"), tier);
+                        }
+                    }
+                }
+            }
+            try (PreparedStatement history_preparedStatement = conn.prepareStatement(HISTORY_QUERY)) {
+                history_preparedStatement.setTimestamp(1, new Timestamp(clock.getAsLong() - DAY_MILLIS));
+                history_preparedStatement.setFetchSize(SCAN_FETCH_SIZE);
+                try (ResultSet resultSet = history_preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        record(resultSet.getInt("acc_no"), BalanceCache.toCents(resultSet.getDouble("amount")),
+                                resultSet.getTimestamp("created_at").getTime());
+                    }
+                }
+            }
+        }
+    }
+
+    private Limits limitsOf(int acc_no) {
+        synchronized (tierOf) {
+            String tier = tierOf.get(acc_no);
+            return tier == null ? defaultLimits : tiers.get(tier);
+        }
+    }
+
+    private Shard shardOf(int acc_no) {
+        int h = acc_no * 0x9E3779B9;
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static int slot(int acc_no, int mask) {
+        int h = acc_no * 0x85EBCA6B;
+        return (h ^ (h >>> 13)) & mask;
+    }
+
+    @Override
+    public String toString() {
+        long accounts = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                accounts += shard.size;
+            }
+        }
+        return String.format("VelocityLimits[accounts=%d, tiers=%s, checks=%d, rejections=%d]", accounts, tiers.keySet(),
+                checks.sum(), rejections.sum());
+    }
+}
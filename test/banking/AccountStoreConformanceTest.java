@@ -0,0 +1,223 @@
+package banking;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// ============ ACCOUNT STORE CONFORMANCE ===========
+// The behaviour every AccountStore must share, run against each implementation by a subclass that says how to
+// open the store and how to open it again over the same data (a restart).
+
+abstract class AccountStoreConformanceTest {
+
+    protected AccountStore store;
+
+    // A new, empty store
+    protected abstract AccountStore openStore() throws Exception;
+
+    // Closes store and opens it again over the same data
+    protected abstract AccountStore reopenStore(AccountStore store) throws Exception;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SimpleBankingSystem.balanceCache.clear();
+        store = openStore();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.close();
+        SimpleBankingSystem.balanceCache.clear();
+    }
+
+    @Test
+    void createdAccountHasItsOpeningBalance() throws Exception {
+        int first = store.createAccount("Asha", "9000000001", "asha@example.com", 1500);
+        int second = store.createAccount("Ravi", "9000000002", "ravi@example.com", 200.25);
+
+        assertNotEquals(first, second);
+        assertEquals(1500, store.getBalance(first));
+        assertEquals(200.25, store.getBalance(second));
+    }
+
+    @Test
+    void duplicatePhoneNumberIsRefused() throws Exception {
+        int acc_no = store.createAccount("Asha", "9000000001", "asha@example.com", 1500);
+
+        assertThrows(SQLIntegrityConstraintViolationException.class,
+                () -> store.createAccount("Someone Else", "9000000001", "else@example.com", 100));
+        assertEquals(1500, store.getBalance(acc_no));
+    }
+
+    @Test
+    void invalidCustomerDetailsAreRefused() {
+        assertThrows(SimpleBankingSystem.InvalidPhoneNumberException.class,
+                () -> store.createAccount("Asha", "12345", "asha@example.com", 1500));
+        assertThrows(SimpleBankingSystem.InvalidEmailException.class,
+                () -> store.createAccount("Asha", "9000000001", "not-an-email", 1500));
+        assertThrows(SimpleBankingSystem.InvalidInitialBalanceException.class,
+                () -> store.createAccount("Asha", "9000000001", "asha@example.com", -1));
+    }
+
+    @Test
+    void creditAndDebitReturnTheUpdatedBalance() throws Exception {
+        int acc_no = store.createAccount("Asha", "9000000001", "asha@example.com", 1000);
+
+        assertEquals(1250.50, store.credit(acc_no, 250.50));
+        assertEquals(1000.25, store.debit(acc_no, 250.25));
+        assertEquals(1000.25, store.getBalance(acc_no));
+    }
+
+    @Test
+    void debitBeyondTheBalanceIsRefused() throws Exception {
+        int acc_no = store.createAccount("Asha", "9000000001", "asha@example.com", 100);
+
+        assertThrows(SimpleBankingSystem.InsufficientFundsException.class, () -> store.debit(acc_no, 100.01));
+        assertEquals(100, store.getBalance(acc_no));
+        assertEquals(0, store.debit(acc_no, 100));
+    }
+
+    @Test
+    void nonPositiveAmountsAreRefused() throws Exception {
+        int acc_no = store.createAccount("Asha", "9000000001", "asha@example.com", 100);
+
+        assertThrows(SimpleBankingSystem.InvalidDepositFundsException.class, () -> store.credit(acc_no, 0));
+        assertThrows(SimpleBankingSystem.InvalidDepositFundsException.class, () -> store.debit(acc_no, -5));
+        assertEquals(100, store.getBalance(acc_no));
+    }
+
+    @Test
+    void unknownAccountIsRefused() {
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.getBalance(424242));
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.credit(424242, 10));
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.deleteAccount(424242));
+    }
+
+    @Test
+    void transferMovesFundsBetweenAccounts() throws Exception {
+        int debit = store.createAccount("Asha", "9000000001", "asha@example.com", 500);
+        int credit = store.createAccount("Ravi", "9000000002", "ravi@example.com", 100);
+
+        double[] balances = store.transfer(debit, credit, 125.75);
+
+        assertArrayEquals(new double[]{374.25, 225.75}, balances);
+        assertEquals(374.25, store.getBalance(debit));
+        assertEquals(225.75, store.getBalance(credit));
+    }
+
+    @Test
+    void transferWithInsufficientFundsChangesNeitherAccount() throws Exception {
+        int debit = store.createAccount("Asha", "9000000001", "asha@example.com", 50);
+        int credit = store.createAccount("Ravi", "9000000002", "ravi@example.com", 100);
+
+        assertThrows(SimpleBankingSystem.InsufficientFundsException.class, () -> store.transfer(debit, credit, 50.01));
+        assertEquals(50, store.getBalance(debit));
+        assertEquals(100, store.getBalance(credit));
+    }
+
+    @Test
+    void transferToAMissingAccountLeavesTheDebitAccountUntouched() throws Exception {
+        int debit = store.createAccount("Asha", "9000000001", "asha@example.com", 500);
+
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.transfer(debit, 424242, 100));
+        assertEquals(500, store.getBalance(debit));
+    }
+
+    @Test
+    void concurrentTransfersKeepTheTotal() throws Exception {
+        int accounts = 4;
+        int[] acc_nos = new int[accounts];
+        for (int i = 0; i < accounts; i++) {
+            acc_nos[i] = store.createAccount("Customer " + i, "900000000" + i, "c" + i + "@example.com", 1000);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t;
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        int from = acc_nos[(i + offset) % accounts];
+                        int to = acc_nos[(i + offset + 1 + i % (accounts - 1)) % accounts];
+                        try {
+                            store.transfer(from, to, 7.5);
+                        } catch (SimpleBankingSystem.InsufficientFundsException e) {
+                            // Allowed: the account was drained by the other workers
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        SimpleBankingSystem.balanceCache.clear();
+        double total = 0;
+        for (int acc_no : acc_nos) {
+            double balance = store.getBalance(acc_no);
+            assertTrue(balance >= 0, "negative balance " + balance);
+            total += balance;
+        }
+        assertEquals(accounts * 1000, total, 0.001);
+    }
+
+    @Test
+    void closedAccountRefusesEveryOperation() throws Exception {
+        int closed = store.createAccount("Asha", "9000000001", "asha@example.com", 500);
+        int open = store.createAccount("Ravi", "9000000002", "ravi@example.com", 100);
+
+        store.deleteAccount(closed);
+
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.getBalance(closed));
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.credit(closed, 10));
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.debit(closed, 10));
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.deleteAccount(closed));
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.transfer(closed, open, 10));
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.transfer(open, closed, 10));
+        assertEquals(100, store.getBalance(open));
+    }
+
+    @Test
+    void closedAccountKeepsItsPhoneNumber() throws Exception {
+        int closed = store.createAccount("Asha", "9000000001", "asha@example.com", 500);
+        store.deleteAccount(closed);
+
+        assertThrows(SQLIntegrityConstraintViolationException.class,
+                () -> store.createAccount("Asha", "9000000001", "asha@example.com", 500));
+    }
+
+    @Test
+    void accountsSurviveAReopen() throws Exception {
+        int debit = store.createAccount("Asha", "9000000001", "asha@example.com", 500);
+        int credit = store.createAccount("Ravi", "9000000002", "ravi@example.com", 100);
+        int closed = store.createAccount("Meera", "9000000003", "meera@example.com", 50);
+        store.transfer(debit, credit, 200);
+        store.deleteAccount(closed);
+
+        store = reopenStore(store);
+        SimpleBankingSystem.balanceCache.clear();
+
+        assertEquals(300, store.getBalance(debit));
+        assertEquals(300, store.getBalance(credit));
+        assertThrows(SimpleBankingSystem.InvalidAccountNumberException.class, () -> store.getBalance(closed));
+        assertThrows(SQLIntegrityConstraintViolationException.class,
+                () -> store.createAccount("Asha", "9000000001", "asha@example.com", 500));
+        int next = store.createAccount("Kiran", "9000000004", "kiran@example.com", 10);
+        assertNotEquals(debit, next);
+        assertNotEquals(closed, next);
+    }
+}
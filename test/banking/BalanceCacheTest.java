@@ -0,0 +1,95 @@
+package banking;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The ordering of cache updates that reach the cache out of order: late read-through fills and late post-commit puts
+
+class BalanceCacheTest {
+
+    private final BalanceCache cache = new BalanceCache(4, BalanceCache.Consistency.READ_YOUR_WRITES, 0);
+
+    @Test
+    void fillIsServed() {
+        cache.fill(1, 500, cache.nextVersion());
+
+        assertEquals(500, cache.get(1));
+    }
+
+    @Test
+    void fillLosesToAWriteCachedAfterTheReadStarted() {
+        long read = cache.nextVersion();
+        cache.put(1, 700, cache.nextVersion());
+        cache.fill(1, 500, read);
+
+        assertEquals(700, cache.get(1));
+    }
+
+    @Test
+    void fillLosesToAnInvalidateAfterTheReadStarted() {
+        long read = cache.nextVersion();
+        cache.invalidate(1);
+        cache.fill(1, 500, read);
+
+        assertEquals(BalanceCache.MISSING, cache.get(1));
+    }
+
+    @Test
+    void olderWriteArrivingLateIsDropped() {
+        long first = cache.nextVersion();
+        long second = cache.nextVersion();
+        cache.put(1, 900, second);
+        cache.put(1, 700, first);
+
+        assertEquals(900, cache.get(1));
+    }
+
+    @Test
+    void olderWriteArrivingAfterEvictionIsNotCached() {
+        long first = cache.nextVersion();
+        long second = cache.nextVersion();
+        cache.put(1, 900, second);
+        for (int acc_no = 2; acc_no <= 12; acc_no++) {
+            cache.put(acc_no, acc_no, cache.nextVersion());
+        }
+        assertEquals(BalanceCache.MISSING, cache.get(1));
+
+        cache.put(1, 700, first);
+
+        assertEquals(BalanceCache.MISSING, cache.get(1));
+    }
+
+    @Test
+    void writeCommittedAfterTheReadReplacesTheFill() {
+        // The write locked the row before the read started, and committed after the read's SELECT
+        long write = cache.nextVersion();
+        long read = cache.nextVersion();
+        cache.fill(1, 500, read);
+        cache.put(1, 700, write);
+
+        assertEquals(700, cache.get(1));
+    }
+
+    @Test
+    void writeThatCannotBeOrderedAgainstAFillRemovesIt() {
+        long write = cache.nextVersion();
+        cache.put(2, 100, cache.nextVersion());
+        cache.invalidate(2);
+        // Filled after the invalidate: its place in the write order is only known to be after it
+        cache.fill(1, 500, cache.nextVersion());
+        cache.put(1, 700, write);
+
+        assertEquals(BalanceCache.MISSING, cache.get(1));
+        cache.fill(1, 700, cache.nextVersion());
+        assertEquals(700, cache.get(1));
+    }
+
+    @Test
+    void newerWriteReplacesAnOlderOne() {
+        cache.put(1, 700, cache.nextVersion());
+        cache.put(1, 900, cache.nextVersion());
+
+        assertEquals(900, cache.get(1));
+    }
+}
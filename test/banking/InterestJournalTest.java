@@ -0,0 +1,74 @@
+package banking;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Interest credited by an eod run is journaled, so replaying the server's and the eod run's journals together
+// rebuilds the balances with the interest in them
+
+class InterestJournalTest {
+
+    private static final int SEGMENT_SIZE = TransactionJournal.RECORD_SIZE * 16;
+
+    @TempDir
+    Path dir;
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pool = new ConnectionPool(BankSchema.embeddedUrl("interestjournal"), "", "", 4, 1, 30_000, 60_000, 0, 16);
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        SimpleBankingSystem.journal = null;
+        SimpleBankingSystem.balanceCache.clear();
+        try (Connection conn = pool.borrow()) {
+            conn.createStatement().execute("SHUTDOWN");
+        }
+        pool.close();
+    }
+
+    @Test
+    void replayOfBothJournalsKeepsTheInterest() throws Exception {
+        Path serverDir = dir.resolve("journal");
+        Path eodDir = dir.resolve("eod-journal");
+        BankService service = new BankService(pool);
+        int acc_no;
+        int other_acc_no;
+        try (TransactionJournal journal = new TransactionJournal(serverDir, SEGMENT_SIZE)) {
+            SimpleBankingSystem.journal = journal;
+            acc_no = service.createAccount("Asha", "9000000001", "asha@example.com", 36_500);
+            other_acc_no = service.createAccount("Ravi", "9000000002", "ravi@example.com", 1_000);
+        }
+
+        // 3.65% a year is 1 per 10,000 a day
+        try (TransactionJournal journal = new TransactionJournal(eodDir, SEGMENT_SIZE)) {
+            SimpleBankingSystem.journal = journal;
+            new BatchRunner(pool, 1, 2).run(new InterestAccrualJob(3.65), LocalDate.of(2024, 3, 31));
+        }
+        SimpleBankingSystem.journal = null;
+        SimpleBankingSystem.balanceCache.clear();
+        assertEquals(36_503.65, service.getBalance(acc_no));
+        assertEquals(1_000.10, service.getBalance(other_acc_no));
+
+        Map<Integer, Long> balances = TransactionJournal.replay(List.of(serverDir, eodDir));
+        assertEquals(Map.of(acc_no, 3_650_365L, other_acc_no, 100_010L), balances);
+        // The server's journal alone doesn't have the interest
+        assertEquals(Map.of(acc_no, 3_650_000L, other_acc_no, 100_000L), TransactionJournal.replay(serverDir));
+    }
+}
@@ -0,0 +1,40 @@
+package banking;
+
+import org.junit.jupiter.api.AfterEach;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The conformance suite on the customers table, in a fresh in-memory H2 database per test
+
+class JdbcAccountStoreTest extends AccountStoreConformanceTest {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private ConnectionPool pool;
+
+    @Override
+    protected AccountStore openStore() throws Exception {
+        pool = new ConnectionPool(BankSchema.embeddedUrl("storetest" + DATABASES.incrementAndGet()), "", "", 8, 1, 30_000,
+                60_000, 0, 16);
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+        }
+        return new JdbcAccountStore(new BankService(pool));
+    }
+
+    // The database outlives the store, as it outlives a restarted server
+    @Override
+    protected AccountStore reopenStore(AccountStore store) throws Exception {
+        store.close();
+        return new JdbcAccountStore(new BankService(pool));
+    }
+
+    @AfterEach
+    void closePool() throws Exception {
+        try (Connection conn = pool.borrow()) {
+            conn.createStatement().execute("SHUTDOWN");
+        }
+        pool.close();
+    }
+}
@@ -0,0 +1,112 @@
+package banking;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// A committed operation whose journal write fails is reported to its caller, and the process then refuses writes
+
+class JournalFailureTest {
+
+    @TempDir
+    Path dir;
+
+    private ConnectionPool pool;
+    private BankService service;
+    private int acc_no;
+    private int other_acc_no;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pool = new ConnectionPool(BankSchema.embeddedUrl("journalfailure"), "", "", 4, 1, 30_000, 60_000, 0, 16);
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+        }
+        service = new BankService(pool);
+        acc_no = service.createAccount("Asha", "9000000001", "asha@example.com", 500);
+        other_acc_no = service.createAccount("Ravi", "9000000002", "ravi@example.com", 100);
+
+        // A journal that fails every write
+        TransactionJournal journal = new TransactionJournal(dir, TransactionJournal.RECORD_SIZE * 16);
+        journal.close();
+        SimpleBankingSystem.journal = journal;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        SimpleBankingSystem.journal = null;
+        SimpleBankingSystem.journalFailure = null;
+        SimpleBankingSystem.balanceCache.clear();
+        try (Connection conn = pool.borrow()) {
+            conn.createStatement().execute("SHUTDOWN");
+        }
+        pool.close();
+    }
+
+    @Test
+    void failedJournalWriteIsReportedAndLaterWritesAreRefused() throws Exception {
+        SQLException notJournaled = assertThrows(SQLException.class, () -> service.deposit(acc_no, 50));
+        assertTrue(notJournaled.getMessage().startsWith("Committed, but not journaled"), notJournaled.getMessage());
+        assertFalse(SimpleBankingSystem.metrics.isDurable());
+        SimpleBankingSystem.balanceCache.clear();
+        assertEquals(550, service.getBalance(acc_no));
+
+        SQLException refused = assertThrows(SQLException.class, () -> service.withdraw(acc_no, 10));
+        assertTrue(refused.getMessage().startsWith("Writes are refused"), refused.getMessage());
+        assertThrows(SQLException.class, () -> service.transfer(acc_no, other_acc_no, 10));
+        assertThrows(SQLException.class, () -> service.createAccount("Meera", "9000000003", "meera@example.com", 10));
+        assertThrows(SQLException.class, () -> service.deleteAccount(other_acc_no));
+
+        // Reads still work, and nothing else was changed
+        assertEquals(550, service.getBalance(acc_no));
+        assertEquals(100, service.getBalance(other_acc_no));
+    }
+
+    @Test
+    void coalescedDepositsGetTheFailure() throws Exception {
+        try (DepositCoalescer coalescer = new DepositCoalescer(pool, 10, 100)) {
+            ExecutionException failed = assertThrows(ExecutionException.class, () -> coalescer.deposit(acc_no, 25).get());
+            assertTrue(failed.getCause().getMessage().startsWith("Committed, but not journaled"), failed.getCause().getMessage());
+        }
+        assertFalse(SimpleBankingSystem.metrics.isDurable());
+    }
+
+    @Test
+    void asyncCoalescedDepositsAreRefusedAfterTheFailure() throws Exception {
+        try (DepositCoalescer coalescer = new DepositCoalescer(pool, 10, 100);
+             AsyncBankService async = new AsyncBankService(new BankService(pool, coalescer), 2)) {
+            ExecutionException notJournaled = assertThrows(ExecutionException.class, () -> async.deposit(acc_no, 25).get());
+            assertTrue(notJournaled.getCause().getMessage().startsWith("Committed, but not journaled"),
+                    notJournaled.getCause().getMessage());
+
+            ExecutionException refused = assertThrows(ExecutionException.class, () -> async.deposit(acc_no, 25).get());
+            assertTrue(refused.getCause().getMessage().startsWith("Writes are refused"), refused.getCause().getMessage());
+        }
+        SimpleBankingSystem.balanceCache.clear();
+        assertEquals(525, service.getBalance(acc_no));
+    }
+
+    @Test
+    void transferEngineReportsTheCommittedTransferAsNotJournaled() throws Exception {
+        try (TransferEngine engine = new TransferEngine(pool, 2, 3, 1)) {
+            TransferEngine.TransferResult first = engine.submit(acc_no, other_acc_no, 50).get();
+            assertFalse(first.success);
+            assertTrue(first.failure.startsWith("Committed, but not journaled"), first.failure);
+
+            TransferEngine.TransferResult second = engine.submit(acc_no, other_acc_no, 50).get();
+            assertFalse(second.success);
+            assertTrue(second.failure.startsWith("Writes are refused"), second.failure);
+        }
+        SimpleBankingSystem.balanceCache.clear();
+        assertEquals(List.of(450.0, 150.0), List.of(service.getBalance(acc_no), service.getBalance(other_acc_no)));
+    }
+}
@@ -0,0 +1,200 @@
+package banking;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The write-behind flush against balances changed in the table by another process while the engine runs
+
+class LedgerEngineTest {
+
+    private ConnectionPool pool;
+    private LedgerEngine engine;
+    private int acc_no;
+    private int other_acc_no;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pool = new ConnectionPool(BankSchema.embeddedUrl("ledgerengine"), "", "", 4, 1, 30_000, 60_000, 0, 16);
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+            acc_no = SimpleBankingSystem.openAccount(conn, "Asha", "9000000001", "asha@example.com", 100);
+            other_acc_no = SimpleBankingSystem.openAccount(conn, "Ravi", "9000000002", "ravi@example.com", 100);
+        }
+        // Flushed only when the test asks
+        engine = new LedgerEngine(pool, 4, 60_000, 1_000);
+        engine.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        engine.close();
+        try (Connection conn = pool.borrow()) {
+            conn.createStatement().execute("SHUTDOWN");
+        }
+        pool.close();
+    }
+
+    @Test
+    void flushAddsToChangesMadeInTheTable() throws Exception {
+        engine.withdraw(acc_no, 30);
+        setTableBalance(acc_no, 150);
+
+        engine.flush();
+
+        assertEquals(120, tableBalance(acc_no));
+        assertEquals(0, engine.getDroppedOperations());
+    }
+
+    @Test
+    void withdrawalThatWouldOverdrawIsDroppedAndTheAccountReloaded() throws Exception {
+        // Another process spent 80 of the 100 the engine still sees
+        setTableBalance(acc_no, 20);
+        engine.withdraw(acc_no, 50);
+        engine.deposit(other_acc_no, 10);
+
+        engine.flush();
+
+        assertEquals(20, tableBalance(acc_no));
+        assertEquals(110, tableBalance(other_acc_no));
+        assertEquals(1, engine.getDroppedOperations());
+        assertEquals(20, engine.balance(acc_no));
+        assertEquals(0, historyRows(acc_no));
+        assertEquals(1, historyRows(other_acc_no));
+        assertThrows(SimpleBankingSystem.InsufficientFundsException.class, () -> engine.withdraw(acc_no, 50));
+
+        // Later changes to the reloaded account flush normally
+        engine.withdraw(acc_no, 5);
+        engine.flush();
+        assertEquals(15, tableBalance(acc_no));
+        assertEquals(1, engine.getDroppedOperations());
+    }
+
+    @Test
+    void transferWhoseDebitWouldOverdrawIsDroppedWithBothLegs() throws Exception {
+        setTableBalance(acc_no, 20);
+        engine.withdraw(acc_no, 10);
+        engine.transfer(acc_no, other_acc_no, 50);
+
+        engine.flush();
+
+        // The newest debit goes, the older withdrawal still fits
+        assertEquals(10, tableBalance(acc_no));
+        assertEquals(100, tableBalance(other_acc_no));
+        assertEquals(1, engine.getDroppedOperations());
+        assertEquals(1, historyRows(acc_no));
+        assertEquals(0, historyRows(other_acc_no));
+        assertEquals(10, engine.balance(acc_no));
+        assertEquals(100, engine.balance(other_acc_no));
+    }
+
+    @Test
+    void droppedTransferAlsoDropsWhatItsCreditPaidFor() throws Exception {
+        setTableBalance(acc_no, 20);
+        engine.transfer(acc_no, other_acc_no, 50);
+        // Only covered by the transfer
+        engine.withdraw(other_acc_no, 120);
+
+        engine.flush();
+
+        assertEquals(20, tableBalance(acc_no));
+        assertEquals(100, tableBalance(other_acc_no));
+        assertEquals(2, engine.getDroppedOperations());
+        assertEquals(0, historyRows(acc_no));
+        assertEquals(0, historyRows(other_acc_no));
+        assertEquals(20, engine.balance(acc_no));
+        assertEquals(100, engine.balance(other_acc_no));
+    }
+
+    @Test
+    void everyFlushCarriesBothLegsOfItsTransfers() throws Exception {
+        int[] accounts = new int[16];
+        try (Connection conn = pool.borrow()) {
+            for (int n = 0; n < accounts.length; n++) {
+                accounts[n] = SimpleBankingSystem.openAccount(conn, "Meera", "91000000" + (10 + n), "meera@example.com", 1_000);
+            }
+        }
+        double total = tableTotal();
+        try (LedgerEngine busy = new LedgerEngine(pool, 8, 1, 1_000)) {
+            busy.start();
+            Thread[] workers = new Thread[4];
+            for (int w = 0; w < workers.length; w++) {
+                int seed = w;
+                workers[w] = new Thread(() -> {
+                    Random random = new Random(seed);
+                    for (int n = 0; n < 2_000; n++) {
+                        int from = accounts[random.nextInt(accounts.length)];
+                        int to = accounts[random.nextInt(accounts.length)];
+                        try {
+                            if (from != to) {
+                                busy.transfer(from, to, 1 + random.nextInt(20));
+                            }
+                        } catch (SimpleBankingSystem.InsufficientFundsException e) {
+                            // Expected now and then
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                workers[w].start();
+            }
+            // Every committed flush is a whole number of transfers, so the total never moves
+            while (Arrays.stream(workers).anyMatch(Thread::isAlive)) {
+                assertEquals(total, tableTotal(), 0.001);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        assertEquals(total, tableTotal(), 0.001);
+    }
+
+    private double tableTotal() throws SQLException {
+        try (Connection conn = pool.borrow();
+             PreparedStatement select = conn.prepareStatement("SELECT SUM(balance) FROM customers");
+             ResultSet resultSet = select.executeQuery()) {
+            resultSet.next();
+            return resultSet.getDouble(1);
+        }
+    }
+
+    private void setTableBalance(int acc_no, double balance) throws SQLException {
+        try (Connection conn = pool.borrow();
+             PreparedStatement update = conn.prepareStatement("UPDATE customers SET balance = ? WHERE acc_no = ?")) {
+            update.setDouble(1, balance);
+            update.setInt(2, acc_no);
+            update.executeUpdate();
+        }
+    }
+
+    private double tableBalance(int acc_no) throws SQLException {
+        try (Connection conn = pool.borrow();
+             PreparedStatement select = conn.prepareStatement("SELECT balance FROM customers WHERE acc_no = ?")) {
+            select.setInt(1, acc_no);
+            try (ResultSet resultSet = select.executeQuery()) {
+                assertTrue(resultSet.next());
+                return resultSet.getDouble(1);
+            }
+        }
+    }
+
+    private int historyRows(int acc_no) throws SQLException {
+        try (Connection conn = pool.borrow();
+             PreparedStatement select = conn.prepareStatement("SELECT COUNT(*) FROM transactions WHERE acc_no = ?")) {
+            select.setInt(1, acc_no);
+            try (ResultSet resultSet = select.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package banking;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The conformance suite on the memory-mapped store, plus the recovery of a transfer interrupted between its two writes
+
+class MappedAccountStoreTest extends AccountStoreConformanceTest {
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+
+    @Override
+    protected AccountStore openStore() throws Exception {
+        file = dir.resolve("accounts.store");
+        return MappedAccountStore.open(file);
+    }
+
+    @Override
+    protected AccountStore reopenStore(AccountStore store) throws Exception {
+        store.close();
+        return MappedAccountStore.open(file);
+    }
+
+    @Test
+    void reopenFinishesATransferInterruptedByACrash() throws Exception {
+        int debit = store.createAccount("Asha", "9000000001", "asha@example.com", 500);
+        int credit = store.createAccount("Ravi", "9000000002", "ravi@example.com", 100);
+        store.close();
+
+        // A transfer of 120 that wrote its intent and the debit balance, then died before the credit balance
+        int slot = Math.min(debit, credit) & (MappedAccountStore.STRIPES - 1);
+        writeIntent(slot, debit, credit, 38_000, 22_000, 1);
+        writeBalance(debit, 38_000);
+
+        store = MappedAccountStore.open(file);
+
+        assertEquals(380, store.getBalance(debit));
+        assertEquals(220, store.getBalance(credit));
+        assertEquals(0, readIntentValid(slot));
+
+        // Once finished the slot is clear, so a later reopen doesn't apply it again
+        store.credit(credit, 5);
+        store = reopenStore(store);
+        assertEquals(380, store.getBalance(debit));
+        assertEquals(225, store.getBalance(credit));
+    }
+
+    @Test
+    void clearedIntentIsIgnoredOnReopen() throws Exception {
+        int debit = store.createAccount("Asha", "9000000001", "asha@example.com", 500);
+        int credit = store.createAccount("Ravi", "9000000002", "ravi@example.com", 100);
+        store.close();
+
+        // A transfer that finished: the slot still holds its balances but is no longer valid
+        int slot = Math.min(debit, credit) & (MappedAccountStore.STRIPES - 1);
+        writeIntent(slot, debit, credit, 1, 2, 0);
+
+        store = MappedAccountStore.open(file);
+
+        assertEquals(500, store.getBalance(debit));
+        assertEquals(100, store.getBalance(credit));
+    }
+
+    @Test
+    void fileThatIsNotAStoreIsRefused() throws Exception {
+        store.close();
+        Path other = dir.resolve("other.store");
+        Files.write(other, new byte[MappedAccountStore.HEADER_SIZE]);
+        Files.write(other, "not a store".getBytes(), StandardOpenOption.WRITE);
+
+        assertThrows(IOException.class, () -> MappedAccountStore.open(other));
+        store = MappedAccountStore.open(file);
+    }
+
+    private void writeIntent(int slot, int debit, int credit, long debitCents, long creditCents, int valid) throws IOException {
+        ByteBuffer intent = ByteBuffer.allocate(MappedAccountStore.INTENT_SIZE).order(ByteOrder.BIG_ENDIAN);
+        intent.putInt(debit).putInt(credit).putLong(debitCents).putLong(creditCents).putInt(valid).flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(intent, MappedAccountStore.INTENT_OFFSET + (long) slot * MappedAccountStore.INTENT_SIZE);
+        }
+    }
+
+    private void writeBalance(int acc_no, long cents) throws IOException {
+        ByteBuffer balance = ByteBuffer.allocate(8).putLong(cents).flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(balance, MappedAccountStore.HEADER_SIZE + (long) (acc_no - 1) * MappedAccountStore.RECORD_SIZE
+                    + MappedAccountStore.BALANCE);
+        }
+    }
+
+    private int readIntentValid(int slot) throws IOException {
+        ByteBuffer valid = ByteBuffer.allocate(4);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.read(valid, MappedAccountStore.INTENT_OFFSET + (long) slot * MappedAccountStore.INTENT_SIZE + 24);
+        }
+        return valid.flip().getInt();
+    }
+}
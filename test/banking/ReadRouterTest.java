@@ -0,0 +1,275 @@
+package banking;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The ReadRouter over a primary and one replica, both in-memory H2 databases. Replication is played by a copier
+// thread that copies the customers and the heartbeat from the primary to the replica, and can be paused to make
+// the replica fall behind.
+
+class ReadRouterTest {
+
+    private static final long HEARTBEAT_MILLIS = 20;
+    private static final long WAIT_MILLIS = 5_000;
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private ConnectionPool primary;
+    private ConnectionPool replica;
+    private Copier copier;
+    private ReadRouter router;
+    private int acc_no;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        int n = DATABASES.incrementAndGet();
+        primary = pool("routerprimary" + n);
+        replica = pool("routerreplica" + n);
+        for (ConnectionPool database : List.of(primary, replica)) {
+            try (Connection conn = database.borrow()) {
+                BankSchema.create(conn);
+            }
+        }
+        try (Connection conn = primary.borrow()) {
+            acc_no = SimpleBankingSystem.openAccount(conn, "Asha", "9000000001", "asha@example.com", 500);
+        }
+
+        copier = new Copier(primary, replica);
+        copier.start();
+        router = new ReadRouter(primary, List.of(replica), HEARTBEAT_MILLIS);
+        router.start();
+        await(() -> replicaBalance(acc_no, 1_000) == 500, "replica never caught up");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        SimpleBankingSystem.readRouter = null;
+        SimpleBankingSystem.balanceCache.clear();
+        copier.interrupt();
+        copier.join();
+        for (ConnectionPool database : List.of(primary, replica)) {
+            try (Connection conn = database.borrow()) {
+                conn.createStatement().execute("SHUTDOWN");
+            }
+        }
+        router.close();
+        primary.close();
+    }
+
+    @Test
+    void freshReplicaAnswersTheRead() throws Exception {
+        copier.pause();
+        // Changed behind the router's back: the replica still has the old balance, and is fresh enough to be used
+        setPrimaryBalance(acc_no, 900);
+
+        long reads = router.getReplicaReads();
+        assertEquals(500, router.replicaBalance(acc_no, ReadRouter.MAX_STALENESS_MILLIS));
+        assertEquals(reads + 1, router.getReplicaReads());
+    }
+
+    @Test
+    void noStalenessAllowedGoesToThePrimary() throws Exception {
+        assertTrue(Double.isNaN(router.replicaBalance(acc_no, 0)));
+    }
+
+    @Test
+    void staleReplicaFallsBackToThePrimary() throws Exception {
+        copier.pause();
+        await(() -> router.getLagMillis()[0] > 200, "replica lag never grew");
+
+        long fallbacks = router.getStaleFallbacks();
+        assertTrue(Double.isNaN(router.replicaBalance(acc_no, 100)));
+        assertNull(router.replicaAccountExists(acc_no, 100));
+        assertEquals(fallbacks + 2, router.getStaleFallbacks());
+
+        // A read that accepts the lag is still served by the replica
+        assertEquals(500, router.replicaBalance(acc_no, ReadRouter.MAX_STALENESS_MILLIS));
+
+        copier.unpause();
+        await(() -> !Double.isNaN(replicaBalance(acc_no, 100)), "replica never became fresh again");
+    }
+
+    @Test
+    void ownWriteFallsBackUntilTheReplicaHasIt() throws Exception {
+        int other;
+        try (Connection conn = primary.borrow()) {
+            other = SimpleBankingSystem.openAccount(conn, "Ravi", "9000000002", "ravi@example.com", 100);
+        }
+        await(() -> replicaBalance(other, 1_000) == 100, "replica never copied the second account");
+
+        copier.pause();
+        setPrimaryBalance(acc_no, 750);
+        router.wrote(acc_no);
+
+        long fallbacks = router.getOwnWriteFallbacks();
+        assertTrue(Double.isNaN(router.replicaBalance(acc_no, ReadRouter.MAX_STALENESS_MILLIS)));
+        assertEquals(fallbacks + 1, router.getOwnWriteFallbacks());
+        // Accounts this process didn't write are still read from the replica
+        assertEquals(100, router.replicaBalance(other, ReadRouter.MAX_STALENESS_MILLIS));
+
+        copier.unpause();
+        await(() -> replicaBalance(acc_no, ReadRouter.MAX_STALENESS_MILLIS) == 750, "replica never served the own write");
+    }
+
+    @Test
+    void ownWriteThroughBankServiceIsReadBack() throws Exception {
+        SimpleBankingSystem.readRouter = router;
+        BankService service = new BankService(primary);
+        copier.pause();
+
+        service.deposit(acc_no, 250);
+        SimpleBankingSystem.balanceCache.clear();
+
+        assertEquals(750, service.getBalance(acc_no, ReadRouter.MAX_STALENESS_MILLIS));
+    }
+
+    @Test
+    void failedReplicaReadFallsBackToThePrimary() throws Exception {
+        SimpleBankingSystem.readRouter = router;
+        BankService service = new BankService(primary);
+        copier.pause();
+        setPrimaryBalance(acc_no, 600);
+        // The heartbeat still answers, so the replica looks fresh until the read itself fails
+        try (Connection conn = replica.borrow()) {
+            conn.createStatement().execute("DROP TABLE customers");
+        }
+
+        long errors = router.getReplicaErrors();
+        assertEquals(600, service.getBalance(acc_no, ReadRouter.MAX_STALENESS_MILLIS));
+        assertEquals(errors + 1, router.getReplicaErrors());
+    }
+
+    @Test
+    void unreachableReplicaIsNotRoutedTo() throws Exception {
+        copier.pause();
+        try (Connection conn = replica.borrow()) {
+            conn.createStatement().execute("DROP TABLE replica_heartbeat");
+        }
+        await(() -> router.getLagMillis()[0] == -1, "failed replica never marked unreachable");
+
+        long reads = router.getReplicaReads();
+        long fallbacks = router.getStaleFallbacks();
+        assertTrue(Double.isNaN(router.replicaBalance(acc_no, ReadRouter.MAX_STALENESS_MILLIS)));
+        assertEquals(reads, router.getReplicaReads());
+        assertEquals(fallbacks + 1, router.getStaleFallbacks());
+    }
+
+    private double replicaBalance(int acc_no, long maxStalenessMillis) {
+        try {
+            return router.replicaBalance(acc_no, maxStalenessMillis);
+        } catch (SimpleBankingSystem.InvalidAccountNumberException e) {
+            return Double.NaN;
+        }
+    }
+
+    private void setPrimaryBalance(int acc_no, double balance) throws SQLException {
+        try (Connection conn = primary.borrow();
+             PreparedStatement update = conn.prepareStatement("UPDATE customers SET balance = ? WHERE acc_no = ?")) {
+            update.setDouble(1, balance);
+            update.setInt(2, acc_no);
+            update.executeUpdate();
+        }
+    }
+
+    private static ConnectionPool pool(String name) {
+        return new ConnectionPool(BankSchema.embeddedUrl(name), "", "", 4, 1, 30_000, 60_000, 0, 16);
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(message);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    // Replication in commit order: the heartbeat is read before the customers, so the copied heartbeat never
+    // claims more than the copied rows contain
+    private static final class Copier extends Thread {
+        private final ConnectionPool from;
+        private final ConnectionPool to;
+        private boolean paused;
+
+        Copier(ConnectionPool from, ConnectionPool to) {
+            super("replica-copier");
+            this.from = from;
+            this.to = to;
+            setDaemon(true);
+        }
+
+        // Returns once no copy is running, so nothing changed on the primary after this reaches the replica
+        synchronized void pause() {
+            paused = true;
+        }
+
+        synchronized void unpause() {
+            paused = false;
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                synchronized (this) {
+                    if (!paused) {
+                        try {
+                            copy();
+                        } catch (SQLException e) {
+                            System.out.println("Replica copy failed: " + e.getMessage());
+                        }
+                    }
+                }
+                try {
+                    Thread.sleep(HEARTBEAT_MILLIS / 2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void copy() throws SQLException {
+            try (Connection source = from.borrow(); Connection target = to.borrow()) {
+                Long beat = null;
+                try (Statement statement = source.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT beat_millis FROM replica_heartbeat WHERE id = 1")) {
+                    if (resultSet.next()) {
+                        beat = resultSet.getLong(1);
+                    }
+                }
+                target.setAutoCommit(false);
+                try (Statement statement = source.createStatement();
+                     ResultSet resultSet = statement.executeQuery(
+                             "SELECT acc_no, name, phone, email, balance, closed_at FROM customers");
+                     PreparedStatement merge = target.prepareStatement(
+                             "MERGE INTO customers(acc_no, name, phone, email, balance, closed_at) KEY(acc_no) VALUES(?, ?, ?, ?, ?, ?)")) {
+                    while (resultSet.next()) {
+                        merge.setInt(1, resultSet.getInt(1));
+                        merge.setString(2, resultSet.getString(2));
+                        merge.setString(3, resultSet.getString(3));
+                        merge.setString(4, resultSet.getString(4));
+                        merge.setDouble(5, resultSet.getDouble(5));
+                        merge.setTimestamp(6, resultSet.getTimestamp(6));
+                        merge.executeUpdate();
+                    }
+                }
+                if (beat != null) {
+                    try (PreparedStatement merge = target.prepareStatement(
+                            "MERGE INTO replica_heartbeat(id, beat_millis) KEY(id) VALUES(1, ?)")) {
+                        merge.setLong(1, beat);
+                        merge.executeUpdate();
+                    }
+                }
+                target.commit();
+                target.setAutoCommit(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package banking;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionJournalTest {
+
+    private static final int SEGMENT_SIZE = TransactionJournal.RECORD_SIZE * 4;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsAreReplayedAcrossSegments() throws Exception {
+        try (TransactionJournal journal = new TransactionJournal(dir, SEGMENT_SIZE)) {
+            journal.record(TransactionJournal.CREATE, 1, 0, 10_000);
+            journal.record(TransactionJournal.CREATE, 2, 0, 5_000);
+            journal.record(TransactionJournal.DEPOSIT, 1, 0, 2_500);
+            journal.record(TransactionJournal.WITHDRAW, 2, 0, 1_000);
+            journal.record(TransactionJournal.TRANSFER, 1, 2, 500);
+            assertEquals(5, journal.getLastLsn());
+        }
+
+        assertEquals(Map.of(1, 12_000L, 2, 4_500L), TransactionJournal.replay(dir));
+    }
+
+    @Test
+    void reopenContinuesAfterTheLastRecord() throws Exception {
+        try (TransactionJournal journal = new TransactionJournal(dir, SEGMENT_SIZE)) {
+            journal.record(TransactionJournal.CREATE, 1, 0, 10_000);
+            journal.record(TransactionJournal.DEPOSIT, 1, 0, 100);
+        }
+        try (TransactionJournal journal = new TransactionJournal(dir, SEGMENT_SIZE)) {
+            assertEquals(3, journal.record(TransactionJournal.DEPOSIT, 1, 0, 100));
+        }
+
+        assertEquals(Map.of(1, 10_200L), TransactionJournal.replay(dir));
+    }
+
+    @Test
+    void secondWriterIsRefusedWhileTheJournalIsOpen() throws Exception {
+        try (TransactionJournal journal = new TransactionJournal(dir, SEGMENT_SIZE)) {
+            journal.record(TransactionJournal.CREATE, 1, 0, 10_000);
+
+            IOException refused = assertThrows(IOException.class, () -> new TransactionJournal(dir, SEGMENT_SIZE));
+            assertTrue(refused.getMessage().contains("in use"), refused.getMessage());
+            assertThrows(IOException.class, () -> TransactionJournal.lock(dir));
+
+            journal.record(TransactionJournal.DEPOSIT, 1, 0, 100);
+        }
+
+        // Released by close()
+        try (FileChannel lockChannel = TransactionJournal.lock(dir).channel()) {
+            assertTrue(lockChannel.isOpen());
+        }
+        assertEquals(Map.of(1, 10_100L), TransactionJournal.replay(dir));
+    }
+}
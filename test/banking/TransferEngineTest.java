@@ -0,0 +1,62 @@
+package banking;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The transfer engine under the velocity limits of the debit account
+
+class TransferEngineTest {
+
+    private ConnectionPool pool;
+    private BankService service;
+    private int acc_no;
+    private int other_acc_no;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pool = new ConnectionPool(BankSchema.embeddedUrl("transferengine"), "", "", 4, 1, 30_000, 60_000, 0, 16);
+        try (Connection conn = pool.borrow()) {
+            BankSchema.create(conn);
+        }
+        service = new BankService(pool);
+        acc_no = service.createAccount("Asha", "9000000001", "asha@example.com", 500);
+        other_acc_no = service.createAccount("Ravi", "9000000002", "ravi@example.com", 100);
+        SimpleBankingSystem.velocityLimits = new VelocityLimits(Map.of(
+                VelocityLimits.DEFAULT_TIER, new VelocityLimits.Limits(2, 1_000, 10, 10_000)));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        SimpleBankingSystem.velocityLimits = null;
+        SimpleBankingSystem.balanceCache.clear();
+        try (Connection conn = pool.borrow()) {
+            conn.createStatement().execute("SHUTDOWN");
+        }
+        pool.close();
+    }
+
+    @Test
+    void transfersOverTheVelocityLimitAreRefused() throws Exception {
+        try (TransferEngine engine = new TransferEngine(pool, 2, 3, 1)) {
+            // Fails for lack of funds, so it gives its reservation back
+            assertFalse(engine.submit(acc_no, other_acc_no, 900).get().success);
+            assertTrue(engine.submit(acc_no, other_acc_no, 50).get().success);
+            assertTrue(engine.submit(acc_no, other_acc_no, 50).get().success);
+
+            TransferEngine.TransferResult refused = engine.submit(acc_no, other_acc_no, 50).get();
+            assertFalse(refused.success);
+            assertTrue(refused.failure.startsWith("Velocity limit exceeded"), refused.failure);
+            // Limits are on the debit account only
+            assertTrue(engine.submit(other_acc_no, acc_no, 10).get().success);
+        }
+        SimpleBankingSystem.balanceCache.clear();
+        assertEquals(410, service.getBalance(acc_no));
+        assertEquals(190, service.getBalance(other_acc_no));
+    }
+}
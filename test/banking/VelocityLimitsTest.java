@@ -0,0 +1,139 @@
+package banking;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The sliding windows on a test clock: buckets falling out of the window, releases across bucket boundaries, tier
+// changes, and removal from the open-addressing table
+
+class VelocityLimitsTest {
+
+    private static final long MINUTE = 60_000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final long START = 1_000 * DAY;
+
+    private long now = START;
+    private final VelocityLimits limits = new VelocityLimits(Map.of(
+            VelocityLimits.DEFAULT_TIER, new VelocityLimits.Limits(2, 1_000, 4, 1_500),
+            "PREMIUM", new VelocityLimits.Limits(5, 10_000, 10, 20_000)), () -> now);
+
+    @Test
+    void countPerMinuteIsEnforced() throws Exception {
+        limits.reserve(1, 100);
+        limits.reserve(1, 100);
+
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 100));
+        // Other accounts have their own windows
+        limits.reserve(2, 100);
+    }
+
+    @Test
+    void amountPerMinuteIsEnforced() throws Exception {
+        limits.reserve(1, 90_000);
+
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 10_001));
+        limits.reserve(1, 10_000);
+    }
+
+    @Test
+    void minuteWindowSlidesOneBucketAtATime() throws Exception {
+        limits.reserve(1, 100);
+        now += 30_000;
+        limits.reserve(1, 100);
+        now += 29_999;
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 100));
+
+        // The first debit's bucket has left the window, the second's hasn't
+        now = START + MINUTE;
+        limits.reserve(1, 100);
+        now += 500;
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 100));
+    }
+
+    @Test
+    void dayLimitHoldsAcrossMinutesUntilTheDayHasPassed() throws Exception {
+        for (int n = 0; n < 4; n++) {
+            limits.reserve(1, 100);
+            now += 2 * MINUTE;
+        }
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 100));
+
+        now = START + DAY - 1;
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 100));
+        now = START + DAY + 15 * MINUTE;
+        limits.reserve(1, 100);
+    }
+
+    @Test
+    void releaseInALaterBucketGivesTheReservationBack() throws Exception {
+        limits.reserve(1, 100);
+        long reservedAt = limits.reserve(1, 100);
+        now += 1_500;
+
+        limits.release(1, 100, reservedAt);
+
+        limits.reserve(1, 100);
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 100));
+    }
+
+    @Test
+    void releaseOfAReservationThatLeftTheWindowIsIgnored() throws Exception {
+        long reservedAt = limits.reserve(1, 100);
+        now += MINUTE + 1_000;
+        limits.reserve(1, 100);
+        limits.reserve(1, 100);
+
+        // Its bucket has been reused by the new minute; taking it back there would free a slot that isn't its
+        limits.release(1, 100, reservedAt);
+
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 100));
+    }
+
+    @Test
+    void tierChangeAppliesToAnAccountThatAlreadyHasWindows() throws Exception {
+        limits.reserve(1, 100);
+        limits.reserve(1, 100);
+
+        limits.setTier(1, "PREMIUM");
+        limits.reserve(1, 100);
+
+        limits.setTier(1, VelocityLimits.DEFAULT_TIER);
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(1, 100));
+        assertThrows(IllegalArgumentException.class, () -> limits.setTier(1, "GOLD"));
+    }
+
+    @Test
+    void tierSetBeforeTheFirstDebitIsUsed() throws Exception {
+        limits.setTier(7, "PREMIUM");
+        for (int n = 0; n < 5; n++) {
+            limits.reserve(7, 100);
+        }
+
+        assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(7, 100));
+    }
+
+    @Test
+    void forgottenAccountsLeaveTheOthersFindable() throws Exception {
+        // Enough accounts to grow the tables, and to put several in every probe run
+        for (int acc_no = 1; acc_no <= 2_000; acc_no++) {
+            limits.reserve(acc_no, 100);
+            limits.reserve(acc_no, 100);
+        }
+        for (int acc_no = 2; acc_no <= 2_000; acc_no += 2) {
+            limits.forget(acc_no);
+        }
+
+        for (int acc_no = 1; acc_no <= 2_000; acc_no++) {
+            if (acc_no % 2 == 0) {
+                limits.reserve(acc_no, 100);
+            } else {
+                int remembered = acc_no;
+                assertThrows(SimpleBankingSystem.VelocityLimitExceededException.class, () -> limits.reserve(remembered, 100),
+                        "acc_no " + acc_no);
+            }
+        }
+    }
+}